@@ -0,0 +1,37 @@
+package ru.bellintegrator.filesharing.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Конфигурация пулов потоков
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Пул потоков для записи содержимого загружаемых файлов в хранилище.
+     * Очередь ограничена, и при ее заполнении содержимое записывает поток запроса,
+     * поэтому одновременные загрузки не могут занять неограниченное количество потоков и памяти
+     *
+     * @param poolSize количество потоков
+     * @param queueCapacity размер очереди
+     * @return пул потоков
+     */
+    @Bean
+    public ThreadPoolTaskExecutor uploadExecutor(@Value("${upload.executor.pool-size:4}") int poolSize,
+                                                 @Value("${upload.executor.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("upload-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+}
@@ -0,0 +1,13 @@
+package ru.bellintegrator.filesharing.configuration;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Конфигурация фоновых задач
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+}
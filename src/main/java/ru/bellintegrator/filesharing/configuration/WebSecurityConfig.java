@@ -1,5 +1,6 @@
 package ru.bellintegrator.filesharing.configuration;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
@@ -8,6 +9,9 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
+import org.springframework.security.web.csrf.CsrfFilter;
+import ru.bellintegrator.filesharing.controller.UploadQuotaFilter;
+import ru.bellintegrator.filesharing.service.FileService;
 import ru.bellintegrator.filesharing.service.UserService;
 
 /**
@@ -21,6 +25,9 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ObjectProvider<FileService> fileService;
+
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http
@@ -33,7 +40,9 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                     .permitAll()
                     .and()
                 .logout()
-                    .permitAll();
+                    .permitAll()
+                    .and()
+                .addFilterBefore(new UploadQuotaFilter(fileService), CsrfFilter.class);
     }
 
     @Override
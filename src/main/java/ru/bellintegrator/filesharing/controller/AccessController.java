@@ -1,20 +1,25 @@
 package ru.bellintegrator.filesharing.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
 import ru.bellintegrator.filesharing.service.AccessService;
+import ru.bellintegrator.filesharing.service.FileService;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Контроллер, обрабатывающий запросы на доступ к файлам
@@ -22,11 +27,23 @@ import java.util.Set;
 @Controller
 public class AccessController {
 
+    /**
+     * Поля, по которым можно сортировать файлы пользователя
+     */
+    private static final List<String> SORT_FIELDS = Arrays.asList("name", "date", "downloads");
+
+    /**
+     * Типы запросов доступа, которые можно одобрить или отклонить списком
+     */
+    private static final List<String> REQUEST_TYPES = Arrays.asList("read", "download");
+
     private final AccessService accessService;
+    private final FileService fileService;
 
     @Autowired
-    public AccessController(AccessService accessService) {
+    public AccessController(AccessService accessService, FileService fileService) {
         this.accessService = accessService;
+        this.fileService = fileService;
     }
 
     /**
@@ -62,17 +79,20 @@ public class AccessController {
     }
 
     /**
-     * Показывает список подписчиков, запрашивающих доступ
+     * Показывает страницу подписчиков, запрашивающих доступ
      *
      * @param currentUser текущий пользователь
+     * @param page номер страницы, начиная с 0
      * @param model модель
      * @return список подписчиков, запрашивающих доступ
      */
     @GetMapping("/subscribers")
     public String showRequestingSubscribers(@AuthenticationPrincipal User currentUser,
+                                  @RequestParam(value = "page", defaultValue = "0") int page,
                                   Model model) {
-        List<Access> accesses = accessService.getRequestingAccesses(currentUser);
-        model.addAttribute("accesses", accesses);
+        Page<Access> accesses = accessService.getRequestingAccesses(currentUser, page);
+        model.addAttribute("accesses", accesses.getContent());
+        model.addAttribute("page", accesses);
         return "subscribers";
     }
 
@@ -105,10 +125,49 @@ public class AccessController {
     }
 
     /**
-     * Отображает файлы пользователя
+     * Одобряет запросы доступа выбранных или всех подписчиков
+     *
+     * @param currentUser текущий пользователь
+     * @param type тип запросов: read или download
+     * @param subscriberIds id выбранных подписчиков
+     * @param all true - одобрить все запросы этого типа
+     * @return список подписчиков, запрашивающих доступ
+     */
+    @PostMapping("/subscribers/allow")
+    public String allowRequests(@AuthenticationPrincipal User currentUser,
+                                @RequestParam("type") String type,
+                                @RequestParam(value = "id", required = false) List<Integer> subscriberIds,
+                                @RequestParam(value = "all", defaultValue = "false") boolean all) {
+        accessService.allowRequests(currentUser, getSubscriberIds(subscriberIds, all), isDownload(type));
+        return "redirect:/subscribers";
+    }
+
+    /**
+     * Отклоняет запросы доступа выбранных или всех подписчиков
+     *
+     * @param currentUser текущий пользователь
+     * @param type тип запросов: read или download
+     * @param subscriberIds id выбранных подписчиков
+     * @param all true - отклонить все запросы этого типа
+     * @return список подписчиков, запрашивающих доступ
+     */
+    @PostMapping("/subscribers/deny")
+    public String denyRequests(@AuthenticationPrincipal User currentUser,
+                               @RequestParam("type") String type,
+                               @RequestParam(value = "id", required = false) List<Integer> subscriberIds,
+                               @RequestParam(value = "all", defaultValue = "false") boolean all) {
+        accessService.denyRequests(currentUser, getSubscriberIds(subscriberIds, all), isDownload(type));
+        return "redirect:/subscribers";
+    }
+
+    /**
+     * Отображает страницу файлов пользователя
      *
      * @param currentUser текущий пользователь
      * @param fileOwnerId id владелеца файлов
+     * @param page номер страницы, начиная с 0
+     * @param sort поле сортировки: name, date или downloads
+     * @param dir направление сортировки: asc или desc
      * @param model модель
      * @return страница со списком файлов запрашиваемого пользователя
      */
@@ -116,32 +175,37 @@ public class AccessController {
     public String showUserFiles(
             @AuthenticationPrincipal User currentUser,
             @PathVariable(value ="fileOwnerId") String fileOwnerId,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "sort", defaultValue = "date") String sort,
+            @RequestParam(value = "dir", defaultValue = "desc") String dir,
             Model model
     ) {
         User fileOwner = accessService.findUserById(fileOwnerId);
+        if (!SORT_FIELDS.contains(sort)) {
+            sort = "date";
+        }
+        dir = "asc".equalsIgnoreCase(dir) ? "asc" : "desc";
+        model.addAttribute("sortFields", SORT_FIELDS);
+        model.addAttribute("sort", sort);
+        model.addAttribute("dir", dir);
 
         if(isFileOwner(currentUser, fileOwner)) {
             model.addAttribute("readAccess", false);
-            return addAttributes(model, fileOwner.getFiles(), fileOwner, true,null);
+            return addAttributes(model, findFiles(fileOwner, page, sort, dir), fileOwner, true,null);
         }
 
-        Access access = accessService.findAccess(fileOwnerId, currentUser);
-        if (access != null){
-            if(!access.getDownloadRequest() && access.getDownloadAccess()) {
-                model.addAttribute("readAccess", false);
-                return addAttributes(model, access.getUser().getFiles(), access.getUser(),false,null);
-            }
-            if(!access.getReadRequest() && access.getReadAccess()) {
-                if ((!access.getDownloadRequest() && !access.getDownloadAccess()) || access.getDownloadRequest()) {
-                    model.addAttribute("readAccess", true);
-                    return addAttributes(model, access.getUser().getFiles(), access.getUser(), false,null);
-                }
-            } else {
-                return addAttributes(model, Collections.EMPTY_SET, access.getUser(), false,
-                        "No files available for you");
+        AccessDecision access = accessService.findAccessDecision(fileOwnerId, currentUser);
+        if(!access.getDownloadRequest() && access.getDownloadAccess()) {
+            model.addAttribute("readAccess", false);
+            return addAttributes(model, findFiles(fileOwner, page, sort, dir), fileOwner, false,null);
+        }
+        if(!access.getReadRequest() && access.getReadAccess()) {
+            if ((!access.getDownloadRequest() && !access.getDownloadAccess()) || access.getDownloadRequest()) {
+                model.addAttribute("readAccess", true);
+                return addAttributes(model, findFiles(fileOwner, page, sort, dir), fileOwner, false,null);
             }
         }
-        return addAttributes(model, Collections.EMPTY_SET, fileOwner, false,
+        return addAttributes(model, null, fileOwner, false,
                 "No files available for you");
     }
 
@@ -149,20 +213,38 @@ public class AccessController {
      * Добавляет атрибуты в модель
      *
      * @param model модель
-     * @param files список файлов
+     * @param files страница файлов, null - если файлы недоступны
      * @param fileOwner владелец файлов
      * //@param file выбранный файл
      * @param isFileOwner true, если пользователь - владелец файлов
      * @return страница со списком файлов запрашиваемого пользователя
      */
-    private String addAttributes(Model model, Set<UserFile> files, User fileOwner, boolean isFileOwner, String info) {
-        model.addAttribute("files", files);
+    private String addAttributes(Model model, Page<UserFile> files, User fileOwner, boolean isFileOwner, String info) {
+        if (files != null) {
+            model.addAttribute("files", files.getContent());
+            model.addAttribute("page", files);
+        } else {
+            model.addAttribute("files", Collections.emptySet());
+        }
         model.addAttribute("fileOwner", fileOwner);
         model.addAttribute("isFileOwner", isFileOwner);
         model.addAttribute("info", info);
         return "userFiles";
     }
 
+    /**
+     * Находит страницу файлов владельца
+     *
+     * @param fileOwner владелец файлов
+     * @param page номер страницы
+     * @param sort поле сортировки
+     * @param dir направление сортировки
+     * @return страница файлов
+     */
+    private Page<UserFile> findFiles(User fileOwner, int page, String sort, String dir) {
+        return fileService.findOwnerFiles(fileOwner, page, sort, "desc".equalsIgnoreCase(dir));
+    }
+
     /**
      * Определяет является ли текущий пользователь владельцем файлов
      *
@@ -173,4 +255,31 @@ public class AccessController {
     private boolean isFileOwner(User currentUser, User fileOwner) {
         return currentUser.getId().equals(fileOwner.getId());
     }
+
+    /**
+     * Проверяет тип запросов доступа
+     *
+     * @param type тип запросов: read или download
+     * @return true - запросы на скачивание
+     */
+    private boolean isDownload(String type) {
+        if (!REQUEST_TYPES.contains(type)) {
+            throw new NotFoundException("Unknown request type");
+        }
+        return "download".equals(type);
+    }
+
+    /**
+     * Выбирает подписчиков, запросы которых нужно изменить
+     *
+     * @param subscriberIds id выбранных подписчиков
+     * @param all true - все подписчики
+     * @return id подписчиков, null - все подписчики
+     */
+    private List<Integer> getSubscriberIds(List<Integer> subscriberIds, boolean all) {
+        if (all) {
+            return null;
+        }
+        return subscriberIds == null ? Collections.emptyList() : subscriberIds;
+    }
 }
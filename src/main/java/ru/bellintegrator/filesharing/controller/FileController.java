@@ -3,7 +3,9 @@ package ru.bellintegrator.filesharing.controller;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -14,6 +16,8 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -21,8 +25,15 @@ import org.springframework.web.multipart.MultipartFile;
 
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.service.FilePage;
 import ru.bellintegrator.filesharing.service.FileService;
+import ru.bellintegrator.filesharing.service.UserFileResource;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,6 +45,12 @@ public class FileController {
     @Value("${upload.path}")
     private String uploadPath;
 
+    /**
+     * Отдавать файлы с диска без копирования через heap (sendfile / FileChannel.transferTo)
+     */
+    @Value("${download.zero-copy:false}")
+    private boolean zeroCopy;
+
     private final FileService fileService;
 
     @Autowired
@@ -42,18 +59,23 @@ public class FileController {
     }
 
     /**
-     * Отображает все файлы в системе
+     * Отображает страницу файлов в системе
      *
+     * @param after id, после которого начинается страница
+     * @param before id, перед которым заканчивается страница
      * @param model модель
      * @return страница со списком файлов
      */
     @GetMapping("/files")
     public String showAllFiles(@AuthenticationPrincipal User currentUser,
+                               @RequestParam(value = "after", required = false) Integer after,
+                               @RequestParam(value = "before", required = false) Integer before,
                                Model model) {
-        List<UserFile> files = fileService.findAllFiles();
+        FilePage page = fileService.findFiles(after, before);
 
         model.addAttribute("readAccess", false);
-        model.addAttribute("files", files);
+        model.addAttribute("files", page.getFiles());
+        model.addAttribute("page", page);
 
         return "files";
     }
@@ -73,22 +95,143 @@ public class FileController {
     }
 
     /**
-     * Загружает файл из системы
+     * Добавляет в систему несколько файлов за один запрос
+     *
+     * @param files файлы
+     * @return страница со списком файлов
+     */
+    @PostMapping("/{userId}/files/batch")
+    public String uploadFiles(@AuthenticationPrincipal User currentUser,
+                              @PathVariable(value ="userId") String userId,
+                              @RequestParam("file") List<MultipartFile> files) {
+        fileService.uploadFiles(currentUser, files);
+        return "redirect:/" + currentUser.getId() + "/files";
+    }
+
+    /**
+     * Добавляет файл в систему, читая тело запроса как содержимое файла.
+     * В отличие от multipart-загрузки, контейнер сервлетов не сохраняет запрос во временный файл
+     *
+     * @param fileName оригинальное имя файла
+     * @param request запрос
+     * @return ResponseEntity со статусом 201 и адресом файла
+     * @throws IOException
+     */
+    @PutMapping("/{userId}/files")
+    @ResponseBody
+    public ResponseEntity<Void> uploadFileStream(@AuthenticationPrincipal User currentUser,
+                                                 @PathVariable(value ="userId") String userId,
+                                                 @RequestParam("name") String fileName,
+                                                 HttpServletRequest request) throws IOException {
+        UserFile file = fileService.uploadFile(currentUser, fileName, request.getInputStream());
+        return ResponseEntity.created(URI.create("/files/" + file.getId())).build();
+    }
+
+    /**
+     * Загружает файл из системы.
+     * Условный запрос с актуальными If-None-Match или If-Modified-Since получает ответ 304
+     * после проверки доступа, без чтения файла и без учета в счетчике скачиваний
      *
      * @param fileId id файла
-     * @return ResponseEntity сформированный ответ контроллера
+     * @param request запрос
+     * @param response ответ
+     * @return ResponseEntity сформированный ответ контроллера,
+     * null - если файл уже отправлен в ответ без копирования через heap или хранится в сжатом виде,
+     * а также при ответе 304
+     * @throws IOException
      */
     @GetMapping("/files/{fileId}")
     @ResponseBody
     public ResponseEntity<Resource> downloadFile (@AuthenticationPrincipal User currentUser,
-                                                  @PathVariable(value ="fileId") String fileId) {
+                                                  @PathVariable(value ="fileId") String fileId,
+                                                  HttpServletRequest request,
+                                                  HttpServletResponse response) throws IOException {
+        if (FileSender.isNotModified(fileService.findFile(currentUser, fileId), request, response)) {
+            return null;
+        }
         Resource file = fileService.downloadFile(currentUser, fileId);
+        if ((zeroCopy && file.isFile()) || FileSender.isEncoded(file)) {
+            FileSender.send(file, request, response);
+            return null;
+        }
+        FileSender.setETag(file, false, response);
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION,"attachment; filename=\"" + file.getFilename() + "\"")
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .lastModified(file.lastModified())
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
                 .body(file);
     }
 
+    /**
+     * Загружает части файла из системы по заголовкам Range и If-Range
+     *
+     * @param fileId id файла
+     * @param headers заголовки запроса
+     * @param request запрос
+     * @param response ответ
+     * @return ResponseEntity сформированный ответ контроллера со статусом 206,
+     * null - если ответ уже отправлен напрямую
+     * @throws IOException
+     */
+    @GetMapping(value = "/files/{fileId}", headers = HttpHeaders.RANGE)
+    @ResponseBody
+    public ResponseEntity<List<ResourceRegion>> downloadFileRange (@AuthenticationPrincipal User currentUser,
+                                                                   @PathVariable(value ="fileId") String fileId,
+                                                                   @RequestHeader HttpHeaders headers,
+                                                                   HttpServletRequest request,
+                                                                   HttpServletResponse response) throws IOException {
+        if (FileSender.isNotModified(fileService.findFile(currentUser, fileId), request, response)) {
+            return null;
+        }
+        List<HttpRange> ranges = getRanges(headers);
+        Resource file = fileService.downloadFile(currentUser, fileId,
+                ranges.isEmpty() || FileSender.isFromBeginning(ranges));
+        if (ranges.isEmpty() || FileSender.isEncoded(file) || !FileSender.isIfRangeMatched(headers, file)) {
+            FileSender.send(file, request, response);
+            return null;
+        }
+
+        List<ResourceRegion> regions;
+        try {
+            regions = FileSender.toResourceRegions(ranges, file);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + file.contentLength())
+                    .build();
+        }
+        if (zeroCopy && file.isFile() && regions.size() == 1) {
+            FileSender.sendRange(file, regions.get(0), request, response);
+            return null;
+        }
+        FileSender.setETag(file, false, response);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.CONTENT_DISPOSITION,"attachment; filename=\"" + file.getFilename() + "\"")
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .lastModified(file.lastModified())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(regions);
+    }
+
+    /**
+     * Загружает файлы владельца одним ZIP-архивом, который пишется прямо в ответ.
+     * Скачивание файла учитывается после того, как файл записан в архив
+     *
+     * @param fileOwnerId id владельца файлов
+     * @param fileIds id выбранных файлов, если не указаны - все файлы владельца
+     * @param response ответ
+     * @throws IOException
+     */
+    @GetMapping("/{fileOwnerId}/files/zip")
+    public void downloadFiles(@AuthenticationPrincipal User currentUser,
+                              @PathVariable(value ="fileOwnerId") String fileOwnerId,
+                              @RequestParam(value = "id", required = false) List<Integer> fileIds,
+                              HttpServletResponse response) throws IOException {
+        Iterable<UserFileResource> files = fileService.downloadFiles(currentUser, fileOwnerId, fileIds);
+        ZipSender.send(files, "files-" + fileOwnerId + ".zip", response,
+                file -> fileService.countDownload(file.getUserFile().getId()));
+    }
+
     /**
      * Удаляет файл из системы
      *
@@ -103,4 +246,18 @@ public class FileController {
         fileService.deleteFile(currentUser, fileId);
         return "redirect:/" + currentUser.getId() + "/files";
     }
+
+    /**
+     * Разбирает заголовок Range. Некорректный заголовок игнорируется, и файл отдается целиком
+     *
+     * @param headers заголовки запроса
+     * @return диапазоны, пустой список - если файл нужно отдать целиком
+     */
+    private List<HttpRange> getRanges(HttpHeaders headers) {
+        try {
+            return headers.getRange();
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
 }
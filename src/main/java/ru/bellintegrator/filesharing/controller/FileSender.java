@@ -0,0 +1,417 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.service.UserFileResource;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Вспомогательный класс для отправки файлов с диска без копирования через heap
+ * и файлов, хранящихся в сжатом виде
+ */
+public class FileSender {
+
+    /**
+     * Атрибуты запроса, через которые Tomcat отдает файл системным вызовом sendfile
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Минимальный размер файла для sendfile, как у DefaultServlet Tomcat.
+     * Меньшие файлы дешевле записать в ответ сразу
+     */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    /**
+     * Максимальное количество диапазонов в одном запросе
+     */
+    private static final int MAX_RANGES = 100;
+
+    /**
+     * Отправляет файл в ответ целиком.
+     * Если контейнер поддерживает sendfile, файл передается ядром после выхода из контроллера,
+     * иначе копируется через FileChannel.transferTo. Ресурсы не на диске копируются потоком.
+     * Сжатое содержимое отдается как есть с Content-Encoding или распаковывается, если клиент не принимает сжатие
+     *
+     * @param resource ресурс файла
+     * @param request запрос
+     * @param response ответ
+     * @throws IOException
+     */
+    static void send(Resource resource, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (isEncoded(resource)) {
+            sendEncoded((UserFileResource) resource, request, response);
+            return;
+        }
+        setHeaders(resource, response);
+        if (!resource.isFile()) {
+            response.setContentLengthLong(resource.contentLength());
+            try (InputStream in = resource.getInputStream()) {
+                StreamUtils.copy(in, response.getOutputStream());
+            }
+            return;
+        }
+
+        File file = resource.getFile();
+        long length = file.length();
+        response.setContentLengthLong(length);
+        write(file, 0, length, request, response);
+    }
+
+    /**
+     * Отправляет в ответ один диапазон байт файла со статусом 206
+     *
+     * @param resource ресурс файла на диске
+     * @param region диапазон байт
+     * @param request запрос
+     * @param response ответ
+     * @throws IOException
+     */
+    static void sendRange(Resource resource, ResourceRegion region,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File file = resource.getFile();
+        long start = region.getPosition();
+        long end = start + region.getCount() - 1;
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        setHeaders(resource, response);
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + file.length());
+        response.setContentLengthLong(region.getCount());
+        write(file, start, region.getCount(), request, response);
+    }
+
+    /**
+     * Преобразует диапазоны из заголовка Range в части файла
+     *
+     * @param ranges диапазоны
+     * @param resource ресурс файла
+     * @return части файла
+     * @throws IOException
+     * @throws IllegalArgumentException если диапазоны не могут быть удовлетворены
+     */
+    static List<ResourceRegion> toResourceRegions(List<HttpRange> ranges, Resource resource) throws IOException {
+        if (ranges.size() > MAX_RANGES) {
+            throw new IllegalArgumentException("Too many ranges: " + ranges.size());
+        }
+        long length = resource.contentLength();
+        long total = 0;
+        List<ResourceRegion> regions = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            if (range.getRangeStart(length) >= length) {
+                throw new IllegalArgumentException("Range " + range + " is out of the file length " + length);
+            }
+            ResourceRegion region = range.toResourceRegion(resource);
+            total += region.getCount();
+            regions.add(region);
+        }
+        if (ranges.size() > 1 && total > length) {
+            throw new IllegalArgumentException("Overlapping ranges exceed the file length " + length);
+        }
+        return regions;
+    }
+
+    /**
+     * Определяет, начинается ли хотя бы один диапазон с первого байта файла
+     *
+     * @param ranges диапазоны
+     * @return true, если начинается
+     */
+    static boolean isFromBeginning(List<HttpRange> ranges) {
+        return ranges.stream().anyMatch(range -> range.getRangeStart(Long.MAX_VALUE) == 0);
+    }
+
+    /**
+     * Проверяет условие заголовка If-Range.
+     * Если файл изменился, клиенту нужно отдать его целиком
+     *
+     * @param headers заголовки запроса
+     * @param resource ресурс файла
+     * @return true, если можно отдавать диапазоны
+     * @throws IOException
+     */
+    static boolean isIfRangeMatched(HttpHeaders headers, Resource resource) throws IOException {
+        String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return resource instanceof UserFileResource
+                    && ifRange.equals(getETag(((UserFileResource) resource).getUserFile(), false));
+        }
+        try {
+            long date = headers.getFirstDate(HttpHeaders.IF_RANGE);
+            return date != -1 && resource.lastModified() / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Проверяет условные заголовки If-None-Match и If-Modified-Since по данным файла, не открывая его содержимое.
+     * Если файл не изменился, устанавливает статус 304 и заголовки ETag и Last-Modified.
+     * If-Modified-Since учитывается, только если в запросе нет If-None-Match
+     *
+     * @param userFile файл
+     * @param request запрос
+     * @param response ответ
+     * @return true, если клиенту отправлен ответ 304
+     */
+    static boolean isNotModified(UserFile userFile, HttpServletRequest request, HttpServletResponse response) {
+        boolean encoded = userFile.getContentEncoding() != null
+                && isEncodingAccepted(request, userFile.getContentEncoding());
+        String eTag = getETag(userFile, encoded);
+        long lastModified = userFile.getUploadDate() == null ? -1 : userFile.getUploadDate().getTime();
+
+        boolean notModified;
+        Enumeration<String> ifNoneMatch = request.getHeaders(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && ifNoneMatch.hasMoreElements()) {
+            notModified = eTag != null && isETagMatched(ifNoneMatch, eTag);
+        } else {
+            notModified = lastModified != -1 && isNotModifiedSince(request, lastModified);
+        }
+        if (!notModified) {
+            return false;
+        }
+
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        if (eTag != null) {
+            response.setHeader(HttpHeaders.ETAG, eTag);
+        }
+        if (lastModified != -1) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+        if (userFile.getContentEncoding() != null) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает сильный ETag файла. Содержимое файла не меняется после загрузки, поэтому ETag строится по SHA-256.
+     * Сжатое представление отличается от исходного побайтно и получает свой ETag
+     *
+     * @param userFile файл
+     * @param encoded true, если отдается сжатое представление
+     * @return ETag в кавычках, null - если хеш содержимого неизвестен
+     */
+    static String getETag(UserFile userFile, boolean encoded) {
+        if (userFile.getContentHash() == null) {
+            return null;
+        }
+        return "\"" + userFile.getContentHash() + (encoded ? "-" + userFile.getContentEncoding() : "") + "\"";
+    }
+
+    /**
+     * Проверяет, что содержимое файла хранится в сжатом виде.
+     * Такие файлы отдаются только целиком через {@link #send}
+     *
+     * @param resource ресурс файла
+     * @return true, если содержимое сжато
+     */
+    static boolean isEncoded(Resource resource) {
+        return resource instanceof UserFileResource && ((UserFileResource) resource).getContentEncoding() != null;
+    }
+
+    /**
+     * Отправляет сжатый файл целиком
+     *
+     * @param resource ресурс файла
+     * @param request запрос
+     * @param response ответ
+     * @throws IOException
+     */
+    private static void sendEncoded(UserFileResource resource,
+                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+        setHeaders(resource, response);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!isEncodingAccepted(request, resource.getContentEncoding())) {
+            setETag(resource, false, response);
+            try (InputStream in = resource.getDecodedInputStream()) {
+                StreamUtils.copy(in, response.getOutputStream());
+            }
+            return;
+        }
+
+        setETag(resource, true, response);
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, resource.getContentEncoding());
+        long length = resource.contentLength();
+        response.setContentLengthLong(length);
+        if (!resource.isFile()) {
+            try (InputStream in = resource.getInputStream()) {
+                StreamUtils.copy(in, response.getOutputStream());
+            }
+            return;
+        }
+        write(resource.getFile(), 0, length, request, response);
+    }
+
+    /**
+     * Проверяет, совпадает ли один из ETag заголовка If-None-Match с ETag файла.
+     * Для If-None-Match используется слабое сравнение, поэтому префикс W/ не учитывается
+     *
+     * @param headers значения заголовка If-None-Match
+     * @param eTag ETag файла
+     * @return true, если ETag совпал
+     */
+    private static boolean isETagMatched(Enumeration<String> headers, String eTag) {
+        while (headers.hasMoreElements()) {
+            for (String token : headers.nextElement().split(",")) {
+                String tag = token.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || eTag.equals(tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Проверяет заголовок If-Modified-Since с точностью до секунды
+     *
+     * @param request запрос
+     * @param lastModified дата изменения файла
+     * @return true, если файл не менялся после указанной даты
+     */
+    private static boolean isNotModifiedSince(HttpServletRequest request, long lastModified) {
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return date != -1 && lastModified / 1000 <= date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Устанавливает заголовок ETag, если ресурс - файл пользователя с известным хешем
+     *
+     * @param resource ресурс файла
+     * @param encoded true, если отдается сжатое представление
+     * @param response ответ
+     */
+    static void setETag(Resource resource, boolean encoded, HttpServletResponse response) {
+        if (resource instanceof UserFileResource) {
+            String eTag = getETag(((UserFileResource) resource).getUserFile(), encoded);
+            if (eTag != null) {
+                response.setHeader(HttpHeaders.ETAG, eTag);
+            }
+        }
+    }
+
+    /**
+     * Проверяет по заголовку Accept-Encoding, что клиент принимает сжатие.
+     * Явно указанное сжатие важнее "*", значение q=0 означает отказ
+     *
+     * @param request запрос
+     * @param encoding сжатие
+     * @return true, если сжатие принимается
+     */
+    private static boolean isEncodingAccepted(HttpServletRequest request, String encoding) {
+        Double explicit = null;
+        Double wildcard = null;
+        Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String token : headers.nextElement().split(",")) {
+                String[] parts = token.split(";");
+                String name = parts[0].trim();
+                double quality = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                if (name.equalsIgnoreCase(encoding)) {
+                    explicit = quality;
+                } else if ("*".equals(name)) {
+                    wildcard = quality;
+                }
+            }
+        }
+        if (explicit != null) {
+            return explicit > 0;
+        }
+        return wildcard != null && wildcard > 0;
+    }
+
+    /**
+     * Устанавливает общие заголовки ответа с файлом
+     *
+     * @param resource ресурс файла
+     * @param response ответ
+     * @throws IOException
+     */
+    private static void setHeaders(Resource resource, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, resource.lastModified());
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        setETag(resource, false, response);
+    }
+
+    /**
+     * Записывает часть файла в ответ через sendfile или FileChannel.transferTo.
+     * Если файл укоротился после определения длины ответа, запись прерывается исключением
+     *
+     * @param file файл
+     * @param start позиция первого байта
+     * @param count количество байт
+     * @param request запрос
+     * @param response ответ
+     * @throws IOException
+     */
+    private static void write(File file, long start, long count,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long end = start + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, out);
+                if (transferred <= 0) {
+                    throw new EOFException("The file " + file.getName() + " ended at " + position + " of " + end);
+                }
+                position += transferred;
+            }
+        }
+    }
+}
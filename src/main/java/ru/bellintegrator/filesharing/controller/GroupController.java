@@ -0,0 +1,147 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.service.SharingGroupService;
+
+/**
+ * Контроллер групп пользователей, которым владелец предоставляет доступ к своим файлам
+ */
+@Controller
+public class GroupController {
+
+    private final SharingGroupService groupService;
+
+    @Autowired
+    public GroupController(SharingGroupService groupService) {
+        this.groupService = groupService;
+    }
+
+    /**
+     * Отображает группы текущего пользователя
+     *
+     * @param currentUser текущий пользователь
+     * @param model модель
+     * @return страница со списком групп
+     */
+    @GetMapping("/groups")
+    public String showGroups(@AuthenticationPrincipal User currentUser, Model model) {
+        model.addAttribute("groups", groupService.findGroups(currentUser));
+        return "groups";
+    }
+
+    /**
+     * Создает группу
+     *
+     * @param currentUser текущий пользователь
+     * @param name название группы
+     * @return страница группы
+     */
+    @PostMapping("/groups")
+    public String createGroup(@AuthenticationPrincipal User currentUser,
+                              @RequestParam("name") String name) {
+        SharingGroup group = groupService.createGroup(currentUser, name);
+        return "redirect:/groups/" + group.getId();
+    }
+
+    /**
+     * Отображает группу и страницу ее участников
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param page номер страницы, начиная с 0
+     * @param model модель
+     * @return страница группы
+     */
+    @GetMapping("/groups/{groupId}")
+    public String showGroup(@AuthenticationPrincipal User currentUser,
+                            @PathVariable(value = "groupId") String groupId,
+                            @RequestParam(value = "page", defaultValue = "0") int page,
+                            Model model) {
+        SharingGroup group = groupService.findGroup(currentUser, groupId);
+        Page<GroupMember> members = groupService.findMembers(currentUser, groupId, page);
+        model.addAttribute("group", group);
+        model.addAttribute("members", members.getContent());
+        model.addAttribute("page", members);
+        return "group";
+    }
+
+    /**
+     * Изменяет доступ участников группы к файлам
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param readAccess доступ на чтение
+     * @param downloadAccess доступ на скачивание
+     * @return страница группы
+     */
+    @PostMapping("/groups/{groupId}/access")
+    public String updateGroupAccess(@AuthenticationPrincipal User currentUser,
+                                    @PathVariable(value = "groupId") String groupId,
+                                    @RequestParam(value = "read", defaultValue = "false") boolean readAccess,
+                                    @RequestParam(value = "download", defaultValue = "false") boolean downloadAccess) {
+        groupService.updateGroupAccess(currentUser, groupId, readAccess, downloadAccess);
+        return "redirect:/groups/" + groupId;
+    }
+
+    /**
+     * Добавляет участника в группу
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param username имя пользователя
+     * @return страница группы
+     */
+    @PostMapping("/groups/{groupId}/members")
+    public String addMember(@AuthenticationPrincipal User currentUser,
+                            @PathVariable(value = "groupId") String groupId,
+                            @RequestParam("username") String username) {
+        groupService.addMember(currentUser, groupId, username);
+        return "redirect:/groups/" + groupId;
+    }
+
+    /**
+     * Удаляет участника из группы
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param memberId id участника
+     * @return страница группы
+     */
+    @DeleteMapping("/groups/{groupId}/members/{memberId}")
+    @ResponseStatus(HttpStatus.SEE_OTHER)
+    public String removeMember(@AuthenticationPrincipal User currentUser,
+                               @PathVariable(value = "groupId") String groupId,
+                               @PathVariable(value = "memberId") String memberId) {
+        groupService.removeMember(currentUser, groupId, memberId);
+        return "redirect:/groups/" + groupId;
+    }
+
+    /**
+     * Удаляет группу
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @return страница со списком групп
+     */
+    @DeleteMapping("/groups/{groupId}")
+    @ResponseStatus(HttpStatus.SEE_OTHER)
+    public String deleteGroup(@AuthenticationPrincipal User currentUser,
+                              @PathVariable(value = "groupId") String groupId) {
+        groupService.deleteGroup(currentUser, groupId);
+        return "redirect:/groups";
+    }
+}
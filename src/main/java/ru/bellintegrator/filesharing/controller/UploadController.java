@@ -0,0 +1,113 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import ru.bellintegrator.filesharing.model.UploadSession;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.service.UploadService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Контроллер докачиваемой загрузки файлов по частям
+ */
+@Controller
+public class UploadController {
+
+    /**
+     * Заголовок с количеством уже принятых байт
+     */
+    public static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final UploadService uploadService;
+
+    @Autowired
+    public UploadController(UploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    /**
+     * Создает сессию загрузки
+     *
+     * @param fileName оригинальное имя файла
+     * @return ResponseEntity со статусом 201 и адресом сессии
+     */
+    @PostMapping("/{userId}/uploads")
+    @ResponseBody
+    public ResponseEntity<Void> createSession(@AuthenticationPrincipal User currentUser,
+                                              @PathVariable(value ="userId") String userId,
+                                              @RequestParam("name") String fileName) {
+        UploadSession session = uploadService.createSession(currentUser, fileName);
+        return ResponseEntity.created(URI.create("/uploads/" + session.getId()))
+                .header(UPLOAD_OFFSET, "0")
+                .build();
+    }
+
+    /**
+     * Возвращает смещение, с которого нужно продолжить загрузку
+     *
+     * @param sessionId id сессии
+     * @return ResponseEntity с заголовком Upload-Offset
+     */
+    @RequestMapping(value = "/uploads/{sessionId}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    @ResponseBody
+    public ResponseEntity<Void> getOffset(@AuthenticationPrincipal User currentUser,
+                                          @PathVariable(value ="sessionId") String sessionId) {
+        long offset = uploadService.getOffset(currentUser, sessionId);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(offset))
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .build();
+    }
+
+    /**
+     * Дописывает часть файла из тела запроса
+     *
+     * @param sessionId id сессии
+     * @param offset смещение части
+     * @param request запрос
+     * @return ResponseEntity со статусом 204 и новым смещением
+     * @throws IOException
+     */
+    @PutMapping("/uploads/{sessionId}")
+    @ResponseBody
+    public ResponseEntity<Void> writeChunk(@AuthenticationPrincipal User currentUser,
+                                           @PathVariable(value ="sessionId") String sessionId,
+                                           @RequestHeader(UPLOAD_OFFSET) long offset,
+                                           HttpServletRequest request) throws IOException {
+        long newOffset = uploadService.writeChunk(currentUser, sessionId, offset, request.getContentLengthLong(),
+                request.getInputStream());
+        return ResponseEntity.noContent()
+                .header(UPLOAD_OFFSET, String.valueOf(newOffset))
+                .build();
+    }
+
+    /**
+     * Завершает загрузку и добавляет файл в систему
+     *
+     * @param sessionId id сессии
+     * @return ResponseEntity со статусом 201 и адресом файла
+     */
+    @PostMapping("/uploads/{sessionId}/complete")
+    @ResponseBody
+    public ResponseEntity<Void> completeUpload(@AuthenticationPrincipal User currentUser,
+                                               @PathVariable(value ="sessionId") String sessionId) {
+        UserFile file = uploadService.completeUpload(currentUser, sessionId);
+        return ResponseEntity.created(URI.create("/files/" + file.getId())).build();
+    }
+}
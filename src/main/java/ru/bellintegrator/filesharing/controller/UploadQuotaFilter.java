@@ -0,0 +1,84 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.service.FileService;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Фильтр, отклоняющий загрузки, которые не помещаются в квоту пользователя, по заголовку Content-Length.
+ * Стоит в цепочке Spring Security перед проверкой CSRF, потому что она читает параметры формы
+ * и заставляет контейнер сервлетов разобрать все тело multipart-запроса. По той же причине отключен
+ * HiddenHttpMethodFilter (spring.mvc.hiddenmethod.filter.enabled): он стоит перед цепочкой Spring Security
+ * и читает параметр _method каждого POST-запроса.
+ * Запросы без Content-Length пропускаются, их размер проверяется при сохранении файла.
+ * Для части докачиваемой загрузки проверяется только размер части, уже принятые байты учитывает
+ * {@link ru.bellintegrator.filesharing.service.UploadService#writeChunk}
+ */
+public class UploadQuotaFilter extends OncePerRequestFilter {
+
+    private static final RequestMatcher UPLOAD_REQUESTS = new OrRequestMatcher(
+            new AntPathRequestMatcher("/*/files", "POST"),
+            new AntPathRequestMatcher("/*/files/batch", "POST"),
+            new AntPathRequestMatcher("/*/files", "PUT"),
+            new AntPathRequestMatcher("/uploads/*", "PUT"));
+
+    private final ObjectProvider<FileService> fileService;
+
+    /**
+     * Конструктор
+     *
+     * @param fileService сервис файлов, может отсутствовать в контексте (например, в тестах контроллеров)
+     */
+    public UploadQuotaFilter(ObjectProvider<FileService> fileService) {
+        this.fileService = fileService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !UPLOAD_REQUESTS.matches(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long contentLength = request.getContentLengthLong();
+        User currentUser = getCurrentUser();
+        FileService service = fileService.getIfAvailable();
+        if (contentLength > 0 && currentUser != null && service != null) {
+            try {
+                service.checkQuota(currentUser, contentLength);
+            } catch (QuotaExceededException e) {
+                response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(), e.getMessage());
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Возвращает текущего пользователя
+     *
+     * @return пользователь или null, если пользователь не вошел в систему
+     */
+    private User getCurrentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof User) {
+            return (User) authentication.getPrincipal();
+        }
+        return null;
+    }
+}
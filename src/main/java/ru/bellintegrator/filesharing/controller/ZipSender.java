@@ -0,0 +1,142 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.springframework.http.HttpHeaders;
+import ru.bellintegrator.filesharing.service.UserFileResource;
+import ru.bellintegrator.filesharing.storage.CompressedFormats;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Вспомогательный класс для отправки нескольких файлов одним ZIP-архивом.
+ * Архив пишется прямо в ответ через буфер постоянного размера, без временного файла,
+ * поэтому расход памяти не зависит от размера файлов
+ */
+public class ZipSender {
+
+    private static final String CONTENT_TYPE = "application/zip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Количество первых байт, по которым распознаются сжатые форматы
+     */
+    private static final int HEAD_SIZE = 8;
+
+    /**
+     * Имя записи, если от оригинального имени файла ничего не осталось
+     */
+    private static final String DEFAULT_NAME = "file";
+
+    private ZipSender() {
+    }
+
+    /**
+     * Отправляет файлы одним архивом.
+     * Уже сжатые форматы (изображения, архивы, видео) записываются с нулевым уровнем сжатия,
+     * остальные файлы сжимаются. Содержимое, хранящееся в сжатом виде, распаковывается на лету
+     *
+     * @param files ресурсы файлов
+     * @param archiveName имя архива
+     * @param response ответ
+     * @param sent вызывается после записи каждого файла в архив
+     * @throws IOException
+     */
+    static void send(Iterable<UserFileResource> files, String archiveName, HttpServletResponse response,
+                     Consumer<UserFileResource> sent) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Set<String> names = new HashSet<>();
+        ZipOutputStream zip = new ZipOutputStream(response.getOutputStream());
+        for (UserFileResource file : files) {
+            ZipEntry entry = new ZipEntry(getUniqueName(getSafeName(file.getFilename()), names));
+            entry.setTime(file.lastModified());
+            zip.setLevel(isCompressed(file) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(entry);
+            try (InputStream in = file.getDecodedInputStream()) {
+                copy(in, zip, buffer);
+            }
+            zip.closeEntry();
+            sent.accept(file);
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Проверяет, что формат файла уже сжат и сжимать его повторно бесполезно.
+     * Такие файлы записываются без сжатия, но методом DEFLATED: для метода STORED размер и CRC-32
+     * нужны до содержимого записи, и файл пришлось бы читать дважды
+     *
+     * @param file ресурс файла
+     * @return true, если файл не нужно сжимать
+     * @throws IOException
+     */
+    private static boolean isCompressed(UserFileResource file) throws IOException {
+        if (file.getContentEncoding() != null) {
+            return false;
+        }
+        byte[] head = new byte[HEAD_SIZE];
+        int length = 0;
+        try (InputStream in = file.getInputStream()) {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        }
+        return CompressedFormats.isCompressed(head, length);
+    }
+
+    /**
+     * Оставляет от оригинального имени файла только последний элемент пути без буквы диска,
+     * чтобы при распаковке запись не попала за пределы каталога архива
+     *
+     * @param fileName оригинальное имя файла
+     * @return имя записи без каталогов
+     */
+    static String getSafeName(String fileName) {
+        String name = fileName == null ? "" : fileName.replace('\\', '/');
+        name = name.substring(name.lastIndexOf('/') + 1);
+        if (name.length() >= 2 && name.charAt(1) == ':' && Character.isLetter(name.charAt(0))) {
+            name = name.substring(2);
+        }
+        name = name.trim();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return DEFAULT_NAME;
+        }
+        return name;
+    }
+
+    /**
+     * Возвращает имя записи, не совпадающее с уже добавленными: к повторяющемуся имени добавляется номер
+     *
+     * @param fileName имя файла без каталогов
+     * @param names уже добавленные имена
+     * @return имя записи
+     */
+    private static String getUniqueName(String fileName, Set<String> names) {
+        String name = fileName;
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int i = 2; !names.add(name); i++) {
+            name = base + " (" + i + ")" + extension;
+        }
+        return name;
+    }
+
+    private static void copy(InputStream in, ZipOutputStream zip, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            zip.write(buffer, 0, read);
+        }
+    }
+}
@@ -45,6 +45,28 @@ public class ApplicationExceptionHandler {
         return createModelAndView(e);
     }
 
+    /**
+     * Обработчик ошибок о конфликте с текущим состоянием сущности
+     * @param e ошибка
+     * @return страница с текстом ошибки
+     */
+    @ExceptionHandler(ConflictException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ModelAndView handleConflictException(ConflictException e) {
+        return createModelAndView(e);
+    }
+
+    /**
+     * Обработчик ошибок о превышении квоты
+     * @param e ошибка
+     * @return страница с текстом ошибки
+     */
+    @ExceptionHandler(QuotaExceededException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public ModelAndView handleQuotaExceededException(QuotaExceededException e) {
+        return createModelAndView(e);
+    }
+
     /**
      * Создать страницу с текстом ошибки
      * @param throwable перехватываемое исключение
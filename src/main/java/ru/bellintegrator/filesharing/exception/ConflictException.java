@@ -0,0 +1,26 @@
+package ru.bellintegrator.filesharing.exception;
+
+/**
+ * Ошибка о том, что запрос противоречит текущему состоянию сущности
+ */
+public class ConflictException extends RuntimeException {
+
+    /**
+     * Конструктор с сообщением об ошибке
+     *
+     * @param message сообщение
+     */
+    public ConflictException(String message) {
+        super(message);
+    }
+
+    /**
+     * Конструктор с сообщением об ошибке и указанием причины
+     *
+     * @param message сообщение
+     * @param cause причина
+     */
+    public ConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.bellintegrator.filesharing.exception;
+
+/**
+ * Ошибка о превышении квоты пользователя на размер файлов
+ */
+public class QuotaExceededException extends RuntimeException {
+
+    /**
+     * Конструктор с сообщением об ошибке
+     *
+     * @param message сообщение
+     */
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+
+    /**
+     * Конструктор с сообщением об ошибке и указанием причины
+     *
+     * @param message сообщение
+     * @param cause причина
+     */
+    public QuotaExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
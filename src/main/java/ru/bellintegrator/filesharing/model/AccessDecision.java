@@ -0,0 +1,174 @@
+package ru.bellintegrator.filesharing.model;
+
+/**
+ * Флаги доступа подписчика к файлам пользователя без самих пользователей.
+ * Неизменяемый, поэтому может храниться в кэше и читаться из разных потоков
+ */
+public final class AccessDecision {
+
+    /**
+     * Биты флагов доступа в 4-битном слове
+     */
+    public static final int READ_ACCESS = 1;
+    public static final int READ_REQUEST = 1 << 1;
+    public static final int DOWNLOAD_ACCESS = 1 << 2;
+    public static final int DOWNLOAD_REQUEST = 1 << 3;
+
+    /**
+     * Решения для всех 16 сочетаний флагов, чтобы не создавать новые объекты
+     */
+    private static final AccessDecision[] BY_FLAGS = new AccessDecision[16];
+
+    static {
+        for (int flags = 0; flags < BY_FLAGS.length; flags++) {
+            BY_FLAGS[flags] = new AccessDecision((flags & READ_ACCESS) != 0, (flags & READ_REQUEST) != 0,
+                    (flags & DOWNLOAD_ACCESS) != 0, (flags & DOWNLOAD_REQUEST) != 0);
+        }
+    }
+
+    /**
+     * Доступа нет и не запрашивался
+     */
+    public static final AccessDecision NONE = BY_FLAGS[0];
+
+    private final boolean readAccess;
+    private final boolean readRequest;
+    private final boolean downloadAccess;
+    private final boolean downloadRequest;
+
+    public AccessDecision(Boolean readAccess, Boolean readRequest, Boolean downloadAccess, Boolean downloadRequest) {
+        this.readAccess = Boolean.TRUE.equals(readAccess);
+        this.readRequest = Boolean.TRUE.equals(readRequest);
+        this.downloadAccess = Boolean.TRUE.equals(downloadAccess);
+        this.downloadRequest = Boolean.TRUE.equals(downloadRequest);
+    }
+
+    /**
+     * Создает решение по доступу
+     *
+     * @param access доступ, null - доступа нет
+     * @return решение
+     */
+    public static AccessDecision of(Access access) {
+        if (access == null) {
+            return NONE;
+        }
+        return new AccessDecision(access.getReadAccess(), access.getReadRequest(),
+                access.getDownloadAccess(), access.getDownloadRequest());
+    }
+
+    /**
+     * Возвращает решение по 4-битному слову флагов
+     *
+     * @param flags флаги READ_ACCESS, READ_REQUEST, DOWNLOAD_ACCESS, DOWNLOAD_REQUEST
+     * @return решение
+     */
+    public static AccessDecision ofFlags(int flags) {
+        return BY_FLAGS[flags & 0xF];
+    }
+
+    /**
+     * Упаковывает флаги доступа в 4-битное слово
+     *
+     * @param access доступ, null - доступа нет
+     * @return флаги
+     */
+    public static int toFlags(Access access) {
+        return access == null ? 0 : toFlags(access.getReadAccess(), access.getReadRequest(),
+                access.getDownloadAccess(), access.getDownloadRequest());
+    }
+
+    /**
+     * Упаковывает флаги доступа в 4-битное слово
+     *
+     * @param readAccess доступ на чтение
+     * @param readRequest запрос на чтение
+     * @param downloadAccess доступ на скачивание
+     * @param downloadRequest запрос на скачивание
+     * @return флаги
+     */
+    public static int toFlags(Boolean readAccess, Boolean readRequest, Boolean downloadAccess,
+                              Boolean downloadRequest) {
+        return (Boolean.TRUE.equals(readAccess) ? READ_ACCESS : 0)
+                | (Boolean.TRUE.equals(readRequest) ? READ_REQUEST : 0)
+                | (Boolean.TRUE.equals(downloadAccess) ? DOWNLOAD_ACCESS : 0)
+                | (Boolean.TRUE.equals(downloadRequest) ? DOWNLOAD_REQUEST : 0);
+    }
+
+    /**
+     * Проверяет по флагам, что скачивание одобрено владельцем
+     *
+     * @param flags флаги
+     * @return true, если скачивание одобрено
+     */
+    public static boolean canDownload(int flags) {
+        return (flags & (DOWNLOAD_ACCESS | DOWNLOAD_REQUEST)) == DOWNLOAD_ACCESS;
+    }
+
+    /**
+     * Добавляет к флагам доступа подписчика доступ, предоставленный группами владельца, в которых он состоит.
+     * Доступ от группы считается одобренным, даже если у подписчика есть свой неодобренный запрос
+     *
+     * @param flags флаги доступа подписчика
+     * @param groupFlags флаги READ_ACCESS и DOWNLOAD_ACCESS, предоставленные группами
+     * @return флаги
+     */
+    public static int grant(int flags, int groupFlags) {
+        int granted = flags | groupFlags;
+        if ((groupFlags & READ_ACCESS) != 0) {
+            granted &= ~READ_REQUEST;
+        }
+        if ((groupFlags & DOWNLOAD_ACCESS) != 0) {
+            granted &= ~DOWNLOAD_REQUEST;
+        }
+        return granted;
+    }
+
+    /**
+     * @param decision решение, null - доступа нет
+     * @return решение или {@link #NONE}
+     */
+    public static AccessDecision orNone(AccessDecision decision) {
+        return decision != null ? decision : NONE;
+    }
+
+    public boolean getReadAccess() {
+        return readAccess;
+    }
+
+    public boolean getReadRequest() {
+        return readRequest;
+    }
+
+    public boolean getDownloadAccess() {
+        return downloadAccess;
+    }
+
+    public boolean getDownloadRequest() {
+        return downloadRequest;
+    }
+
+    /**
+     * @return true, если скачивание одобрено владельцем
+     */
+    public boolean canDownload() {
+        return downloadAccess && !downloadRequest;
+    }
+
+    /**
+     * @return флаги в 4-битном слове
+     */
+    public int toFlags() {
+        return toFlags(readAccess, readRequest, downloadAccess, downloadRequest);
+    }
+
+    @Override
+    public String toString() {
+        return "AccessDecision{" +
+                "readAccess=" + readAccess +
+                ", readRequest=" + readRequest +
+                ", downloadAccess=" + downloadAccess +
+                ", downloadRequest=" + downloadRequest +
+                '}';
+    }
+}
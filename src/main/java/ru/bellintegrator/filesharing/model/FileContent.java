@@ -0,0 +1,112 @@
+package ru.bellintegrator.filesharing.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Содержимое файла, хранящееся на диске в единственном экземпляре
+ */
+@Entity
+@Table(name = "file_content")
+public class FileContent implements Serializable {
+
+    /**
+     * SHA-256 содержимого в шестнадцатеричном виде, он же имя файла на диске
+     */
+    @Id
+    @Column(name = "hash", length = 64)
+    private String hash;
+
+    /**
+     * Размер содержимого в байтах
+     */
+    @Column(name = "size")
+    private Long size;
+
+    /**
+     * Количество файлов пользователей, ссылающихся на содержимое
+     */
+    @Column(name = "ref_count")
+    private Integer refCount;
+
+    /**
+     * Сжатие, с которым содержимое хранится на диске, null - без сжатия
+     */
+    @Column(name = "encoding", length = 20)
+    private String encoding;
+
+    public FileContent() {
+    }
+
+    public FileContent(String hash, Long size, Integer refCount) {
+        this.hash = hash;
+        this.size = size;
+        this.refCount = refCount;
+    }
+
+    public FileContent(String hash, Long size, Integer refCount, String encoding) {
+        this(hash, size, refCount);
+        this.encoding = encoding;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(Integer refCount) {
+        this.refCount = refCount;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileContent that = (FileContent) o;
+        return Objects.equals(hash, that.hash) &&
+                Objects.equals(size, that.size) &&
+                Objects.equals(refCount, that.refCount);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hash, size, refCount);
+    }
+
+    @Override
+    public String toString() {
+        return "FileContent{" +
+                "hash='" + hash + '\'' +
+                ", size=" + size +
+                ", refCount=" + refCount +
+                ", encoding='" + encoding + '\'' +
+                '}';
+    }
+}
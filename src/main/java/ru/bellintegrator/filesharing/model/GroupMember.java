@@ -0,0 +1,94 @@
+package ru.bellintegrator.filesharing.model;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.MapsId;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Участник группы
+ */
+@Entity
+@Table(name = "group_member")
+public class GroupMember implements Serializable {
+
+    /**
+     * Первичный ключ к таблице участников групп
+     */
+    @EmbeddedId
+    private GroupMemberId id;
+
+    /**
+     * Группа
+     */
+    @MapsId("groupId")
+    @JoinColumn(name = "group_id")
+    @ManyToOne(fetch = FetchType.LAZY)
+    private SharingGroup group;
+
+    /**
+     * Участник группы
+     */
+    @MapsId("userId")
+    @JoinColumn(name = "user_id")
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User user;
+
+    public GroupMember() {
+    }
+
+    public GroupMember(SharingGroup group, User user) {
+        this.id = new GroupMemberId(group.getId(), user.getId());
+        this.group = group;
+        this.user = user;
+    }
+
+    public GroupMemberId getId() {
+        return id;
+    }
+
+    public void setId(GroupMemberId id) {
+        this.id = id;
+    }
+
+    public SharingGroup getGroup() {
+        return group;
+    }
+
+    public void setGroup(SharingGroup group) {
+        this.group = group;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GroupMember member = (GroupMember) o;
+        return Objects.equals(id, member.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupMember{" +
+                "id=" + id +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+package ru.bellintegrator.filesharing.model;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Первичный ключ к таблице участников групп
+ */
+@Embeddable
+public class GroupMemberId implements Serializable {
+
+    /**
+     * Уникальный идентификатор группы, внешний ключ
+     */
+    @Column(name = "group_id", nullable = false)
+    private Integer groupId;
+
+    /**
+     * Уникальный идентификатор участника группы, внешний ключ
+     */
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    public GroupMemberId() {
+    }
+
+    public GroupMemberId(Integer groupId, Integer userId) {
+        this.groupId = groupId;
+        this.userId = userId;
+    }
+
+    public Integer getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(Integer groupId) {
+        this.groupId = groupId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GroupMemberId memberId = (GroupMemberId) o;
+        return Objects.equals(groupId, memberId.groupId) &&
+                Objects.equals(userId, memberId.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupId, userId);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupMemberId{" +
+                "groupId=" + groupId +
+                ", userId=" + userId +
+                '}';
+    }
+}
@@ -0,0 +1,139 @@
+package ru.bellintegrator.filesharing.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Version;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Группа пользователей, которой владелец файлов предоставляет доступ сразу всем ее участникам
+ */
+@Entity
+@Table(name = "sharing_group")
+public class SharingGroup implements Serializable {
+
+    /**
+     * Уникальный идентификатор группы
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "sharing_group_id")
+    @TableGenerator(name = "sharing_group_id", table = "id_generator", pkColumnName = "name",
+            valueColumnName = "next_val", pkColumnValue = "sharing_group", allocationSize = 50)
+    @Column(name = "id")
+    private Integer id;
+
+    /**
+     * Служебное поле Hibernate
+     */
+    @Version
+    @Column(name = "version")
+    private Integer version;
+
+    /**
+     * Пользователь-владелец файлов и группы
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    /**
+     * Название группы
+     */
+    @Column(name = "name", length = 100)
+    private String name;
+
+    /**
+     * Доступ участников на чтение
+     */
+    @Column(name = "read_access")
+    private Boolean readAccess = false;
+
+    /**
+     * Доступ участников на скачивание
+     */
+    @Column(name = "download_access")
+    private Boolean downloadAccess = false;
+
+    public SharingGroup() {
+    }
+
+    public SharingGroup(User user, String name) {
+        this.user = user;
+        this.name = name;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean getReadAccess() {
+        return readAccess;
+    }
+
+    public void setReadAccess(boolean readAccess) {
+        this.readAccess = readAccess;
+    }
+
+    public boolean getDownloadAccess() {
+        return downloadAccess;
+    }
+
+    public void setDownloadAccess(boolean downloadAccess) {
+        this.downloadAccess = downloadAccess;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SharingGroup group = (SharingGroup) o;
+        return Objects.equals(id, group.id) &&
+                Objects.equals(name, group.name) &&
+                Objects.equals(readAccess, group.readAccess) &&
+                Objects.equals(downloadAccess, group.downloadAccess);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, readAccess, downloadAccess);
+    }
+
+    @Override
+    public String toString() {
+        return "SharingGroup{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", readAccess=" + readAccess +
+                ", downloadAccess=" + downloadAccess +
+                '}';
+    }
+}
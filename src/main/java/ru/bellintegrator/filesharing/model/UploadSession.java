@@ -0,0 +1,146 @@
+package ru.bellintegrator.filesharing.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Version;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Сессия докачиваемой загрузки файла
+ */
+@Entity
+@Table(name = "upload_session")
+public class UploadSession implements Serializable {
+
+    /**
+     * Уникальный идентификатор сессии
+     */
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    /**
+     * Служебное поле Hibernate
+     */
+    @Version
+    @Column(name = "version")
+    private Integer version;
+
+    /**
+     * Оригинальное название файла
+     */
+    @Column(name = "original_name", length = 200)
+    private String originalName;
+
+    /**
+     * Дата создания сессии
+     */
+    @Column(name = "creation_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date creationDate;
+
+    /**
+     * Пользователь, загружающий файл
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    /**
+     * Файл, созданный при завершении загрузки
+     */
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id")
+    private UserFile file;
+
+    public UploadSession() {
+    }
+
+    public UploadSession(String id, String originalName, Date creationDate, User user) {
+        this.id = id;
+        this.originalName = originalName;
+        this.creationDate = creationDate;
+        this.user = user;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public String getOriginalName() {
+        return originalName;
+    }
+
+    public void setOriginalName(String originalName) {
+        this.originalName = originalName;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Date creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public UserFile getFile() {
+        return file;
+    }
+
+    public void setFile(UserFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadSession that = (UploadSession) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(originalName, that.originalName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, originalName);
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "id='" + id + '\'' +
+                ", originalName='" + originalName + '\'' +
+                ", creationDate=" + creationDate +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package ru.bellintegrator.filesharing.model;
 
+import org.hibernate.annotations.Where;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -11,6 +12,7 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Transient;
@@ -34,10 +36,14 @@ import java.util.Set;
 public class User implements UserDetails, Serializable {
 
     /**
-     * Уникальный идентификатор пользователя
+     * Уникальный идентификатор пользователя.
+     * Идентификаторы выделяются блоками из таблицы id_generator без обращения к базе данных при каждой вставке,
+     * поэтому Hibernate может объединять вставки в пакеты JDBC
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "user_id")
+    @TableGenerator(name = "user_id", table = "id_generator", pkColumnName = "name", valueColumnName = "next_val",
+            pkColumnValue = "user", allocationSize = 50)
     @Column(name = "id")
     private Integer id;
 
@@ -100,10 +106,25 @@ public class User implements UserDetails, Serializable {
     @Column(name = "is_confirmed")
     private Boolean isConfirmed = false;
 
+    /**
+     * Суммарный размер файлов пользователя в байтах.
+     * Изменяется только запросами UPDATE при добавлении и удалении файлов, поэтому не сохраняется вместе с сущностью
+     */
+    @Column(name = "used_bytes", insertable = false, updatable = false)
+    private Long usedBytes;
+
+    /**
+     * Квота пользователя в байтах, null - квота по умолчанию (upload.quota.default-bytes).
+     * Задается администратором в базе данных
+     */
+    @Column(name = "quota_bytes", insertable = false, updatable = false)
+    private Long quotaBytes;
+
     /**
      * Файлы
      */
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Where(clause = "deleted_date IS NULL")
     private Set<UserFile> files;
 
     /**
@@ -204,6 +225,22 @@ public class User implements UserDetails, Serializable {
         this.registrationDate = registrationDate;
     }
 
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(Long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setQuotaBytes(Long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+    }
+
     public Boolean getIsConfirmed() {
         return isConfirmed;
     }
@@ -1,5 +1,7 @@
 package ru.bellintegrator.filesharing.model;
 
+import org.hibernate.annotations.Where;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -9,22 +11,32 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Version;
 import java.io.Serializable;
+import java.util.Date;
 import java.util.Objects;
 
 /**
- * Файл
+ * Файл.
+ * Удаленные файлы остаются в таблице до удаления содержимого и не попадают в запросы и коллекции
  */
 @Entity
 @Table(name = "file")
+@Where(clause = "deleted_date IS NULL")
 public class UserFile implements Serializable {
 
     /**
-     * Уникальный идентификатор файла
+     * Уникальный идентификатор файла.
+     * Идентификаторы выделяются блоками из таблицы id_generator без обращения к базе данных при каждой вставке,
+     * поэтому Hibernate может объединять вставки в пакеты JDBC
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "file_id")
+    @TableGenerator(name = "file_id", table = "id_generator", pkColumnName = "name", valueColumnName = "next_val",
+            pkColumnValue = "file", allocationSize = 50)
     @Column(name = "id")
     private Integer id;
 
@@ -53,6 +65,44 @@ public class UserFile implements Serializable {
     @Column(name = "download_count")
     private Integer downloadCount;
 
+    /**
+     * SHA-256 содержимого файла
+     */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    /**
+     * Сжатие, с которым содержимое хранится на диске, null - без сжатия
+     */
+    @Column(name = "content_encoding", length = 20)
+    private String contentEncoding;
+
+    /**
+     * Размер исходного содержимого в байтах
+     */
+    @Column(name = "size")
+    private Long size;
+
+    /**
+     * Тип содержимого
+     */
+    @Column(name = "content_type", length = 100)
+    private String contentType;
+
+    /**
+     * Дата загрузки файла
+     */
+    @Column(name = "upload_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date uploadDate;
+
+    /**
+     * Дата удаления файла, null - файл не удален
+     */
+    @Column(name = "deleted_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date deletedDate;
+
     /**
      * Пользователь
      */
@@ -110,6 +160,54 @@ public class UserFile implements Serializable {
         this.originalName = originalName;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    public Date getUploadDate() {
+        return uploadDate;
+    }
+
+    public void setUploadDate(Date uploadDate) {
+        this.uploadDate = uploadDate;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Date getDeletedDate() {
+        return deletedDate;
+    }
+
+    public void setDeletedDate(Date deletedDate) {
+        this.deletedDate = deletedDate;
+    }
+
     public User getUser() {
         return user;
     }
@@ -140,6 +238,10 @@ public class UserFile implements Serializable {
                 ", fileName='" + fileName + '\'' +
                 ", originalName='" + originalName + '\'' +
                 ", downloadCount=" + downloadCount +
+                ", contentHash='" + contentHash + '\'' +
+                ", contentEncoding='" + contentEncoding + '\'' +
+                ", uploadDate=" + uploadDate +
+                ", deletedDate=" + deletedDate +
                 '}';
     }
 }
@@ -1,11 +1,21 @@
 package ru.bellintegrator.filesharing.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.AccessId;
 import ru.bellintegrator.filesharing.model.User;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Репозиторий для работы доступом к файлам пользователей
@@ -20,6 +30,75 @@ public interface AccessRepository extends JpaRepository<Access, AccessId> {
      */
     List<Access> findByUser(User user);
 
+    /**
+     * Находит страницу доступов с запросами на чтение или скачивание вместе с подписчиками.
+     * Условие записано так, чтобы выборка шла по двум диапазонам индекса (user_id, read_request, download_request)
+     * без чтения уже одобренных доступов
+     *
+     * @param userId id пользователя
+     * @param pageable страница и сортировка
+     * @return страница доступов, общее количество - число ожидающих запросов
+     */
+    @Query(value = "SELECT a FROM Access a JOIN FETCH a.subscriber WHERE a.user.id = :userId"
+            + " AND (a.readRequest = true OR (a.readRequest = false AND a.downloadRequest = true))",
+            countQuery = "SELECT COUNT(a) FROM Access a WHERE a.user.id = :userId"
+            + " AND (a.readRequest = true OR (a.readRequest = false AND a.downloadRequest = true))")
+    Page<Access> findRequestingByUserId(@Param("userId") Integer userId, Pageable pageable);
+
+    /**
+     * Одобряет или отклоняет запросы на чтение подписчиков одним запросом UPDATE.
+     * Доступы без запроса на чтение не изменяются
+     *
+     * @param userId id пользователя
+     * @param subscriberIds id подписчиков
+     * @param allow true - одобрить, false - отклонить и снять доступ на чтение
+     * @return количество измененных доступов
+     */
+    @Modifying
+    @Query("UPDATE Access a SET a.readRequest = false, a.readAccess = :allow, a.version = a.version + 1"
+            + " WHERE a.id.userId = :userId AND a.id.subscriberId IN :subscriberIds AND a.readRequest = true")
+    int updateReadRequests(@Param("userId") Integer userId, @Param("subscriberIds") Collection<Integer> subscriberIds,
+                           @Param("allow") boolean allow);
+
+    /**
+     * Одобряет или отклоняет запросы на скачивание подписчиков одним запросом UPDATE.
+     * Доступы без запроса на скачивание не изменяются
+     *
+     * @param userId id пользователя
+     * @param subscriberIds id подписчиков
+     * @param allow true - одобрить, false - отклонить и снять доступ на скачивание
+     * @return количество измененных доступов
+     */
+    @Modifying
+    @Query("UPDATE Access a SET a.downloadRequest = false, a.downloadAccess = :allow, a.version = a.version + 1"
+            + " WHERE a.id.userId = :userId AND a.id.subscriberId IN :subscriberIds AND a.downloadRequest = true")
+    int updateDownloadRequests(@Param("userId") Integer userId, @Param("subscriberIds") Collection<Integer> subscriberIds,
+                               @Param("allow") boolean allow);
+
+    /**
+     * Одобряет или отклоняет все запросы на чтение к пользователю одним запросом UPDATE
+     *
+     * @param userId id пользователя
+     * @param allow true - одобрить, false - отклонить и снять доступ на чтение
+     * @return количество измененных доступов
+     */
+    @Modifying
+    @Query("UPDATE Access a SET a.readRequest = false, a.readAccess = :allow, a.version = a.version + 1"
+            + " WHERE a.id.userId = :userId AND a.readRequest = true")
+    int updateAllReadRequests(@Param("userId") Integer userId, @Param("allow") boolean allow);
+
+    /**
+     * Одобряет или отклоняет все запросы на скачивание к пользователю одним запросом UPDATE
+     *
+     * @param userId id пользователя
+     * @param allow true - одобрить, false - отклонить и снять доступ на скачивание
+     * @return количество измененных доступов
+     */
+    @Modifying
+    @Query("UPDATE Access a SET a.downloadRequest = false, a.downloadAccess = :allow, a.version = a.version + 1"
+            + " WHERE a.id.userId = :userId AND a.downloadRequest = true")
+    int updateAllDownloadRequests(@Param("userId") Integer userId, @Param("allow") boolean allow);
+
     /**
      * Находит доступ подписчика по пользователю и подписчику
      *
@@ -29,4 +108,28 @@ public interface AccessRepository extends JpaRepository<Access, AccessId> {
      */
     Access findByUserAndSubscriber(User user, User subscriber);
 
+    /**
+     * Находит флаги доступа подписчика по первичному ключу, не загружая пользователей
+     *
+     * @param userId id пользователя
+     * @param subscriberId id подписчика
+     * @return флаги доступа или null, если доступа нет
+     */
+    @Query("SELECT new ru.bellintegrator.filesharing.model.AccessDecision(a.readAccess, a.readRequest,"
+            + " a.downloadAccess, a.downloadRequest) FROM Access a"
+            + " WHERE a.id.userId = :userId AND a.id.subscriberId = :subscriberId")
+    AccessDecision findDecision(@Param("userId") Integer userId, @Param("subscriberId") Integer subscriberId);
+
+    /**
+     * Читает флаги всех доступов потоком, не загружая всю таблицу в память
+     * (размер порции Integer.MIN_VALUE включает построчное чтение в драйвере MySQL).
+     * Поток нужно закрыть, читать его можно только внутри транзакции
+     *
+     * @return строки (user_id, subscriber_id, read_access, read_request, download_access, download_request)
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "-2147483648"))
+    @Query(value = "SELECT user_id, subscriber_id, read_access, read_request, download_access, download_request"
+            + " FROM access", nativeQuery = true)
+    Stream<Object[]> streamAllFlags();
+
 }
@@ -0,0 +1,41 @@
+package ru.bellintegrator.filesharing.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.bellintegrator.filesharing.model.FileContent;
+
+import javax.persistence.LockModeType;
+
+/**
+ * Репозиторий для работы с содержимым файлов
+ */
+public interface FileContentRepository extends JpaRepository<FileContent, String> {
+
+    /**
+     * Добавляет ссылку на содержимое, создавая запись, если её ещё нет.
+     * Строка блокируется до конца транзакции, поэтому параллельное удаление последней ссылки
+     * не может удалить файл с диска между вставкой и сохранением файла
+     *
+     * @param hash SHA-256 содержимого
+     * @param size размер содержимого в байтах
+     * @param encoding сжатие, с которым содержимое будет сохранено, если записи еще нет
+     * @return количество затронутых строк (1 - запись создана, 2 - увеличен счетчик ссылок)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO file_content (hash, size, ref_count, encoding) VALUES (:hash, :size, 1, :encoding) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int acquire(@Param("hash") String hash, @Param("size") long size, @Param("encoding") String encoding);
+
+    /**
+     * Находит содержимое по хешу и блокирует строку до конца транзакции
+     *
+     * @param hash SHA-256 содержимого
+     * @return содержимое
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    FileContent findByHash(String hash);
+
+}
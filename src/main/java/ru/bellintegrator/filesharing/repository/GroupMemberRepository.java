@@ -0,0 +1,51 @@
+package ru.bellintegrator.filesharing.repository;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.GroupMemberId;
+
+import javax.persistence.QueryHint;
+import java.util.stream.Stream;
+
+/**
+ * Репозиторий для работы с участниками групп
+ */
+public interface GroupMemberRepository extends JpaRepository<GroupMember, GroupMemberId> {
+
+    /**
+     * Находит страницу участников группы вместе с пользователями
+     *
+     * @param groupId id группы
+     * @param pageable страница и сортировка
+     * @return страница участников
+     */
+    @Query(value = "SELECT m FROM GroupMember m JOIN FETCH m.user WHERE m.id.groupId = :groupId",
+            countQuery = "SELECT COUNT(m) FROM GroupMember m WHERE m.id.groupId = :groupId")
+    Page<GroupMember> findPageByGroupId(@Param("groupId") Integer groupId, Pageable pageable);
+
+    /**
+     * Удаляет всех участников группы одним запросом
+     *
+     * @param groupId id группы
+     * @return количество удаленных участников
+     */
+    @Modifying
+    @Query("DELETE FROM GroupMember m WHERE m.id.groupId = :groupId")
+    int deleteByGroupId(@Param("groupId") Integer groupId);
+
+    /**
+     * Читает всех участников групп потоком, не загружая таблицу в память.
+     * Поток нужно закрыть, читать его можно только внутри транзакции
+     *
+     * @return строки (group_id, user_id)
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "-2147483648"))
+    @Query(value = "SELECT group_id, user_id FROM group_member", nativeQuery = true)
+    Stream<Object[]> streamAllMembers();
+}
@@ -0,0 +1,57 @@
+package ru.bellintegrator.filesharing.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Репозиторий для работы с группами пользователей
+ */
+public interface SharingGroupRepository extends JpaRepository<SharingGroup, Integer> {
+
+    /**
+     * Находит группы владельца по названию
+     *
+     * @param user владелец групп
+     * @return список групп
+     */
+    List<SharingGroup> findByUserOrderByName(User user);
+
+    /**
+     * Проверяет, есть ли у владельца группа с таким названием
+     *
+     * @param user владелец групп
+     * @param name название группы
+     * @return true, если группа есть
+     */
+    boolean existsByUserAndName(User user, String name);
+
+    /**
+     * Находит группы владельца, в которых состоит пользователь и которые дают доступ к файлам.
+     * Поиск идет по индексу участников (user_id, group_id) и не зависит от размера групп
+     *
+     * @param userId id владельца групп
+     * @param memberId id участника
+     * @return список групп
+     */
+    @Query("SELECT g FROM GroupMember m JOIN m.group g WHERE m.id.userId = :memberId AND g.user.id = :userId"
+            + " AND (g.readAccess = true OR g.downloadAccess = true)")
+    List<SharingGroup> findGrantingGroups(@Param("userId") Integer userId, @Param("memberId") Integer memberId);
+
+    /**
+     * Читает все группы потоком (размер порции Integer.MIN_VALUE включает построчное чтение в драйвере MySQL).
+     * Поток нужно закрыть, читать его можно только внутри транзакции
+     *
+     * @return строки (id, user_id, read_access, download_access)
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "-2147483648"))
+    @Query(value = "SELECT id, user_id, read_access, download_access FROM sharing_group", nativeQuery = true)
+    Stream<Object[]> streamAllGroups();
+}
@@ -0,0 +1,22 @@
+package ru.bellintegrator.filesharing.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.bellintegrator.filesharing.model.UploadSession;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Репозиторий для работы с сессиями загрузки файлов
+ */
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /**
+     * Находит сессии, созданные раньше указанной даты
+     *
+     * @param date дата
+     * @return список сессий
+     */
+    List<UploadSession> findByCreationDateBefore(Date date);
+
+}
@@ -1,11 +1,166 @@
 package ru.bellintegrator.filesharing.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.bellintegrator.filesharing.model.UserFile;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 /**
  * Репозиторий для работы с файлами
  */
 public interface UserFileRepository extends JpaRepository<UserFile, Integer> {
 
+    /**
+     * Увеличивает счетчик скачиваний файлов одним запросом.
+     * Версия строки не меняется, поэтому запрос не конфликтует с изменением файлов
+     *
+     * @param count количество скачиваний
+     * @param ids id файлов
+     * @return количество обновленных файлов
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE UserFile f SET f.downloadCount = COALESCE(f.downloadCount, 0) + :count WHERE f.id IN :ids")
+    int addDownloads(@Param("count") int count, @Param("ids") Collection<Integer> ids);
+
+    /**
+     * Находит файлы с id больше указанного вместе с владельцами в порядке возрастания id.
+     * Поиск идет по первичному ключу, поэтому не зависит от номера страницы
+     *
+     * @param afterId id, после которого начинается поиск
+     * @param pageable ограничение количества файлов
+     * @return файлы
+     */
+    @Query("SELECT f FROM UserFile f JOIN FETCH f.user WHERE f.id > :afterId ORDER BY f.id")
+    List<UserFile> findAfterWithOwner(@Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * Находит файлы с id меньше указанного вместе с владельцами в порядке убывания id
+     *
+     * @param beforeId id, перед которым заканчивается поиск
+     * @param pageable ограничение количества файлов
+     * @return файлы
+     */
+    @Query("SELECT f FROM UserFile f JOIN FETCH f.user WHERE f.id < :beforeId ORDER BY f.id DESC")
+    List<UserFile> findBeforeWithOwner(@Param("beforeId") int beforeId, Pageable pageable);
+
+    /**
+     * Проверяет, есть ли файлы с id не больше указанного, то есть страница перед ним
+     *
+     * @param id id
+     * @return true, если такие файлы есть
+     */
+    boolean existsByIdLessThanEqual(Integer id);
+
+    /**
+     * Проверяет, есть ли файлы с id не меньше указанного, то есть страница после него
+     *
+     * @param id id
+     * @return true, если такие файлы есть
+     */
+    boolean existsByIdGreaterThanEqual(Integer id);
+
+    /**
+     * Находит порцию файлов пользователя с id больше указанного в порядке возрастания id
+     *
+     * @param userId id владельца файлов
+     * @param afterId id, после которого начинается поиск
+     * @param pageable ограничение количества файлов
+     * @return файлы
+     */
+    @Query("SELECT f FROM UserFile f WHERE f.user.id = :userId AND f.id > :afterId ORDER BY f.id")
+    List<UserFile> findByOwnerIdAfter(@Param("userId") Integer userId, @Param("afterId") int afterId,
+                                      Pageable pageable);
+
+    /**
+     * Находит файлы пользователя с указанными id в порядке возрастания id.
+     * Файлы других пользователей не возвращаются
+     *
+     * @param userId id владельца файлов
+     * @param ids id файлов
+     * @return файлы
+     */
+    @Query("SELECT f FROM UserFile f WHERE f.user.id = :userId AND f.id IN :ids ORDER BY f.id")
+    List<UserFile> findByOwnerIdAndIds(@Param("userId") Integer userId, @Param("ids") Collection<Integer> ids);
+
+    /**
+     * Находит страницу файлов пользователя в порядке, заданном в pageable
+     *
+     * @param userId id владельца файлов
+     * @param pageable номер, размер страницы и сортировка
+     * @return страница файлов
+     */
+    @Query("SELECT f FROM UserFile f WHERE f.user.id = :userId")
+    Page<UserFile> findPageByOwnerId(@Param("userId") Integer userId, Pageable pageable);
+
+    /**
+     * Находит id удаленных файлов, содержимое которых еще не удалено, в порядке возрастания id
+     *
+     * @param afterId id, после которого начинается поиск
+     * @param limit максимальное количество id
+     * @return id файлов
+     */
+    @Query(value = "SELECT id FROM file WHERE deleted_date IS NOT NULL AND id > :afterId ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<Integer> findDeletedIds(@Param("afterId") int afterId, @Param("limit") int limit);
+
+    /**
+     * Находит удаленный файл и блокирует строку до конца транзакции
+     *
+     * @param id id файла
+     * @return файл или null, если файл не удален или уже удален из таблицы
+     */
+    @Query(value = "SELECT * FROM file WHERE id = :id AND deleted_date IS NOT NULL FOR UPDATE", nativeQuery = true)
+    UserFile findDeletedById(@Param("id") Integer id);
+
+    /**
+     * Удаляет строку удаленного файла из таблицы
+     *
+     * @param id id файла
+     * @return количество удаленных строк
+     */
+    @Modifying
+    @Query(value = "DELETE FROM file WHERE id = :id AND deleted_date IS NOT NULL", nativeQuery = true)
+    int removeDeleted(@Param("id") Integer id);
+
+    /**
+     * Находит порцию не удаленных файлов в порядке возрастания id
+     *
+     * @param afterId id, после которого начинается поиск
+     * @param limit максимальное количество файлов
+     * @return файлы
+     */
+    @Query(value = "SELECT * FROM file WHERE deleted_date IS NULL AND id > :afterId ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<UserFile> findPageAfter(@Param("afterId") int afterId, @Param("limit") int limit);
+
+    /**
+     * Находит имена содержимого, на которые ссылаются файлы, в том числе помеченные удаленными
+     *
+     * @param fileNames имена содержимого в хранилище
+     * @return имена, на которые есть ссылки
+     */
+    @Query(value = "SELECT DISTINCT file_name FROM file WHERE file_name IN :fileNames", nativeQuery = true)
+    List<String> findReferencedNames(@Param("fileNames") Collection<String> fileNames);
+
+    /**
+     * Помечает файл удаленным, если он еще не помечен
+     *
+     * @param id id файла
+     * @param deletedDate дата удаления
+     * @return количество помеченных файлов
+     */
+    @Modifying
+    @Query(value = "UPDATE file SET deleted_date = :deletedDate WHERE id = :id AND deleted_date IS NULL",
+            nativeQuery = true)
+    int markDeleted(@Param("id") Integer id, @Param("deletedDate") Date deletedDate);
+
 }
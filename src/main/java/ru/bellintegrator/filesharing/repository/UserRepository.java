@@ -1,6 +1,9 @@
 package ru.bellintegrator.filesharing.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.bellintegrator.filesharing.model.User;
 
 /**
@@ -23,4 +26,30 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      * @return пользователь
      */
     User findByActivationCode(String activationCode);
+
+    /**
+     * Резервирует место для файлов, если оно помещается в квоту пользователя.
+     * Проверка и изменение выполняются одним запросом, поэтому одновременные загрузки не превысят квоту
+     *
+     * @param id id пользователя
+     * @param bytes размер файлов
+     * @param defaultQuota квота, если она не задана для пользователя, 0 - без ограничений
+     * @return 1, если место зарезервировано, 0 - если квота будет превышена
+     */
+    @Modifying
+    @Query(value = "UPDATE user SET used_bytes = used_bytes + :bytes WHERE id = :id"
+            + " AND (COALESCE(quota_bytes, :defaultQuota) <= 0"
+            + " OR used_bytes + :bytes <= COALESCE(quota_bytes, :defaultQuota))", nativeQuery = true)
+    int reserveBytes(@Param("id") Integer id, @Param("bytes") long bytes, @Param("defaultQuota") long defaultQuota);
+
+    /**
+     * Освобождает место удаленных файлов
+     *
+     * @param id id пользователя
+     * @param bytes размер файлов
+     * @return количество обновленных пользователей
+     */
+    @Modifying
+    @Query(value = "UPDATE user SET used_bytes = GREATEST(used_bytes - :bytes, 0) WHERE id = :id", nativeQuery = true)
+    int releaseBytes(@Param("id") Integer id, @Param("bytes") long bytes);
 }
@@ -0,0 +1,219 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+import ru.bellintegrator.filesharing.model.AccessId;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш решений по доступу подписчиков к файлам пользователей, ключ - (id пользователя, id подписчика).
+ * Записи удаляются при изменении доступа и в любом случае устаревают через ttl.
+ * Количество записей ограничено max-entries, 0 - кэш выключен
+ */
+@Component
+@ManagedResource(objectName = "ru.bellintegrator.filesharing:type=AccessDecisionCache")
+public class AccessDecisionCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final Map<AccessId, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Увеличивается при каждом удалении записи. Решение, прочитанное до удаления, не попадает в кэш
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Autowired
+    public AccessDecisionCache(@Value("${access.cache.max-entries:10000}") int maxEntries,
+                               @Value("${access.cache.ttl:60000}") long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Возвращает решение из кэша, а если его нет или оно устарело - читает и добавляет в кэш
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     * @param loader чтение решения из базы данных
+     * @return решение
+     */
+    public AccessDecision get(Integer userId, Integer subscriberId, Supplier<AccessDecision> loader) {
+        if (maxEntries <= 0) {
+            return loader.get();
+        }
+        AccessId id = new AccessId(userId, subscriberId);
+        long now = System.nanoTime();
+        Entry entry = entries.get(id);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            hits.increment();
+            return entry.decision;
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        AccessDecision decision = loader.get();
+        if (entries.size() >= maxEntries && !entries.containsKey(id)) {
+            evictOne();
+        }
+        entries.put(id, new Entry(decision, now));
+        if (generation.get() != loadGeneration) {
+            entries.remove(id);
+        }
+        return decision;
+    }
+
+    /**
+     * Удаляет решение из кэша сразу и, если идет транзакция, еще раз после ее завершения,
+     * чтобы одновременное чтение не вернуло в кэш решение до изменения
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     */
+    public void invalidate(Integer userId, Integer subscriberId) {
+        AccessId id = new AccessId(userId, subscriberId);
+        remove(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Удаляет из кэша решения для нескольких подписчиков одного владельца,
+     * так же как {@link #invalidate(Integer, Integer)}
+     *
+     * @param userId id владельца файлов
+     * @param subscriberIds id подписчиков
+     */
+    public void invalidate(Integer userId, Collection<Integer> subscriberIds) {
+        List<AccessId> ids = subscriberIds.stream()
+                .map(subscriberId -> new AccessId(userId, subscriberId))
+                .collect(Collectors.toList());
+        ids.forEach(this::remove);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    ids.forEach(AccessDecisionCache.this::remove);
+                }
+            });
+        }
+    }
+
+    /**
+     * Удаляет из кэша решения для всех подписчиков владельца, так же как {@link #invalidate(Integer, Integer)}.
+     * Просматривает все записи, число которых ограничено max-entries
+     *
+     * @param userId id владельца файлов
+     */
+    public void invalidateUser(Integer userId) {
+        removeUser(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    removeUser(userId);
+                }
+            });
+        }
+    }
+
+    @ManagedOperation(description = "Remove all cached access decisions")
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    @ManagedAttribute(description = "Number of access checks served from the cache")
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Number of access checks read from the database")
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Share of access checks served from the cache")
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @ManagedAttribute(description = "Number of cached access decisions")
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Удаляет запись
+     *
+     * @param id ключ
+     */
+    private void remove(AccessId id) {
+        generation.incrementAndGet();
+        entries.remove(id);
+    }
+
+    /**
+     * Удаляет записи владельца
+     *
+     * @param userId id владельца файлов
+     */
+    private void removeUser(Integer userId) {
+        generation.incrementAndGet();
+        entries.keySet().removeIf(id -> userId.equals(id.getUserId()));
+    }
+
+    /**
+     * Удаляет произвольную запись, чтобы освободить место.
+     * Записи и так живут не дольше ttl, поэтому точный выбор вытесняемой записи не важен
+     */
+    private void evictOne() {
+        Iterator<AccessId> iterator = entries.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Запись кэша
+     */
+    private static class Entry {
+
+        private final AccessDecision decision;
+        private final long loadedAt;
+
+        Entry(AccessDecision decision, long loadedAt) {
+            this.decision = decision;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
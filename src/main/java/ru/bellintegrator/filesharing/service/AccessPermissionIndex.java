@@ -0,0 +1,331 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Копия таблицы доступа в памяти: флаги доступа подписчика (4 бита, см. AccessDecision) по ключу
+ * (id пользователя, id подписчика), упакованному в long. Таблица с открытой адресацией на примитивных массивах,
+ * поэтому поиск не создает объектов. Чтение идет без блокировки и повторяется под блокировкой,
+ * только если в это время таблица изменялась.
+ * Индекс не повторяет изменения доступа: измененная пара помечается устаревшей, и поиск по ней возвращает
+ * {@link #UNKNOWN}, пока индекс не будет загружен заново. Поэтому порядок, в котором завершаются транзакции,
+ * не влияет на результат. До окончания первой загрузки из базы данных поиск тоже возвращает {@link #UNKNOWN}
+ */
+@Component
+@ManagedResource(objectName = "ru.bellintegrator.filesharing:type=AccessPermissionIndex")
+public class AccessPermissionIndex {
+
+    /**
+     * Результат поиска до окончания загрузки или по измененной после загрузки паре
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Пустая ячейка. Пара с нулевыми id не встречается, так как id начинаются с 1
+     */
+    private static final long EMPTY = 0L;
+
+    /**
+     * Отметка устаревших флагов, хранится в старших битах значения
+     */
+    private static final byte STALE = 0x10;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private volatile boolean loaded;
+
+    /**
+     * Загружаемая таблица и ключи пар, измененных во время загрузки
+     */
+    private Table loading;
+    private final List<Long> journal = new ArrayList<>();
+
+    /**
+     * Находит флаги доступа
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     * @return флаги, 0 - доступа нет, {@link #UNKNOWN} - индекс еще не загружен или флаги устарели
+     */
+    public int get(int userId, int subscriberId) {
+        if (!loaded) {
+            return UNKNOWN;
+        }
+        long key = key(userId, subscriberId);
+        long stamp = lock.tryOptimisticRead();
+        int flags = table.find(userId, key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                flags = table.find(userId, key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return (flags & STALE) != 0 ? UNKNOWN : flags;
+    }
+
+    /**
+     * Помечает флаги доступа устаревшими после изменения доступа
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     */
+    public void markStale(int userId, int subscriberId) {
+        long stamp = lock.writeLock();
+        try {
+            markStale(key(userId, subscriberId));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Помечает устаревшими флаги доступа нескольких подписчиков одного владельца
+     *
+     * @param userId id владельца файлов
+     * @param subscriberIds id подписчиков
+     */
+    public void markStale(int userId, Collection<Integer> subscriberIds) {
+        long stamp = lock.writeLock();
+        try {
+            for (Integer subscriberId : subscriberIds) {
+                markStale(key(userId, subscriberId));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Помечает устаревшими флаги доступа всех подписчиков владельца после массового изменения запросов.
+     * Отметка хранится под ключом (id владельца, 0): подписчиков с id 0 нет
+     *
+     * @param userId id владельца файлов
+     */
+    public void markUserStale(int userId) {
+        long stamp = lock.writeLock();
+        try {
+            markStale(key(userId, 0));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Начинает загрузку в новую таблицу. Текущая таблица продолжает отвечать на поиск до {@link #finishLoading()}
+     */
+    public void startLoading() {
+        long stamp = lock.writeLock();
+        try {
+            loading = new Table(INITIAL_CAPACITY);
+            journal.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Записывает флаги доступа при загрузке.
+     * Вызывается только загружающим потоком между {@link #startLoading()} и {@link #finishLoading()}
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     * @param flags флаги
+     */
+    public void load(int userId, int subscriberId, int flags) {
+        loading = loading.put(key(userId, subscriberId), (byte) flags);
+    }
+
+    /**
+     * Помечает устаревшими пары, измененные во время загрузки (их флаги могли быть прочитаны до изменения),
+     * и заменяет текущую таблицу загруженной
+     */
+    public void finishLoading() {
+        long stamp = lock.writeLock();
+        try {
+            Table loaded = loading;
+            for (Long key : journal) {
+                loaded = loaded.put(key, STALE);
+            }
+            journal.clear();
+            loading = null;
+            table = loaded;
+            this.loaded = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @ManagedAttribute(description = "Whether the index has been loaded from the database")
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @ManagedAttribute(description = "Number of (user, subscriber) pairs in the index")
+    public int getSize() {
+        long stamp = lock.readLock();
+        try {
+            return table.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of pairs changed since the index was loaded")
+    public int getStaleCount() {
+        long stamp = lock.readLock();
+        try {
+            return table.stale;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of slots in the index")
+    public int getCapacity() {
+        return table.keys.length;
+    }
+
+    /**
+     * Помечает ключ устаревшим под блокировкой, а во время загрузки запоминает его
+     *
+     * @param key ключ
+     */
+    private void markStale(long key) {
+        table = table.put(key, STALE);
+        if (loading != null) {
+            journal.add(key);
+        }
+    }
+
+    /**
+     * Упаковывает пару id в ключ
+     *
+     * @param userId id владельца файлов
+     * @param subscriberId id подписчика
+     * @return ключ
+     */
+    private static long key(int userId, int subscriberId) {
+        return ((long) userId << 32) | (subscriberId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Массивы ключей и флагов одного размера (степень двойки), линейное пробирование
+     */
+    private static class Table {
+
+        private final long[] keys;
+        private final byte[] values;
+        private final int mask;
+        private int size;
+        private int stale;
+        private int staleUsers;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new byte[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * @param userId id владельца файлов
+         * @param key ключ
+         * @return {@link #STALE}, если помечены все подписчики владельца, иначе флаги по ключу
+         */
+        int find(int userId, long key) {
+            if (staleUsers > 0 && find(key(userId, 0)) == STALE) {
+                return STALE;
+            }
+            return find(key);
+        }
+
+        /**
+         * @param key ключ
+         * @return флаги или 0, если ключа нет
+         */
+        int find(long key) {
+            int slot = slot(key);
+            return keys[slot] == key ? values[slot] : 0;
+        }
+
+        /**
+         * Записывает флаги, заменяя существующие, и увеличивает таблицу, когда она заполнена наполовину
+         *
+         * @param key ключ
+         * @param value флаги или {@link #STALE}
+         * @return эта таблица или увеличенная, если места не хватило
+         */
+        Table put(long key, byte value) {
+            int slot = slot(key);
+            if (keys[slot] == key) {
+                if (value == STALE && values[slot] != STALE) {
+                    countStale(key);
+                }
+                values[slot] = value;
+                return this;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                return resize().put(key, value);
+            }
+            values[slot] = value;
+            keys[slot] = key;
+            size++;
+            if (value == STALE) {
+                countStale(key);
+            }
+            return this;
+        }
+
+        private void countStale(long key) {
+            stale++;
+            if ((int) key == 0) {
+                staleUsers++;
+            }
+        }
+
+        /**
+         * @param key ключ
+         * @return ячейка с ключом или пустая ячейка, в которую его можно записать
+         */
+        int slot(long key) {
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * @return таблица вдвое больше с теми же записями
+         */
+        Table resize() {
+            Table resized = new Table(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    int slot = resized.slot(keys[i]);
+                    resized.keys[slot] = keys[i];
+                    resized.values[slot] = values[i];
+                }
+            }
+            resized.size = size;
+            resized.stale = stale;
+            resized.staleUsers = staleUsers;
+            return resized;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
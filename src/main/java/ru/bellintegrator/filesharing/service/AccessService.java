@@ -1,6 +1,8 @@
 package ru.bellintegrator.filesharing.service;
 
+import org.springframework.data.domain.Page;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.User;
 
 import java.util.List;
@@ -27,12 +29,13 @@ public interface AccessService {
     void saveRequestToDownload(String userId, User subscriber);
 
     /**
-     * Получает список доступов с подписчиками, запрашивающими доступ
+     * Получает страницу доступов с подписчиками, запрашивающими доступ, в порядке id подписчиков
      *
      * @param currentUser текущий пользователь
-     * @return список доступов
+     * @param page номер страницы, начиная с 0
+     * @return страница доступов, общее количество - число ожидающих запросов
      */
-    List<Access> getRequestingAccesses(User currentUser);
+    Page<Access> getRequestingAccesses(User currentUser, int page);
 
     /**
      * Разрешает просмотр файлов подписчику
@@ -50,6 +53,26 @@ public interface AccessService {
      */
     void allowDownload(User currentUser, String subscriberId);
 
+    /**
+     * Одобряет запросы подписчиков на чтение или скачивание одним изменением в базе данных
+     *
+     * @param currentUser текущий пользователь
+     * @param subscriberIds id подписчиков, null - все подписчики с таким запросом
+     * @param download true - запросы на скачивание, false - на чтение
+     * @return количество одобренных запросов
+     */
+    int allowRequests(User currentUser, List<Integer> subscriberIds, boolean download);
+
+    /**
+     * Отклоняет запросы подписчиков на чтение или скачивание одним изменением в базе данных
+     *
+     * @param currentUser текущий пользователь
+     * @param subscriberIds id подписчиков, null - все подписчики с таким запросом
+     * @param download true - запросы на скачивание, false - на чтение
+     * @return количество отклоненных запросов
+     */
+    int denyRequests(User currentUser, List<Integer> subscriberIds, boolean download);
+
     /**
      * Находит доступ
      *
@@ -59,6 +82,24 @@ public interface AccessService {
      */
     Access findAccess(String userId, User subscriber);
 
+    /**
+     * Находит флаги доступа подписчика к файлам пользователя.
+     * Результат кэшируется до изменения доступа
+     *
+     * @param userId id пользователя
+     * @param subscriber подписчик
+     * @return флаги доступа, {@link AccessDecision#NONE} - если доступа нет
+     */
+    AccessDecision findAccessDecision(String userId, User subscriber);
+
+    /**
+     * Загружает флаги всех доступов в индекс в памяти при запуске приложения и затем периодически,
+     * снимая отметки об изменениях доступа после прошлой загрузки
+     *
+     * @return количество загруженных доступов
+     */
+    int loadPermissions();
+
     /**
      * Находит пользователя по id
      *
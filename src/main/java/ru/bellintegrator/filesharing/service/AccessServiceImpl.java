@@ -1,18 +1,27 @@
 package ru.bellintegrator.filesharing.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.bellintegrator.filesharing.exception.AlreadyExistException;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.repository.AccessRepository;
 import ru.bellintegrator.filesharing.repository.UserRepository;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * {@inheritDoc}
@@ -20,13 +29,32 @@ import java.util.stream.Collectors;
 @Service
 public class AccessServiceImpl implements AccessService {
 
+    /**
+     * Наибольшее количество id подписчиков в одном запросе UPDATE
+     */
+    private static final int BULK_UPDATE_SIZE = 1000;
+
+    /**
+     * Количество запросов доступа на странице списка подписчиков
+     */
+    @Value("${access.requests.page-size:50}")
+    private int pageSize;
+
     private final AccessRepository accessRepository;
     private final UserRepository userRepository;
+    private final AccessDecisionCache accessCache;
+    private final AccessPermissionIndex permissionIndex;
+    private final SharingGroupService groupService;
 
     @Autowired
-    public AccessServiceImpl(AccessRepository accessRepository, UserRepository userRepository) {
+    public AccessServiceImpl(AccessRepository accessRepository, UserRepository userRepository,
+                             AccessDecisionCache accessCache, AccessPermissionIndex permissionIndex,
+                             SharingGroupService groupService) {
         this.accessRepository = accessRepository;
         this.userRepository = userRepository;
+        this.accessCache = accessCache;
+        this.permissionIndex = permissionIndex;
+        this.groupService = groupService;
     }
 
     /**
@@ -50,6 +78,7 @@ public class AccessServiceImpl implements AccessService {
         access.setReadAccess(true);
         access.setReadRequest(true);
         accessRepository.save(access);
+        updatePermissions(access);
     }
 
     /**
@@ -70,6 +99,7 @@ public class AccessServiceImpl implements AccessService {
         access.setDownloadAccess(true);
         access.setDownloadRequest(true);
         accessRepository.save(access);
+        updatePermissions(access);
     }
 
     /**
@@ -77,14 +107,12 @@ public class AccessServiceImpl implements AccessService {
      */
     @Transactional(readOnly = true)
     @Override
-    public List<Access> getRequestingAccesses(User currentUser) {
+    public Page<Access> getRequestingAccesses(User currentUser, int page) {
         if (currentUser == null) {
             throw new NotFoundException("No user");
         }
-        return accessRepository.findByUser(currentUser)
-                .stream()
-                .filter(access -> access.getReadRequest() || access.getDownloadRequest())
-                .collect(Collectors.toList());
+        PageRequest pageRequest = PageRequest.of(Math.max(page, 0), pageSize, Sort.by("id.subscriberId"));
+        return accessRepository.findRequestingByUserId(currentUser.getId(), pageRequest);
     }
 
     /**
@@ -101,6 +129,7 @@ public class AccessServiceImpl implements AccessService {
         }
         access.setReadRequest(false);
         accessRepository.save(access);
+        updatePermissions(access);
     }
 
     /**
@@ -117,6 +146,25 @@ public class AccessServiceImpl implements AccessService {
         }
         access.setDownloadRequest(false);
         accessRepository.save(access);
+        updatePermissions(access);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public int allowRequests(User currentUser, List<Integer> subscriberIds, boolean download) {
+        return updateRequests(currentUser, subscriberIds, download, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public int denyRequests(User currentUser, List<Integer> subscriberIds, boolean download) {
+        return updateRequests(currentUser, subscriberIds, download, false);
     }
 
     /**
@@ -130,6 +178,59 @@ public class AccessServiceImpl implements AccessService {
         return accessRepository.findByUserAndSubscriber(user, subscriber);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Флаги берутся из индекса в памяти, а пока он не загружен или если доступ изменился после загрузки -
+     * из кэша решений.
+     * Если собственного доступа на скачивание нет, к флагам добавляется доступ от групп владельца.
+     * Транзакция не открывается, чтобы чтение из памяти не занимало соединение с базой данных
+     */
+    @Override
+    public AccessDecision findAccessDecision(String userId, User subscriber) {
+        checkUser(subscriber);
+        Integer id = transformStringIdToInteger(userId);
+        int flags = permissionIndex.get(id, subscriber.getId());
+        if (flags == AccessPermissionIndex.UNKNOWN) {
+            flags = accessCache.get(id, subscriber.getId(),
+                    () -> AccessDecision.orNone(accessRepository.findDecision(id, subscriber.getId())))
+                    .toFlags();
+        }
+        if (!AccessDecision.canDownload(flags)) {
+            flags = AccessDecision.grant(flags, groupService.findGroupFlags(id, subscriber.getId()));
+        }
+        return AccessDecision.ofFlags(flags);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Таблица читается потоком без создания сущностей в новую копию индекса, старая копия отвечает на поиск
+     * до конца загрузки. Доступы, измененные во время загрузки, помечаются устаревшими и проверяются через кэш
+     * решений до следующей загрузки. Повторная загрузка снимает отметки, накопленные с прошлой
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${access.index.reload-interval:600000}",
+            fixedDelayString = "${access.index.reload-interval:600000}")
+    @Transactional(readOnly = true)
+    @Override
+    public synchronized int loadPermissions() {
+        int count = 0;
+        permissionIndex.startLoading();
+        try (Stream<Object[]> rows = accessRepository.streamAllFlags()) {
+            Iterator<Object[]> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Object[] row = iterator.next();
+                permissionIndex.load(((Number) row[0]).intValue(), ((Number) row[1]).intValue(),
+                        AccessDecision.toFlags(ServiceUtils.toBoolean(row[2]), ServiceUtils.toBoolean(row[3]), ServiceUtils.toBoolean(row[4]),
+                                ServiceUtils.toBoolean(row[5])));
+                count++;
+            }
+        }
+        permissionIndex.finishLoading();
+        return count;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -144,15 +245,64 @@ public class AccessServiceImpl implements AccessService {
         return optional.get();
     }
 
+    /**
+     * Одобряет или отклоняет запросы подписчиков запросами UPDATE по BULK_UPDATE_SIZE подписчиков,
+     * а все запросы - одним запросом UPDATE без чтения id подписчиков.
+     * Затем помечает флаги в индексе устаревшими и удаляет решения из кэша
+     *
+     * @param currentUser текущий пользователь
+     * @param subscriberIds id подписчиков, null - все подписчики с таким запросом
+     * @param download true - запросы на скачивание, false - на чтение
+     * @param allow true - одобрить, false - отклонить
+     * @return количество измененных доступов
+     */
+    private int updateRequests(User currentUser, List<Integer> subscriberIds, boolean download, boolean allow) {
+        checkUser(currentUser);
+        Integer userId = currentUser.getId();
+        int count = 0;
+        if (subscriberIds == null) {
+            count = download
+                    ? accessRepository.updateAllDownloadRequests(userId, allow)
+                    : accessRepository.updateAllReadRequests(userId, allow);
+            accessCache.invalidateUser(userId);
+            ServiceUtils.afterCommit(() -> permissionIndex.markUserStale(userId));
+        } else if (!subscriberIds.isEmpty()) {
+            for (int from = 0; from < subscriberIds.size(); from += BULK_UPDATE_SIZE) {
+                List<Integer> chunk = subscriberIds.subList(from,
+                        Math.min(from + BULK_UPDATE_SIZE, subscriberIds.size()));
+                count += download
+                        ? accessRepository.updateDownloadRequests(userId, chunk, allow)
+                        : accessRepository.updateReadRequests(userId, chunk, allow);
+            }
+            accessCache.invalidate(userId, subscriberIds);
+            ServiceUtils.afterCommit(() -> permissionIndex.markStale(userId, subscriberIds));
+        } else {
+            return 0;
+        }
+        return count;
+    }
+
+    /**
+     * Помечает флаги доступа в индексе устаревшими после фиксации транзакции и удаляет решение из кэша.
+     * Новые флаги в индекс не записываются: транзакции могут завершиться не в том порядке, в котором
+     * читали доступ, и последняя запись оставила бы в индексе чужие флаги
+     *
+     * @param access измененный доступ
+     */
+    private void updatePermissions(Access access) {
+        Integer userId = access.getUser().getId();
+        Integer subscriberId = access.getSubscriber().getId();
+        accessCache.invalidate(userId, subscriberId);
+        ServiceUtils.afterCommit(() -> permissionIndex.markStale(userId, subscriberId));
+    }
+
     /**
      * Проверяет пользователя и подписчика на пустоту
      *
      * @param user пользователь
      */
-    private void checkUser(User user) {
-        if (user == null) {
-            throw new NotFoundException("No user or subscriber");
-        }
+    private static void checkUser(User user) {
+        ServiceUtils.checkUser(user, "No user or subscriber");
     }
 
     /**
@@ -161,10 +311,7 @@ public class AccessServiceImpl implements AccessService {
      * @param userId id пользователя
      * @return Integer
      */
-    private Integer transformStringIdToInteger(String userId) {
-        if (userId == null || !userId.matches("[\\d]+")) {
-            throw new NotFoundException("The user id must not be null or character!");
-        }
-        return Integer.valueOf(userId);
+    private static Integer transformStringIdToInteger(String userId) {
+        return ServiceUtils.transformStringIdToInteger(userId, "The user id must not be null or character!");
     }
 }
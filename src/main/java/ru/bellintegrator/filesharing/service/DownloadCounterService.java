@@ -0,0 +1,23 @@
+package ru.bellintegrator.filesharing.service;
+
+/**
+ * Сервис подсчета скачиваний файлов.
+ * Скачивания накапливаются в памяти и периодически записываются в базу данных
+ */
+public interface DownloadCounterService {
+
+    /**
+     * Учитывает скачивание файла
+     *
+     * @param fileId id файла
+     */
+    void increment(Integer fileId);
+
+    /**
+     * Записывает накопленные скачивания в базу данных
+     *
+     * @return количество файлов, для которых записаны скачивания
+     */
+    int flush();
+
+}
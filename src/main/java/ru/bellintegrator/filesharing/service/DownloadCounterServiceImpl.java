@@ -0,0 +1,198 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@inheritDoc}
+ *
+ * Каждому файлу соответствует свой LongAdder, поэтому одновременные скачивания не блокируют друг друга
+ * и не конфликтуют по версии строки файла. При аварийном завершении теряются скачивания
+ * не более чем за один интервал записи, при штатной остановке накопленное записывается
+ */
+@Service
+public class DownloadCounterServiceImpl implements DownloadCounterService {
+
+    /**
+     * Максимальное количество id в одном запросе UPDATE
+     */
+    @Value("${download.counter.batch-size:500}")
+    private int batchSize;
+
+    private final ConcurrentMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+
+    private final UserFileRepository fileRepository;
+
+    @Autowired
+    public DownloadCounterServiceImpl(UserFileRepository fileRepository) {
+        this.fileRepository = fileRepository;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment(Integer fileId) {
+        add(fileId, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Файлы группируются по количеству скачиваний, и для каждой группы выполняется один UPDATE по списку id,
+     * не меняющий версию строки. Если запись не удалась, скачивания остаются в счетчиках до следующей записи.
+     * Счетчики файлов, которые не скачивали с прошлой записи, удаляются
+     */
+    @Scheduled(fixedDelayString = "${download.counter.flush-interval:5000}")
+    @Override
+    public synchronized int flush() {
+        Map<Integer, List<Pending>> groups = new TreeMap<>();
+        for (Map.Entry<Integer, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            long count = counter.downloads.sum() - counter.flushed;
+            if (count == 0) {
+                count = retire(entry.getKey(), counter);
+            }
+            if (count > 0) {
+                count = Math.min(count, Integer.MAX_VALUE);
+                counter.flushed += count;
+                groups.computeIfAbsent((int) count, c -> new ArrayList<>())
+                        .add(new Pending(entry.getKey(), counter));
+            }
+        }
+
+        int flushed = 0;
+        for (Map.Entry<Integer, List<Pending>> group : groups.entrySet()) {
+            List<Pending> pending = group.getValue();
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                List<Pending> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+                List<Integer> ids = new ArrayList<>(batch.size());
+                batch.forEach(p -> ids.add(p.fileId));
+                try {
+                    fileRepository.addDownloads(group.getKey(), ids);
+                    flushed += batch.size();
+                } catch (RuntimeException e) {
+                    batch.forEach(p -> restore(p, group.getKey()));
+                }
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Записывает накопленные скачивания при остановке приложения
+     */
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Добавляет скачивания в счетчик файла.
+     * Если счетчик в этот момент удаляется, скачивания добавляются в новый счетчик
+     *
+     * @param fileId id файла
+     * @param count количество скачиваний
+     */
+    private void add(Integer fileId, long count) {
+        while (true) {
+            Counter counter = counters.get(fileId);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(fileId, id -> new Counter());
+            }
+            counter.inFlight.increment();
+            try {
+                if (!counter.retired) {
+                    counter.downloads.add(count);
+                    return;
+                }
+            } finally {
+                counter.inFlight.decrement();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Удаляет счетчик файла, который не скачивали с прошлой записи.
+     * Скачивания, начатые до удаления, дожидаются и возвращаются для записи
+     *
+     * @param fileId id файла
+     * @param counter счетчик
+     * @return количество скачиваний, добавленных во время удаления
+     */
+    private long retire(Integer fileId, Counter counter) {
+        counter.retired = true;
+        counters.remove(fileId, counter);
+        while (counter.inFlight.sum() != 0) {
+            Thread.yield();
+        }
+        return counter.downloads.sum() - counter.flushed;
+    }
+
+    /**
+     * Возвращает незаписанные скачивания в счетчик
+     *
+     * @param pending файл, для которого запись не удалась
+     * @param count количество скачиваний
+     */
+    private void restore(Pending pending, long count) {
+        if (pending.counter.retired) {
+            add(pending.fileId, count);
+        } else {
+            pending.counter.flushed -= count;
+        }
+    }
+
+    /**
+     * Счетчик скачиваний файла
+     */
+    private static class Counter {
+
+        /**
+         * Все скачивания файла с момента создания счетчика
+         */
+        private final LongAdder downloads = new LongAdder();
+
+        /**
+         * Количество потоков, добавляющих скачивание в этот момент
+         */
+        private final LongAdder inFlight = new LongAdder();
+
+        /**
+         * Счетчик удален из таблицы, новые скачивания добавляются в другой счетчик
+         */
+        private volatile boolean retired;
+
+        /**
+         * Скачивания, уже записанные в базу данных. Изменяется только при записи
+         */
+        private long flushed;
+    }
+
+    /**
+     * Файл, скачивания которого записываются в базу данных
+     */
+    private static class Pending {
+
+        private final Integer fileId;
+        private final Counter counter;
+
+        Pending(Integer fileId, Counter counter) {
+            this.fileId = fileId;
+            this.counter = counter;
+        }
+    }
+}
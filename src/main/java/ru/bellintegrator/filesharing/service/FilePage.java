@@ -0,0 +1,49 @@
+package ru.bellintegrator.filesharing.service;
+
+import ru.bellintegrator.filesharing.model.UserFile;
+
+import java.util.List;
+
+/**
+ * Страница списка файлов в порядке возрастания id.
+ * Соседние страницы запрашиваются от id первого и последнего файла страницы, а не по номеру,
+ * поэтому база данных не пропускает строки предыдущих страниц
+ */
+public class FilePage {
+
+    private final List<UserFile> files;
+    private final boolean hasPrevious;
+    private final boolean hasNext;
+
+    public FilePage(List<UserFile> files, boolean hasPrevious, boolean hasNext) {
+        this.files = files;
+        this.hasPrevious = hasPrevious;
+        this.hasNext = hasNext;
+    }
+
+    public List<UserFile> getFiles() {
+        return files;
+    }
+
+    public boolean getHasPrevious() {
+        return hasPrevious && !files.isEmpty();
+    }
+
+    public boolean getHasNext() {
+        return hasNext && !files.isEmpty();
+    }
+
+    /**
+     * @return id первого файла страницы, null - если страница пуста
+     */
+    public Integer getFirstId() {
+        return files.isEmpty() ? null : files.get(0).getId();
+    }
+
+    /**
+     * @return id последнего файла страницы, null - если страница пуста
+     */
+    public Integer getLastId() {
+        return files.isEmpty() ? null : files.get(files.size() - 1).getId();
+    }
+}
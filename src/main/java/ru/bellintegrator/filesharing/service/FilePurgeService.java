@@ -0,0 +1,16 @@
+package ru.bellintegrator.filesharing.service;
+
+/**
+ * Сервис фонового удаления содержимого файлов, помеченных удаленными
+ */
+public interface FilePurgeService {
+
+    /**
+     * Удаляет очередную порцию помеченных файлов.
+     * Файлы, которые не удалось удалить, удаляются повторно при следующем проходе
+     *
+     * @return количество удаленных файлов
+     */
+    int purgeDeletedFiles();
+
+}
@@ -0,0 +1,65 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+
+import java.util.List;
+
+/**
+ * {@inheritDoc}
+ *
+ * Каждый файл удаляется в отдельной транзакции. Помеченные файлы перебираются по возрастанию id,
+ * продолжая с места предыдущего запуска, поэтому файл, который не удается удалить, не задерживает остальные
+ */
+@Service
+public class FilePurgeServiceImpl implements FilePurgeService {
+
+    private final Logger log = LoggerFactory.getLogger(FilePurgeServiceImpl.class);
+
+    /**
+     * Максимальное количество файлов, удаляемых за один запуск
+     */
+    @Value("${upload.purge.batch-size:100}")
+    private int batchSize;
+
+    private final UserFileRepository fileRepository;
+    private final FileService fileService;
+
+    /**
+     * id последнего просмотренного файла
+     */
+    private int lastId;
+
+    @Autowired
+    public FilePurgeServiceImpl(UserFileRepository fileRepository, FileService fileService) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Scheduled(fixedDelayString = "${upload.purge.interval:10000}")
+    @Override
+    public synchronized int purgeDeletedFiles() {
+        List<Integer> ids = fileRepository.findDeletedIds(lastId, batchSize);
+        lastId = ids.size() < batchSize ? 0 : ids.get(ids.size() - 1);
+        int purged = 0;
+        for (Integer id : ids) {
+            try {
+                if (fileService.purgeFile(id)) {
+                    purged++;
+                }
+            } catch (RuntimeException e) {
+                // файл будет удален при следующем проходе
+                log.warn("File {} was not purged: {}", id, e.toString());
+            }
+        }
+        return purged;
+    }
+}
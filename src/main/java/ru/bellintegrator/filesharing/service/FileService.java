@@ -1,10 +1,14 @@
 package ru.bellintegrator.filesharing.service;
 
 import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Page;
 import org.springframework.web.multipart.MultipartFile;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.UploadSession;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
 
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -13,11 +17,25 @@ import java.util.List;
 public interface FileService {
 
     /**
-     * Находит все файлы в системе
+     * Находит страницу файлов в системе вместе с их владельцами.
+     * Если id не указаны, возвращается первая страница
      *
-     * @return список файлов
+     * @param afterId id, после которого начинается страница
+     * @param beforeId id, перед которым заканчивается страница (переход на предыдущую страницу)
+     * @return страница файлов
      */
-    List<UserFile> findAllFiles();
+    FilePage findFiles(Integer afterId, Integer beforeId);
+
+    /**
+     * Находит страницу файлов владельца
+     *
+     * @param fileOwner владелец файлов
+     * @param page номер страницы, начиная с 0
+     * @param sort поле сортировки: name, date или downloads, другие значения - date
+     * @param descending true - по убыванию
+     * @return страница файлов
+     */
+    Page<UserFile> findOwnerFiles(User fileOwner, int page, String sort, boolean descending);
 
     /**
      * Добавляет файл в систему
@@ -27,6 +45,36 @@ public interface FileService {
      */
     void uploadFile(User currentUser, MultipartFile file);
 
+    /**
+     * Добавляет в систему несколько файлов за один запрос
+     *
+     * @param currentUser текущий пользователь
+     * @param files файлы
+     * @return добавленные файлы
+     */
+    List<UserFile> uploadFiles(User currentUser, List<MultipartFile> files);
+
+    /**
+     * Добавляет файл в систему, читая содержимое напрямую из потока
+     *
+     * @param currentUser текущий пользователь
+     * @param originalName оригинальное имя файла
+     * @param inputStream содержимое файла
+     * @return добавленный файл
+     */
+    UserFile uploadFile(User currentUser, String originalName, InputStream inputStream);
+
+    /**
+     * Добавляет в систему файл, полностью записанный в файл загрузки по частям,
+     * и в той же транзакции отмечает сессию загрузки завершенной
+     *
+     * @param currentUser текущий пользователь
+     * @param session сессия загрузки
+     * @param content содержимое файла загрузки
+     * @return добавленный файл
+     */
+    UserFile uploadStagedFile(User currentUser, UploadSession session, InputStream content);
+
     /**
      * Загружает файл из системы
      *
@@ -37,11 +85,85 @@ public interface FileService {
     Resource downloadFile(User currentUser, String fileId);
 
     /**
-     * Удаляет файл
+     * Находит файлы владельца для скачивания одним архивом.
+     * Файлы читаются из базы данных порциями по мере обхода, содержимое открывается только при чтении ресурсов.
+     * Скачивания не учитываются, для этого после отправки каждого файла вызывается {@link #countDownload(Integer)}
+     *
+     * @param currentUser текущий пользователь
+     * @param fileOwnerId id владельца файлов
+     * @param fileIds id выбранных файлов, null или пустой список - все файлы владельца
+     * @return ресурсы файлов
+     */
+    Iterable<UserFileResource> downloadFiles(User currentUser, String fileOwnerId, List<Integer> fileIds);
+
+    /**
+     * Учитывает скачивание файла в счетчике скачиваний
+     *
+     * @param fileId id файла
+     */
+    void countDownload(Integer fileId);
+
+    /**
+     * Находит файл, доступный текущему пользователю для скачивания, не открывая его содержимое.
+     * Используется для проверки условных запросов до чтения файла
+     *
+     * @param currentUser текущий пользователь
+     * @param fileId id файла
+     * @return файл
+     */
+    UserFile findFile(User currentUser, String fileId);
+
+    /**
+     * Загружает файл из системы
+     *
+     * @param currentUser текущий пользователь
+     * @param fileId id файла
+     * @param countDownload учитывать ли скачивание в счетчике (false - при запросе части файла)
+     * @return Resource
+     */
+    Resource downloadFile(User currentUser, String fileId, boolean countDownload);
+
+    /**
+     * Удаляет файл.
+     * Файл помечается удаленным и сразу исчезает из списков, содержимое удаляется в фоне
      *
      * @param currentUser текущий пользователь
      * @param fileId id файла
      */
     void deleteFile(User currentUser, String fileId);
 
+    /**
+     * Помечает удаленным файл, содержимого которого нет в хранилище, и освобождает его место в квоте владельца
+     *
+     * @param fileId id файла
+     * @return true, если файл помечен, false - если он уже удален
+     */
+    boolean deleteMissingFile(Integer fileId);
+
+    /**
+     * Проверяет, что файлы указанного размера помещаются в квоту пользователя.
+     * Используется до чтения тела запроса, чтобы не принимать заведомо не помещающиеся файлы
+     *
+     * @param currentUser текущий пользователь
+     * @param bytes размер добавляемых файлов
+     * @throws QuotaExceededException если квота будет превышена
+     */
+    void checkQuota(User currentUser, long bytes);
+
+    /**
+     * Удаляет содержимое помеченного удаленным файла и строку файла из таблицы
+     *
+     * @param fileId id файла
+     * @return true, если файл удален, false - если файл не помечен удаленным
+     */
+    boolean purgeFile(Integer fileId);
+
+    /**
+     * Удаляет из хранилища содержимое, на которое не ссылается ни один файл
+     *
+     * @param name имя содержимого в хранилище
+     * @return true, если содержимое удалено, false - если на него есть ссылки или его уже нет
+     */
+    boolean deleteOrphanContent(String name);
+
 }
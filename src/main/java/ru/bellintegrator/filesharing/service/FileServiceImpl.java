@@ -1,29 +1,58 @@
 package ru.bellintegrator.filesharing.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 import ru.bellintegrator.filesharing.exception.AccessException;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
-import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+import ru.bellintegrator.filesharing.model.FileContent;
+import ru.bellintegrator.filesharing.model.UploadSession;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
 import ru.bellintegrator.filesharing.repository.AccessRepository;
+import ru.bellintegrator.filesharing.repository.FileContentRepository;
+import ru.bellintegrator.filesharing.repository.UploadSessionRepository;
 import ru.bellintegrator.filesharing.repository.UserFileRepository;
+import ru.bellintegrator.filesharing.repository.UserRepository;
+import ru.bellintegrator.filesharing.storage.CompressedFormats;
+import ru.bellintegrator.filesharing.storage.ContentCodec;
+import ru.bellintegrator.filesharing.storage.FileStore;
+import ru.bellintegrator.filesharing.storage.HashingInputStream;
+import ru.bellintegrator.filesharing.storage.HotFileCache;
+import ru.bellintegrator.filesharing.storage.StagedContent;
 
 import javax.persistence.EntityNotFoundException;
-import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 /**
  * {@inheritDoc}
@@ -31,83 +60,269 @@ import java.util.UUID;
 @Service
 public class FileServiceImpl implements FileService {
 
-    @Value("${upload.path}")
-    private String uploadPath;
+    /**
+     * Поля, по которым можно сортировать файлы владельца
+     */
+    private static final Map<String, String> SORT_PROPERTIES = new HashMap<>();
+
+    static {
+        SORT_PROPERTIES.put("name", "originalName");
+        SORT_PROPERTIES.put("date", "uploadDate");
+        SORT_PROPERTIES.put("downloads", "downloadCount");
+    }
+
+    /**
+     * Количество файлов, которое читается из базы данных за один запрос при скачивании архивом
+     */
+    private static final int ARCHIVE_BATCH_SIZE = 100;
 
     private final UserFileRepository fileRepository;
+    private final UserRepository userRepository;
     private final AccessRepository accessRepository;
+    private final AccessPermissionIndex permissionIndex;
+    private final AccessDecisionCache accessCache;
+    private final SharingGroupService groupService;
+    private final FileContentRepository contentRepository;
+    private final UploadSessionRepository sessionRepository;
+    private final FileStore fileStore;
+    private final ContentCodec codec;
+    private final HotFileCache hotFileCache;
+    private final DownloadCounterService downloadCounter;
+    private final Executor uploadExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Квота на суммарный размер файлов пользователя, если она не задана для пользователя отдельно, 0 - без ограничений
+     */
+    @Value("${upload.quota.default-bytes:0}")
+    private long defaultQuotaBytes;
+
+    /**
+     * Количество файлов на странице списка
+     */
+    @Value("${files.page-size:50}")
+    private int pageSize;
+
+    @Value("${upload.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    @Value("${upload.compression.min-size:1024}")
+    private int compressionMinSize;
 
     @Autowired
-    public FileServiceImpl(UserFileRepository fileRepository, AccessRepository accessRepository) {
+    public FileServiceImpl(UserFileRepository fileRepository, UserRepository userRepository,
+                           AccessRepository accessRepository, AccessPermissionIndex permissionIndex,
+                           AccessDecisionCache accessCache, SharingGroupService groupService,
+                           FileContentRepository contentRepository, UploadSessionRepository sessionRepository,
+                           FileStore fileStore, ContentCodec codec,
+                           HotFileCache hotFileCache, DownloadCounterService downloadCounter,
+                           @Qualifier("uploadExecutor") Executor uploadExecutor,
+                           PlatformTransactionManager transactionManager) {
         this.fileRepository = fileRepository;
+        this.userRepository = userRepository;
         this.accessRepository = accessRepository;
+        this.permissionIndex = permissionIndex;
+        this.accessCache = accessCache;
+        this.groupService = groupService;
+        this.contentRepository = contentRepository;
+        this.sessionRepository = sessionRepository;
+        this.fileStore = fileStore;
+        this.codec = codec;
+        this.hotFileCache = hotFileCache;
+        this.downloadCounter = downloadCounter;
+        this.uploadExecutor = uploadExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Файлы и владельцы читаются одним запросом. Запрашивается на один файл больше размера страницы,
+     * чтобы узнать, есть ли следующая (при переходе назад - предыдущая) страница.
+     * Страница с другой стороны от курсора проверяется запросом одной строки по первичному ключу,
+     * так как файлы перед курсором могли быть удалены
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public FilePage findFiles(Integer afterId, Integer beforeId) {
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        if (beforeId != null) {
+            List<UserFile> files = new ArrayList<>(fileRepository.findBeforeWithOwner(beforeId, limit));
+            boolean hasPrevious = files.size() > pageSize;
+            if (hasPrevious) {
+                files.remove(pageSize);
+            }
+            Collections.reverse(files);
+            return new FilePage(files, hasPrevious, fileRepository.existsByIdGreaterThanEqual(beforeId));
+        }
+        int after = afterId != null ? afterId : 0;
+        List<UserFile> files = new ArrayList<>(fileRepository.findAfterWithOwner(after, limit));
+        boolean hasNext = files.size() > pageSize;
+        if (hasNext) {
+            files.remove(pageSize);
+        }
+        boolean hasPrevious = after > 0 && fileRepository.existsByIdLessThanEqual(after);
+        return new FilePage(files, hasPrevious, hasNext);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * При равных значениях поля сортировки файлы упорядочиваются по id, чтобы страницы не пересекались
      */
     @Transactional(readOnly = true)
     @Override
-    public List<UserFile> findAllFiles() {
-        return fileRepository.findAll();
+    public Page<UserFile> findOwnerFiles(User fileOwner, int page, String sort, boolean descending) {
+        Sort.Direction direction = descending ? Sort.Direction.DESC : Sort.Direction.ASC;
+        String property = SORT_PROPERTIES.getOrDefault(sort, SORT_PROPERTIES.get("date"));
+        PageRequest pageRequest = PageRequest.of(Math.max(page, 0), pageSize,
+                Sort.by(direction, property).and(Sort.by(direction, "id")));
+        return fileRepository.findPageByOwnerId(fileOwner.getId(), pageRequest);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * Транзакция открывается только после записи содержимого, см. {@link #saveContent}
      */
-    @Transactional
     @Override
     public void uploadFile(User currentUser, MultipartFile file) {
         if (file == null || StringUtils.isEmpty(file.getOriginalFilename())) {
             throw new NotFoundException("Select file!");
         }
-        File uploadDir = new File(uploadPath);
+        try (InputStream inputStream = file.getInputStream()) {
+            uploadFile(currentUser, file.getOriginalFilename(), inputStream);
+        } catch (IOException | IllegalStateException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+    }
 
-        if (!uploadDir.exists()) {
-            uploadDir.mkdir();
+    /**
+     * {@inheritDoc}
+     *
+     * Содержимое файлов записывается во временные объекты хранилища параллельно в пуле uploadExecutor
+     * вне транзакции. Затем в потоке запроса в одной короткой транзакции резервируется место в квоте,
+     * добавляются ссылки на содержимое и все файлы добавляются пакетами JDBC
+     * (id выделяются заранее, см. hibernate.jdbc.batch_size).
+     * Если хотя бы один файл не удалось записать или файлы не помещаются в квоту, не добавляется ни один
+     */
+    @Override
+    public List<UserFile> uploadFiles(User currentUser, List<MultipartFile> files) {
+        if (files == null || files.isEmpty()) {
+            throw new NotFoundException("Select file!");
+        }
+        for (MultipartFile file : files) {
+            if (file == null || StringUtils.isEmpty(file.getOriginalFilename())) {
+                throw new NotFoundException("Select file!");
+            }
         }
+        List<CompletableFuture<PreparedContent>> futures = new ArrayList<>();
+        for (MultipartFile file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> prepareContent(file), uploadExecutor));
+        }
+        List<PreparedContent> prepared = joinAll(futures);
 
-        String resultFilename = createUniqueFileName(file.getOriginalFilename());
+        try {
+            return transactionTemplate.execute(status -> {
+                long total = 0;
+                for (PreparedContent content : prepared) {
+                    total += content.size;
+                }
+                reserveBytes(currentUser, total);
+                List<UserFile> userFiles = new ArrayList<>();
+                for (int i = 0; i < files.size(); i++) {
+                    FileContent content = storeContent(prepared.get(i));
+                    prepared.set(i, null);
+                    userFiles.add(createUserFile(currentUser, files.get(i).getOriginalFilename(), content));
+                }
+                return fileRepository.saveAll(userFiles);
+            });
+        } catch (RuntimeException e) {
+            discardAll(prepared);
+            throw e;
+        }
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Поток читается один раз: хеш и размер считаются во время записи во временный объект хранилища,
+     * затем объект сохраняется под именем-хешем без повторного копирования.
+     * Если включено сжатие, содержимое сжимается на лету, а хеш считается по исходным байтам.
+     * Поток читается вне транзакции, см. {@link #saveContent}
+     */
+    @Override
+    public UserFile uploadFile(User currentUser, String originalName, InputStream inputStream) {
+        if (StringUtils.isEmpty(originalName)) {
+            throw new NotFoundException("Select file!");
+        }
+        PreparedContent prepared;
         try {
-            file.transferTo(new File(uploadPath + "/" + resultFilename));
-        } catch (IOException | IllegalStateException e) {
+            prepared = prepareContent(inputStream);
+        } catch (IOException e) {
             throw new NotFoundException("The file or path was not found!", e);
         }
+        return saveContent(currentUser, originalName, prepared, null);
+    }
 
-        UserFile userFile = new UserFile();
-        userFile.setOriginalName(file.getOriginalFilename());
-        userFile.setFileName(resultFilename);
-        userFile.setUser(currentUser);
-        userFile.setDownloadCount(0);
-        fileRepository.save(userFile);
+    /**
+     * {@inheritDoc}
+     *
+     * Содержимое копируется во временный объект хранилища вне транзакции, см. {@link #saveContent}.
+     * Сессия связывается с файлом в транзакции, добавляющей файл, поэтому файл, учтенный в квоте,
+     * всегда можно найти повторным завершением загрузки
+     */
+    @Override
+    public UserFile uploadStagedFile(User currentUser, UploadSession session, InputStream content) {
+        if (StringUtils.isEmpty(session.getOriginalName())) {
+            throw new NotFoundException("Select file!");
+        }
+        PreparedContent prepared;
+        try {
+            prepared = prepareContent(content);
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+        return saveContent(currentUser, session.getOriginalName(), prepared, session);
     }
 
     /**
      * {@inheritDoc}
      */
-    @Transactional
+    @Transactional(readOnly = true)
     @Override
     public Resource downloadFile(User currentUser, String fileId) {
+        return downloadFile(currentUser, fileId, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Часто скачиваемые файлы отдаются из кэша вне heap без обращения к хранилищу.
+     * Скачивание учитывается в счетчике в памяти, строка файла не изменяется
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public Resource downloadFile(User currentUser, String fileId, boolean countDownload) {
         Integer id = transformStringIdToInteger(fileId);
         UserFile userFile = fileRepository.getOne(id);
         try {
-            Access access = accessRepository.findByUserAndSubscriber(userFile.getUser(), currentUser);
-            if (isFileOwner(currentUser, userFile.getUser()) || (access != null
-                    && !access.getDownloadRequest() && access.getDownloadAccess())) {
-                Path rootLocation = Paths.get(uploadPath);
-                Path file = rootLocation.resolve(userFile.getFileName());
-                Resource resource = new UrlResource(file.toUri());
-                if (!resource.exists() || !resource.isReadable()) {
+            checkDownloadAccess(currentUser, userFile);
+            Resource content = hotFileCache.get(userFile.getFileName());
+            if (content == null) {
+                content = fileStore.get(userFile.getFileName());
+                if (content == null || !content.isReadable()) {
                     throw new NotFoundException("Could not read file: " + userFile.getFileName());
                 }
-                userFile.setDownloadCount(userFile.getDownloadCount() + 1);
-                fileRepository.save(userFile);
-                return resource;
+                content = hotFileCache.cache(userFile.getFileName(), content);
             }
-            else throw new AccessException("You need permission to perform this action!");
+            Resource resource = new UserFileResource(content, userFile, codec);
+            if (countDownload) {
+                downloadCounter.increment(userFile.getId());
+            }
+            return resource;
         }
-        catch (MalformedURLException e) {
+        catch (IOException e) {
             throw new NotFoundException("Could not read file: " + userFile.getFileName(), e);
         }
         catch (EntityNotFoundException e) {
@@ -115,6 +330,50 @@ public class FileServiceImpl implements FileService {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Все файлы принадлежат одному владельцу, поэтому доступ проверяется один раз.
+     * Выбранные id сортируются и запрашиваются порциями, все файлы владельца - порциями по id,
+     * поэтому в памяти одновременно находится не больше одной порции файлов.
+     * Содержимое берется из хранилища, а не из кэша, чтобы архив не вытеснял из кэша часто скачиваемые файлы
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public Iterable<UserFileResource> downloadFiles(User currentUser, String fileOwnerId, List<Integer> fileIds) {
+        Integer ownerId = transformStringIdToInteger(fileOwnerId);
+        if (!ownerId.equals(currentUser.getId())) {
+            checkDownloadAccess(currentUser, ownerId);
+        }
+        int[] ids = fileIds == null || fileIds.isEmpty() ? null
+                : fileIds.stream().filter(Objects::nonNull).mapToInt(Integer::intValue).sorted().distinct().toArray();
+        return () -> new ArchiveFiles(ownerId, ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void countDownload(Integer fileId) {
+        downloadCounter.increment(fileId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public UserFile findFile(User currentUser, String fileId) {
+        Integer id = transformStringIdToInteger(fileId);
+        try {
+            UserFile userFile = fileRepository.getOne(id);
+            checkDownloadAccess(currentUser, userFile);
+            return userFile;
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("There is no file with id " + id, e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -124,28 +383,389 @@ public class FileServiceImpl implements FileService {
         Integer id = transformStringIdToInteger(fileId);
         try {
             UserFile userFile = fileRepository.getOne(id);
+            checkNotDeleted(userFile);
             if (!isFileOwner(currentUser, userFile.getUser())) {
                 throw new AccessException("You can not delete not your file!");
             }
-            File fileFromDisk = new File(uploadPath + "/" + userFile.getFileName());
-            if (!fileFromDisk.delete()) {
-                throw new NotFoundException("The file was not deleted!");
-            }
-            fileRepository.delete(userFile);
+            userFile.setDeletedDate(new Date());
+            fileRepository.save(userFile);
+            releaseBytes(userFile);
         } catch (EntityNotFoundException e) {
             throw new NotFoundException("There is no file with id " + id, e);
         }
     }
 
     /**
-     * Создает уникальное имя файла
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public boolean deleteMissingFile(Integer fileId) {
+        UserFile userFile = fileRepository.findById(fileId).orElse(null);
+        if (userFile == null || fileRepository.markDeleted(fileId, new Date()) == 0) {
+            return false;
+        }
+        releaseBytes(userFile);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Проверка не блокирует строку пользователя: окончательно место резервируется при сохранении файла
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public void checkQuota(User currentUser, long bytes) {
+        User user = userRepository.findById(currentUser.getId()).orElse(null);
+        if (user == null) {
+            return;
+        }
+        long quota = user.getQuotaBytes() != null ? user.getQuotaBytes() : defaultQuotaBytes;
+        long used = user.getUsedBytes() != null ? user.getUsedBytes() : 0;
+        if (quota > 0 && used + bytes > quota) {
+            throw new QuotaExceededException("Storage quota exceeded: " + used + " of " + quota
+                    + " bytes used, " + bytes + " more requested!");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Содержимое удаляется из хранилища под блокировкой строки содержимого, поэтому одновременная загрузка
+     * того же содержимого его не потеряет. Если удаление прервано, файл остается помеченным и удаляется повторно,
+     * а уже отсутствующее в хранилище содержимое считается удаленным
+     */
+    @Transactional
+    @Override
+    public boolean purgeFile(Integer fileId) {
+        UserFile userFile = fileRepository.findDeletedById(fileId);
+        if (userFile == null) {
+            return false;
+        }
+        releaseContent(userFile);
+        fileRepository.removeDeleted(fileId);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
      *
-     * @param originalFileName оригинальное имя файла
-     * @return уникальное имя файла
+     * Поиск содержимого блокирует его строку, а если строки нет - место для нее,
+     * поэтому одновременная загрузка того же содержимого дождется удаления и сохранит его заново
      */
-    private String createUniqueFileName(String originalFileName){
-        String uuidFile = UUID.randomUUID().toString();
-        return uuidFile + "." + originalFileName;
+    @Transactional
+    @Override
+    public boolean deleteOrphanContent(String name) {
+        if (contentRepository.findByHash(name) != null
+                || !fileRepository.findReferencedNames(Collections.singleton(name)).isEmpty()) {
+            return false;
+        }
+        hotFileCache.invalidate(name);
+        try {
+            return fileStore.delete(name);
+        } catch (IOException e) {
+            throw new NotFoundException("The file was not deleted!", e);
+        }
+    }
+
+    /**
+     * Резервирует место в квоте, сохраняет содержимое и добавляет файл пользователя в одной короткой транзакции.
+     * Содержимое к этому моменту уже записано во временный объект хранилища, поэтому соединение с базой данных
+     * не занято, пока клиент передает файл. Если файл не добавлен, временный объект удаляется
+     *
+     * @param currentUser текущий пользователь
+     * @param originalName оригинальное имя файла
+     * @param prepared содержимое во временном объекте хранилища
+     * @param session сессия загрузки по частям, которую нужно связать с файлом, или null
+     * @return файл пользователя
+     */
+    private UserFile saveContent(User currentUser, String originalName, PreparedContent prepared,
+                                 UploadSession session) {
+        try {
+            return transactionTemplate.execute(status -> {
+                reserveBytes(currentUser, prepared.size);
+                UserFile file = fileRepository.save(createUserFile(currentUser, originalName, storeContent(prepared)));
+                if (session != null) {
+                    session.setFile(file);
+                    sessionRepository.save(session);
+                }
+                return file;
+            });
+        } catch (RuntimeException e) {
+            discardAll(Collections.singletonList(prepared));
+            throw e;
+        }
+    }
+
+    /**
+     * Создает новый файл пользователя
+     *
+     * @param currentUser текущий пользователь
+     * @param originalName оригинальное имя файла
+     * @param content сохраненное содержимое
+     * @return файл пользователя
+     */
+    private UserFile createUserFile(User currentUser, String originalName, FileContent content) {
+        UserFile userFile = new UserFile();
+        userFile.setOriginalName(originalName);
+        userFile.setFileName(content.getHash());
+        userFile.setContentHash(content.getHash());
+        userFile.setContentEncoding(content.getEncoding());
+        userFile.setSize(content.getSize());
+        userFile.setContentType(MediaTypeFactory.getMediaType(originalName)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        userFile.setUser(currentUser);
+        userFile.setDownloadCount(0);
+        userFile.setUploadDate(new Date());
+        return userFile;
+    }
+
+    /**
+     * Резервирует место в квоте пользователя одним условным UPDATE,
+     * поэтому одновременные загрузки не превысят квоту
+     *
+     * @param currentUser текущий пользователь
+     * @param bytes размер добавляемых файлов
+     */
+    private void reserveBytes(User currentUser, long bytes) {
+        if (userRepository.reserveBytes(currentUser.getId(), bytes, defaultQuotaBytes) == 0) {
+            throw new QuotaExceededException("Storage quota exceeded: " + bytes + " more bytes requested!");
+        }
+    }
+
+    /**
+     * Возвращает размер файла в квоту владельца.
+     * У файлов, загруженных до учета размера, размер неизвестен, и они не учитываются
+     *
+     * @param userFile файл
+     */
+    private void releaseBytes(UserFile userFile) {
+        if (userFile.getSize() != null && userFile.getUser() != null) {
+            userRepository.releaseBytes(userFile.getUser().getId(), userFile.getSize());
+        }
+    }
+
+    /**
+     * Записывает содержимое из потока во временный объект хранилища, сжимая его, если это имеет смысл
+     *
+     * @param inputStream содержимое
+     * @return временный объект с хешем и размером исходного содержимого
+     * @throws IOException
+     */
+    private PreparedContent prepareContent(InputStream inputStream) throws IOException {
+        if (!compressionEnabled) {
+            StagedContent staged = fileStore.stage(inputStream);
+            return new PreparedContent(staged, staged.getHash(), staged.getSize(), null);
+        }
+        PushbackInputStream in = new PushbackInputStream(inputStream, Math.max(1, compressionMinSize));
+        byte[] head = new byte[Math.max(1, compressionMinSize)];
+        int length = readHead(in, head);
+        in.unread(head, 0, length);
+        if (isCompressible(head, length)) {
+            return prepareEncodedContent(in);
+        }
+        StagedContent staged = fileStore.stage(in);
+        return new PreparedContent(staged, staged.getHash(), staged.getSize(), null);
+    }
+
+    /**
+     * Записывает содержимое загруженного файла во временный объект хранилища.
+     * Выполняется в пуле uploadExecutor
+     *
+     * @param file файл
+     * @return временный объект с хешем и размером исходного содержимого
+     */
+    private PreparedContent prepareContent(MultipartFile file) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return prepareContent(inputStream);
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+    }
+
+    /**
+     * Дожидается записи всех файлов. Если запись хотя бы одного файла не удалась,
+     * временные объекты остальных файлов удаляются
+     *
+     * @param futures запись файлов
+     * @return временные объекты в порядке файлов
+     */
+    private List<PreparedContent> joinAll(List<CompletableFuture<PreparedContent>> futures) {
+        List<PreparedContent> prepared = new ArrayList<>();
+        RuntimeException failure = null;
+        for (CompletableFuture<PreparedContent> future : futures) {
+            try {
+                prepared.add(future.join());
+            } catch (CompletionException e) {
+                prepared.add(null);
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            discardAll(prepared);
+            throw failure;
+        }
+        return prepared;
+    }
+
+    /**
+     * Удаляет временные объекты, ошибки удаления игнорируются
+     *
+     * @param prepared временные объекты, null пропускаются
+     */
+    private void discardAll(List<PreparedContent> prepared) {
+        for (PreparedContent content : prepared) {
+            if (content != null) {
+                try {
+                    fileStore.discard(content.staged);
+                } catch (IOException e) {
+                    // временный объект будет удален при очистке хранилища
+                }
+            }
+        }
+    }
+
+    /**
+     * Сжимает содержимое по мере записи во временный объект хранилища.
+     * Хеш и размер считаются по исходным байтам, чтобы одинаковые файлы хранились один раз
+     *
+     * @param inputStream исходное содержимое
+     * @return временный объект с хешем и размером исходного содержимого
+     * @throws IOException
+     */
+    private PreparedContent prepareEncodedContent(InputStream inputStream) throws IOException {
+        HashingInputStream hashing = new HashingInputStream(inputStream);
+        StagedContent staged = fileStore.stage(codec.encode(hashing));
+        return new PreparedContent(staged, hashing.getHash(), hashing.getSize(), codec.getEncoding());
+    }
+
+    /**
+     * Добавляет ссылку на содержимое и сохраняет временный объект под именем, равным SHA-256.
+     * Ссылка добавляется до сохранения, поэтому одновременное удаление того же содержимого
+     * дожидается окончания транзакции и не удаляет только что загруженный файл.
+     * Для локального хранилища сохранение - переименование файла, поэтому транзакция остается короткой.
+     * Если такое содержимое уже хранится, временный объект удаляется и увеличивается только счетчик ссылок,
+     * а файл получает сжатие уже хранящегося содержимого. Если ссылку добавить не удалось,
+     * временный объект удаляет вызывающий метод
+     *
+     * @param prepared содержимое во временном объекте хранилища
+     * @return сохраненное содержимое
+     */
+    private FileContent storeContent(PreparedContent prepared) {
+        contentRepository.acquire(prepared.hash, prepared.size, prepared.encoding);
+        try {
+            fileStore.put(prepared.staged, prepared.hash);
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+        return contentRepository.findById(prepared.hash)
+                .orElseGet(() -> new FileContent(prepared.hash, prepared.size, 1, prepared.encoding));
+    }
+
+    /**
+     * Освобождает содержимое файла пользователя.
+     * Содержимое удаляется из хранилища, только когда на него не осталось ссылок.
+     * Отсутствующее в хранилище содержимое считается уже удаленным
+     *
+     * @param userFile файл пользователя
+     */
+    private void releaseContent(UserFile userFile) {
+        if (userFile.getContentHash() != null) {
+            FileContent content = contentRepository.findByHash(userFile.getContentHash());
+            if (content != null && content.getRefCount() > 1) {
+                content.setRefCount(content.getRefCount() - 1);
+                contentRepository.save(content);
+                return;
+            }
+            if (content != null) {
+                contentRepository.delete(content);
+            }
+        }
+        hotFileCache.invalidate(userFile.getFileName());
+        try {
+            fileStore.delete(userFile.getFileName());
+        } catch (IOException e) {
+            throw new NotFoundException("The file was not deleted!", e);
+        }
+    }
+
+    /**
+     * Проверяет, что содержимое достаточно большое и еще не сжато
+     *
+     * @param head первые байты содержимого
+     * @param length количество прочитанных байт
+     * @return true, если содержимое стоит сжимать
+     */
+    private boolean isCompressible(byte[] head, int length) {
+        return length >= compressionMinSize && !CompressedFormats.isCompressed(head, length);
+    }
+
+    /**
+     * Читает начало содержимого до заполнения буфера или конца потока
+     *
+     * @param in поток
+     * @param head буфер
+     * @return количество прочитанных байт
+     * @throws IOException
+     */
+    private int readHead(InputStream in, byte[] head) throws IOException {
+        int length = 0;
+        int read;
+        while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Проверяет, что текущий пользователь может скачать файл:
+     * является владельцем, имеет одобренный доступ на скачивание или состоит в группе владельца с таким доступом
+     *
+     * @param currentUser текущий пользователь
+     * @param userFile файл
+     */
+    private void checkDownloadAccess(User currentUser, UserFile userFile) {
+        checkNotDeleted(userFile);
+        if (isFileOwner(currentUser, userFile.getUser())) {
+            return;
+        }
+        checkDownloadAccess(currentUser, userFile.getUser().getId());
+    }
+
+    /**
+     * Проверяет, что текущий пользователь, не являющийся владельцем, может скачивать файлы владельца.
+     * Флаги доступа берутся из индекса в памяти без создания объектов,
+     * а пока индекс не загружен или если доступ изменился после загрузки - из кэша решений
+     *
+     * @param currentUser текущий пользователь
+     * @param ownerId id владельца файлов
+     */
+    private void checkDownloadAccess(User currentUser, Integer ownerId) {
+        int flags = permissionIndex.get(ownerId, currentUser.getId());
+        if (flags == AccessPermissionIndex.UNKNOWN) {
+            flags = accessCache.get(ownerId, currentUser.getId(),
+                    () -> AccessDecision.orNone(accessRepository.findDecision(ownerId, currentUser.getId())))
+                    .toFlags();
+        }
+        if (!AccessDecision.canDownload(flags)
+                && !AccessDecision.canDownload(groupService.findGroupFlags(ownerId, currentUser.getId()))) {
+            throw new AccessException("You need permission to perform this action!");
+        }
+    }
+
+    /**
+     * Проверяет, что файл не помечен удаленным
+     *
+     * @param userFile файл
+     */
+    private void checkNotDeleted(UserFile userFile) {
+        if (userFile.getDeletedDate() != null) {
+            throw new NotFoundException("There is no file with id " + userFile.getId());
+        }
     }
 
     /**
@@ -170,4 +790,88 @@ public class FileServiceImpl implements FileService {
     private boolean isFileOwner(User currentUser, User fileOwner) {
         return currentUser.getId().equals(fileOwner.getId());
     }
+
+    /**
+     * Обход файлов владельца для архива: очередная порция файлов запрашивается, когда закончилась предыдущая
+     */
+    private class ArchiveFiles implements Iterator<UserFileResource> {
+
+        private final Integer ownerId;
+
+        /**
+         * Выбранные id по возрастанию, null - все файлы владельца
+         */
+        private final int[] ids;
+
+        private int position;
+        private int afterId;
+        private boolean last;
+        private Iterator<UserFile> batch = Collections.emptyIterator();
+
+        ArchiveFiles(Integer ownerId, int[] ids) {
+            this.ownerId = ownerId;
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext() && !last) {
+                batch = nextBatch().iterator();
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public UserFileResource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            UserFile userFile = batch.next();
+            Resource content;
+            try {
+                content = fileStore.get(userFile.getFileName());
+            } catch (IOException e) {
+                throw new NotFoundException("Could not read file: " + userFile.getFileName(), e);
+            }
+            if (content == null) {
+                throw new NotFoundException("Could not read file: " + userFile.getFileName());
+            }
+            return new UserFileResource(content, userFile, codec);
+        }
+
+        private List<UserFile> nextBatch() {
+            if (ids == null) {
+                List<UserFile> files = fileRepository.findByOwnerIdAfter(ownerId, afterId,
+                        PageRequest.of(0, ARCHIVE_BATCH_SIZE));
+                last = files.size() < ARCHIVE_BATCH_SIZE;
+                if (!files.isEmpty()) {
+                    afterId = files.get(files.size() - 1).getId();
+                }
+                return files;
+            }
+            int end = Math.min(position + ARCHIVE_BATCH_SIZE, ids.length);
+            List<Integer> batchIds = Arrays.stream(ids, position, end).boxed().collect(Collectors.toList());
+            position = end;
+            last = position >= ids.length;
+            return batchIds.isEmpty() ? Collections.emptyList() : fileRepository.findByOwnerIdAndIds(ownerId, batchIds);
+        }
+    }
+
+    /**
+     * Содержимое, записанное во временный объект хранилища, но еще не сохраненное
+     */
+    private static class PreparedContent {
+
+        private final StagedContent staged;
+        private final String hash;
+        private final long size;
+        private final String encoding;
+
+        PreparedContent(StagedContent staged, String hash, long size, String encoding) {
+            this.staged = staged;
+            this.hash = hash;
+            this.size = size;
+            this.encoding = encoding;
+        }
+    }
 }
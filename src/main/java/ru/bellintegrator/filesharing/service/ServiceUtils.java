@@ -0,0 +1,72 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.model.User;
+
+/**
+ * Вспомогательные методы сервисов
+ */
+class ServiceUtils {
+
+    private ServiceUtils() {
+    }
+
+    /**
+     * Выполняет действие после фиксации транзакции или сразу, если транзакции нет
+     *
+     * @param action действие
+     */
+    static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Преобразует значение логического столбца: драйвер возвращает Boolean или число
+     *
+     * @param value значение
+     * @return true, если значение истинно
+     */
+    static boolean toBoolean(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return Boolean.TRUE.equals(value);
+    }
+
+    /**
+     * Проверяет пользователя на пустоту
+     *
+     * @param user пользователь
+     * @param message сообщение об ошибке
+     */
+    static void checkUser(User user, String message) {
+        if (user == null) {
+            throw new NotFoundException(message);
+        }
+    }
+
+    /**
+     * Меняет тип id со String на Integer
+     *
+     * @param id id
+     * @param message сообщение об ошибке, если id не число
+     * @return Integer
+     */
+    static Integer transformStringIdToInteger(String id, String message) {
+        if (id == null || !id.matches("[\\d]+")) {
+            throw new NotFoundException(message);
+        }
+        return Integer.valueOf(id);
+    }
+}
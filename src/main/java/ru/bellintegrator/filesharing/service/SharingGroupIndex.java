@@ -0,0 +1,272 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Копия групп пользователей в памяти: доступ, предоставленный группой (флаги READ_ACCESS и DOWNLOAD_ACCESS,
+ * см. AccessDecision), и отсортированный массив id участников. Проверка участника - двоичный поиск в каждой группе
+ * владельца, память пропорциональна числу участников.
+ * Индекс не повторяет изменения групп: измененная пара (владелец, участник) или все группы владельца помечаются
+ * устаревшими, и поиск по ним возвращает {@link #UNKNOWN}, пока индекс не будет загружен заново. Поэтому порядок,
+ * в котором завершаются транзакции, не влияет на результат. До окончания первой загрузки поиск тоже возвращает
+ * {@link #UNKNOWN}
+ */
+@Component
+@ManagedResource(objectName = "ru.bellintegrator.filesharing:type=SharingGroupIndex")
+public class SharingGroupIndex {
+
+    /**
+     * Результат поиска до окончания загрузки или по измененным после загрузки группам
+     */
+    public static final int UNKNOWN = -1;
+
+    private final StampedLock lock = new StampedLock();
+    private Groups groups = new Groups();
+    private volatile boolean loaded;
+
+    /**
+     * Владельцы и пары (владелец, участник), измененные после загрузки текущей копии
+     */
+    private Set<Integer> staleUsers = new HashSet<>();
+    private Set<Long> stalePairs = new HashSet<>();
+
+    /**
+     * Загружаемая копия и изменения, сделанные во время загрузки
+     */
+    private Groups loading;
+    private Set<Integer> loadingStaleUsers = new HashSet<>();
+    private Set<Long> loadingStalePairs = new HashSet<>();
+
+    /**
+     * Находит доступ, который дают пользователю группы владельца файлов
+     *
+     * @param userId id владельца файлов
+     * @param memberId id пользователя
+     * @return флаги, 0 - группы доступа не дают, {@link #UNKNOWN} - индекс еще не загружен или группы изменились
+     */
+    public int get(int userId, int memberId) {
+        if (!loaded) {
+            return UNKNOWN;
+        }
+        long stamp = lock.readLock();
+        try {
+            if (!staleUsers.isEmpty() && staleUsers.contains(userId)
+                    || !stalePairs.isEmpty() && stalePairs.contains(key(userId, memberId))) {
+                return UNKNOWN;
+            }
+            return groups.flags(userId, memberId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Помечает устаревшими все группы владельца после изменения доступа группы или ее удаления
+     *
+     * @param userId id владельца групп
+     */
+    public void markUserStale(int userId) {
+        long stamp = lock.writeLock();
+        try {
+            staleUsers.add(userId);
+            if (loading != null) {
+                loadingStaleUsers.add(userId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Помечает устаревшим доступ участника после его добавления в группу или удаления из нее
+     *
+     * @param userId id владельца группы
+     * @param memberId id участника
+     */
+    public void markStale(int userId, int memberId) {
+        long key = key(userId, memberId);
+        long stamp = lock.writeLock();
+        try {
+            stalePairs.add(key);
+            if (loading != null) {
+                loadingStalePairs.add(key);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Начинает загрузку в новую копию. Текущая копия продолжает отвечать на поиск до {@link #finishLoading()}
+     */
+    public void startLoading() {
+        long stamp = lock.writeLock();
+        try {
+            loading = new Groups();
+            loadingStaleUsers = new HashSet<>();
+            loadingStalePairs = new HashSet<>();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Добавляет группу при загрузке.
+     * Вызывается только загружающим потоком между {@link #startLoading()} и {@link #finishLoading()}
+     *
+     * @param groupId id группы
+     * @param userId id владельца группы
+     * @param flags флаги доступа
+     */
+    public void loadGroup(int groupId, int userId, int flags) {
+        loading.putGroup(groupId, userId, flags);
+    }
+
+    /**
+     * Добавляет участника при загрузке.
+     * Вызывается только загружающим потоком между {@link #startLoading()} и {@link #finishLoading()}
+     *
+     * @param groupId id группы
+     * @param memberId id участника
+     */
+    public void loadMember(int groupId, int memberId) {
+        loading.addMember(groupId, memberId);
+    }
+
+    /**
+     * Заменяет текущую копию загруженной. Отметки об изменениях до начала загрузки снимаются,
+     * изменения во время загрузки остаются отмеченными: их могли прочитать до изменения
+     */
+    public void finishLoading() {
+        Groups loaded = loading;
+        loaded.sortMembers();
+        long stamp = lock.writeLock();
+        try {
+            groups = loaded;
+            staleUsers = loadingStaleUsers;
+            stalePairs = loadingStalePairs;
+            loadingStaleUsers = new HashSet<>();
+            loadingStalePairs = new HashSet<>();
+            loading = null;
+            this.loaded = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @ManagedAttribute(description = "Whether the index has been loaded from the database")
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @ManagedAttribute(description = "Number of sharing groups in the index")
+    public int getGroupCount() {
+        long stamp = lock.readLock();
+        try {
+            return groups.byId.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of owners and (owner, member) pairs changed since the index was loaded")
+    public int getStaleCount() {
+        long stamp = lock.readLock();
+        try {
+            return staleUsers.size() + stalePairs.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Упаковывает пару id в ключ
+     *
+     * @param userId id владельца группы
+     * @param memberId id участника
+     * @return ключ
+     */
+    private static long key(int userId, int memberId) {
+        return ((long) userId << 32) | (memberId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Группа: флаги доступа и id участников, после загрузки отсортированные
+     */
+    private static class Group {
+
+        private static final int[] EMPTY = new int[0];
+
+        private final int flags;
+        private int[] members = EMPTY;
+        private int size;
+
+        Group(int flags) {
+            this.flags = flags;
+        }
+
+        boolean contains(int memberId) {
+            return Arrays.binarySearch(members, 0, size, memberId) >= 0;
+        }
+    }
+
+    /**
+     * Группы по id и по владельцу. После загрузки не изменяются
+     */
+    private static class Groups {
+
+        private static final Group[] NONE = new Group[0];
+
+        private final Map<Integer, Group> byId = new HashMap<>();
+        private final Map<Integer, Group[]> byUser = new HashMap<>();
+
+        int flags(int userId, int memberId) {
+            int flags = 0;
+            for (Group group : byUser.getOrDefault(userId, NONE)) {
+                if (group.flags != 0 && group.contains(memberId)) {
+                    flags |= group.flags;
+                }
+            }
+            return flags;
+        }
+
+        void putGroup(int groupId, int userId, int flags) {
+            Group group = new Group(flags);
+            byId.put(groupId, group);
+            Group[] owned = byUser.getOrDefault(userId, NONE);
+            Group[] extended = Arrays.copyOf(owned, owned.length + 1);
+            extended[owned.length] = group;
+            byUser.put(userId, extended);
+        }
+
+        /**
+         * Участник группы, созданной после чтения групп, пропускается: такое изменение отмечено устаревшим
+         */
+        void addMember(int groupId, int memberId) {
+            Group group = byId.get(groupId);
+            if (group == null) {
+                return;
+            }
+            if (group.size == group.members.length) {
+                group.members = Arrays.copyOf(group.members, Math.max(4, group.size * 2));
+            }
+            group.members[group.size++] = memberId;
+        }
+
+        void sortMembers() {
+            for (Group group : byId.values()) {
+                group.members = Arrays.copyOf(group.members, group.size);
+                Arrays.sort(group.members);
+            }
+        }
+    }
+}
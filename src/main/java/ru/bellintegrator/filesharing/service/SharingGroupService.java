@@ -0,0 +1,104 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.data.domain.Page;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+
+import java.util.List;
+
+/**
+ * Сервис групп пользователей, которым владелец файлов предоставляет доступ
+ */
+public interface SharingGroupService {
+
+    /**
+     * Находит группы владельца
+     *
+     * @param currentUser текущий пользователь
+     * @return список групп
+     */
+    List<SharingGroup> findGroups(User currentUser);
+
+    /**
+     * Находит группу владельца
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @return группа
+     */
+    SharingGroup findGroup(User currentUser, String groupId);
+
+    /**
+     * Создает группу без участников и без доступа
+     *
+     * @param currentUser текущий пользователь
+     * @param name название группы
+     * @return группа
+     */
+    SharingGroup createGroup(User currentUser, String name);
+
+    /**
+     * Удаляет группу вместе с участниками
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     */
+    void deleteGroup(User currentUser, String groupId);
+
+    /**
+     * Изменяет доступ, предоставленный участникам группы
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param readAccess доступ на чтение
+     * @param downloadAccess доступ на скачивание
+     */
+    void updateGroupAccess(User currentUser, String groupId, boolean readAccess, boolean downloadAccess);
+
+    /**
+     * Добавляет участника в группу
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param username имя пользователя
+     */
+    void addMember(User currentUser, String groupId, String username);
+
+    /**
+     * Удаляет участника из группы
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param memberId id участника
+     */
+    void removeMember(User currentUser, String groupId, String memberId);
+
+    /**
+     * Находит страницу участников группы
+     *
+     * @param currentUser текущий пользователь
+     * @param groupId id группы
+     * @param page номер страницы, начиная с 0
+     * @return страница участников
+     */
+    Page<GroupMember> findMembers(User currentUser, String groupId, int page);
+
+    /**
+     * Находит доступ, который дают пользователю группы владельца файлов.
+     * Стоимость не зависит от размера групп
+     *
+     * @param userId id владельца файлов
+     * @param memberId id пользователя
+     * @return флаги READ_ACCESS и DOWNLOAD_ACCESS, 0 - группы доступа не дают
+     */
+    int findGroupFlags(Integer userId, Integer memberId);
+
+    /**
+     * Загружает группы и их участников в индекс в памяти при запуске приложения и затем периодически,
+     * снимая отметки об изменениях групп после прошлой загрузки
+     *
+     * @return количество загруженных участников
+     */
+    int loadGroups();
+}
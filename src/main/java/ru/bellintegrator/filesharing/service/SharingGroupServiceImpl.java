@@ -0,0 +1,266 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+import ru.bellintegrator.filesharing.exception.AlreadyExistException;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.GroupMemberId;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.repository.GroupMemberRepository;
+import ru.bellintegrator.filesharing.repository.SharingGroupRepository;
+import ru.bellintegrator.filesharing.repository.UserRepository;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@inheritDoc}
+ */
+@Service
+public class SharingGroupServiceImpl implements SharingGroupService {
+
+    /**
+     * Наибольшая длина названия группы
+     */
+    private static final int MAX_NAME_LENGTH = 100;
+
+    /**
+     * Количество участников на странице группы
+     */
+    @Value("${groups.page-size:50}")
+    private int pageSize;
+
+    private final SharingGroupRepository groupRepository;
+    private final GroupMemberRepository memberRepository;
+    private final UserRepository userRepository;
+    private final SharingGroupIndex groupIndex;
+
+    @Autowired
+    public SharingGroupServiceImpl(SharingGroupRepository groupRepository, GroupMemberRepository memberRepository,
+                                   UserRepository userRepository, SharingGroupIndex groupIndex) {
+        this.groupRepository = groupRepository;
+        this.memberRepository = memberRepository;
+        this.userRepository = userRepository;
+        this.groupIndex = groupIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public List<SharingGroup> findGroups(User currentUser) {
+        checkUser(currentUser);
+        return groupRepository.findByUserOrderByName(currentUser);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public SharingGroup findGroup(User currentUser, String groupId) {
+        checkUser(currentUser);
+        Integer id = transformStringIdToInteger(groupId);
+        SharingGroup group = groupRepository.findById(id).orElse(null);
+        if (group == null || !currentUser.getId().equals(group.getUser().getId())) {
+            throw new NotFoundException("There is no group with id " + id);
+        }
+        return group;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public SharingGroup createGroup(User currentUser, String name) {
+        checkUser(currentUser);
+        if (StringUtils.isEmpty(name) || name.trim().isEmpty()) {
+            throw new NotFoundException("Enter group name!");
+        }
+        String groupName = name.trim();
+        if (groupName.length() > MAX_NAME_LENGTH) {
+            throw new NotFoundException("Group name is too long!");
+        }
+        if (groupRepository.existsByUserAndName(currentUser, groupName)) {
+            throw new AlreadyExistException("You already have a group with this name!");
+        }
+        return groupRepository.save(new SharingGroup(userRepository.getOne(currentUser.getId()), groupName));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Участники удаляются одним запросом
+     */
+    @Transactional
+    @Override
+    public void deleteGroup(User currentUser, String groupId) {
+        SharingGroup group = findGroup(currentUser, groupId);
+        memberRepository.deleteByGroupId(group.getId());
+        groupRepository.delete(group);
+        Integer userId = currentUser.getId();
+        ServiceUtils.afterCommit(() -> groupIndex.markUserStale(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Меняется одна строка группы, сколько бы участников в ней ни было
+     */
+    @Transactional
+    @Override
+    public void updateGroupAccess(User currentUser, String groupId, boolean readAccess, boolean downloadAccess) {
+        SharingGroup group = findGroup(currentUser, groupId);
+        group.setReadAccess(readAccess);
+        group.setDownloadAccess(downloadAccess);
+        groupRepository.save(group);
+        Integer userId = currentUser.getId();
+        ServiceUtils.afterCommit(() -> groupIndex.markUserStale(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public void addMember(User currentUser, String groupId, String username) {
+        SharingGroup group = findGroup(currentUser, groupId);
+        User member = StringUtils.isEmpty(username) ? null : userRepository.findByUsername(username.trim());
+        if (member == null) {
+            throw new NotFoundException("No user with name " + username);
+        }
+        if (memberRepository.existsById(new GroupMemberId(group.getId(), member.getId()))) {
+            throw new AlreadyExistException("The user is already in the group!");
+        }
+        memberRepository.save(new GroupMember(group, member));
+        Integer userId = currentUser.getId();
+        Integer memberId = member.getId();
+        ServiceUtils.afterCommit(() -> groupIndex.markStale(userId, memberId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public void removeMember(User currentUser, String groupId, String memberId) {
+        SharingGroup group = findGroup(currentUser, groupId);
+        GroupMemberId id = new GroupMemberId(group.getId(), transformStringIdToInteger(memberId));
+        if (!memberRepository.existsById(id)) {
+            throw new NotFoundException("The user is not in the group");
+        }
+        memberRepository.deleteById(id);
+        Integer userId = currentUser.getId();
+        ServiceUtils.afterCommit(() -> groupIndex.markStale(userId, id.getUserId()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public Page<GroupMember> findMembers(User currentUser, String groupId, int page) {
+        SharingGroup group = findGroup(currentUser, groupId);
+        PageRequest pageRequest = PageRequest.of(Math.max(page, 0), pageSize, Sort.by("id.userId"));
+        return memberRepository.findPageByGroupId(group.getId(), pageRequest);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Флаги берутся из индекса в памяти, а пока он не загружен или если группы владельца изменились
+     * после загрузки - запросом по индексу участников.
+     * Транзакция не открывается, чтобы чтение из памяти не занимало соединение с базой данных
+     */
+    @Override
+    public int findGroupFlags(Integer userId, Integer memberId) {
+        int flags = groupIndex.get(userId, memberId);
+        if (flags != SharingGroupIndex.UNKNOWN) {
+            return flags;
+        }
+        int granted = 0;
+        for (SharingGroup group : groupRepository.findGrantingGroups(userId, memberId)) {
+            granted |= toFlags(group.getReadAccess(), group.getDownloadAccess());
+        }
+        return granted;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Таблицы читаются потоком без создания сущностей в новую копию индекса, старая копия отвечает на поиск
+     * до конца загрузки. Группы, измененные во время загрузки, остаются отмеченными до следующей загрузки
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${groups.index.reload-interval:600000}",
+            fixedDelayString = "${groups.index.reload-interval:600000}")
+    @Transactional(readOnly = true)
+    @Override
+    public synchronized int loadGroups() {
+        groupIndex.startLoading();
+        try (Stream<Object[]> rows = groupRepository.streamAllGroups()) {
+            Iterator<Object[]> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Object[] row = iterator.next();
+                groupIndex.loadGroup(((Number) row[0]).intValue(), ((Number) row[1]).intValue(),
+                        toFlags(ServiceUtils.toBoolean(row[2]), ServiceUtils.toBoolean(row[3])));
+            }
+        }
+        int count = 0;
+        try (Stream<Object[]> rows = memberRepository.streamAllMembers()) {
+            Iterator<Object[]> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Object[] row = iterator.next();
+                groupIndex.loadMember(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+                count++;
+            }
+        }
+        groupIndex.finishLoading();
+        return count;
+    }
+
+    /**
+     * Преобразует доступ группы во флаги
+     *
+     * @param readAccess доступ на чтение
+     * @param downloadAccess доступ на скачивание
+     * @return флаги READ_ACCESS и DOWNLOAD_ACCESS
+     */
+    private static int toFlags(boolean readAccess, boolean downloadAccess) {
+        return (readAccess ? AccessDecision.READ_ACCESS : 0) | (downloadAccess ? AccessDecision.DOWNLOAD_ACCESS : 0);
+    }
+
+    /**
+     * Проверяет пользователя на пустоту
+     *
+     * @param user пользователь
+     */
+    private static void checkUser(User user) {
+        ServiceUtils.checkUser(user, "No user");
+    }
+
+    /**
+     * Меняет тип id со String на Integer
+     *
+     * @param id id
+     * @return Integer
+     */
+    private static Integer transformStringIdToInteger(String id) {
+        return ServiceUtils.transformStringIdToInteger(id, "The id must not be null or character!");
+    }
+}
@@ -0,0 +1,16 @@
+package ru.bellintegrator.filesharing.service;
+
+/**
+ * Сервис переноса файлов из плоского каталога загрузок в иерархическое размещение
+ */
+public interface StorageMigrationService {
+
+    /**
+     * Переносит очередную порцию файлов из корня каталога загрузок.
+     * Файлы остаются доступными во время переноса
+     *
+     * @return количество перенесенных файлов
+     */
+    int migrateFiles();
+
+}
@@ -0,0 +1,106 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.bellintegrator.filesharing.storage.FileLayout;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@inheritDoc}
+ */
+@Service
+@ConditionalOnExpression("'${upload.store:local}' != 'memory'")
+public class StorageMigrationServiceImpl implements StorageMigrationService {
+
+    private final Logger log = LoggerFactory.getLogger(StorageMigrationServiceImpl.class);
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    /**
+     * Максимальное количество файлов, переносимых за один запуск
+     */
+    @Value("${upload.migration.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * {@inheritDoc}
+     *
+     * Файлы перемещаются атомарным переименованием в пределах каталога загрузок.
+     * Служебные файлы и каталоги, имена которых начинаются с точки, не переносятся.
+     * Файл, который не удалось перенести, пропускается и записывается в лог, перенос остальных продолжается
+     */
+    @Scheduled(fixedDelayString = "${upload.migration.interval:60000}")
+    @Override
+    public int migrateFiles() {
+        Path rootLocation = Paths.get(uploadPath);
+        if (!Files.isDirectory(rootLocation)) {
+            return 0;
+        }
+        int migrated = 0;
+        int failed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(rootLocation, this::isFlatFile)) {
+            for (Path file : files) {
+                if (migrated >= batchSize) {
+                    break;
+                }
+                try {
+                    if (moveFile(rootLocation, file)) {
+                        migrated++;
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    log.warn("Could not move {} to the sharded layout: {}", file.getFileName(), e.toString());
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // перенос продолжится при следующем запуске
+            log.warn("Could not list {}: {}", rootLocation, e.toString());
+        }
+        if (failed > 0) {
+            log.warn("Moved {} files to the sharded layout, {} files failed", migrated, failed);
+        }
+        return migrated;
+    }
+
+    /**
+     * Проверяет, что файл лежит в плоском размещении и подлежит переносу
+     *
+     * @param file путь
+     * @return true - если файл нужно перенести
+     */
+    private boolean isFlatFile(Path file) {
+        return Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".");
+    }
+
+    /**
+     * Перемещает файл в иерархическое размещение
+     *
+     * @param rootLocation каталог загрузок
+     * @param file файл
+     * @return true - если файл перенесен, false - если он был удален во время переноса
+     * @throws IOException
+     */
+    private boolean moveFile(Path rootLocation, Path file) throws IOException {
+        Path target = FileLayout.getShardedPath(rootLocation, file.getFileName().toString());
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
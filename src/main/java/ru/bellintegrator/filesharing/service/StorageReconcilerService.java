@@ -0,0 +1,17 @@
+package ru.bellintegrator.filesharing.service;
+
+/**
+ * Сервис сверки таблицы файлов с содержимым в хранилище
+ */
+public interface StorageReconcilerService {
+
+    /**
+     * Сверяет очередную порцию файлов и содержимого хранилища в обе стороны:
+     * файлы, содержимого которых нет в хранилище, и содержимое, на которое не ссылается ни один файл.
+     * Каждый запуск продолжает обход с места предыдущего
+     *
+     * @return количество найденных расхождений
+     */
+    int reconcile();
+
+}
@@ -0,0 +1,230 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.bellintegrator.filesharing.model.FileContent;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.repository.FileContentRepository;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+import ru.bellintegrator.filesharing.storage.FileStat;
+import ru.bellintegrator.filesharing.storage.FileStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@inheritDoc}
+ *
+ * Таблица файлов просматривается по возрастанию id, хранилище - в порядке его обхода, оба прохода порциями.
+ * Обращения к хранилищу ограничены по частоте, чтобы сверка не замедляла скачивание файлов.
+ * Расхождения записываются в журнал, а при включенном исправлении файлы без содержимого помечаются удаленными,
+ * а содержимое без ссылок старше grace-period удаляется из хранилища
+ */
+@Service
+public class StorageReconcilerServiceImpl implements StorageReconcilerService {
+
+    private final Logger log = LoggerFactory.getLogger(StorageReconcilerServiceImpl.class);
+
+    /**
+     * Максимальное количество файлов и объектов хранилища, сверяемых за один запуск
+     */
+    @Value("${upload.reconcile.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * Максимальное количество обращений к хранилищу в секунду
+     */
+    @Value("${upload.reconcile.rate:50}")
+    private int rate;
+
+    /**
+     * Время в мс, в течение которого содержимое без ссылок считается загружаемым и не удаляется
+     */
+    @Value("${upload.reconcile.grace-period:3600000}")
+    private long gracePeriod;
+
+    /**
+     * Исправлять расхождения, а не только сообщать о них
+     */
+    @Value("${upload.reconcile.repair:false}")
+    private boolean repair;
+
+    private final UserFileRepository fileRepository;
+    private final FileContentRepository contentRepository;
+    private final FileService fileService;
+    private final FileStore fileStore;
+
+    /**
+     * id последнего сверенного файла
+     */
+    private int lastFileId;
+
+    /**
+     * Имя последнего сверенного содержимого хранилища
+     */
+    private String lastName;
+
+    /**
+     * Время в нс, раньше которого нельзя обращаться к хранилищу
+     */
+    private long nextAccessTime;
+
+    @Autowired
+    public StorageReconcilerServiceImpl(UserFileRepository fileRepository,
+                                        FileContentRepository contentRepository,
+                                        FileService fileService,
+                                        FileStore fileStore) {
+        this.fileRepository = fileRepository;
+        this.contentRepository = contentRepository;
+        this.fileService = fileService;
+        this.fileStore = fileStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Scheduled(fixedDelayString = "${upload.reconcile.interval:60000}")
+    @Override
+    public synchronized int reconcile() {
+        try {
+            return reconcileFiles() + reconcileContent();
+        } catch (IOException e) {
+            // сверка продолжится при следующем запуске
+            log.warn("Reconciliation was interrupted by a store error: {}", e.toString());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * Проверяет, что содержимое очередной порции файлов есть в хранилище.
+     * Позиция обхода сдвигается после проверки каждого файла, поэтому после ошибки хранилища
+     * следующий запуск продолжает с непроверенного файла
+     *
+     * @return количество файлов без содержимого
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private int reconcileFiles() throws IOException, InterruptedException {
+        List<UserFile> files = fileRepository.findPageAfter(lastFileId, batchSize);
+        int missing = 0;
+        for (UserFile file : files) {
+            if (isMissing(file.getFileName())) {
+                missing++;
+                log.warn("Content {} of the file {} is missing in the store", file.getFileName(), file.getId());
+                if (repair) {
+                    fileService.deleteMissingFile(file.getId());
+                }
+            }
+            lastFileId = file.getId();
+        }
+        if (files.size() < batchSize) {
+            lastFileId = 0;
+        }
+        return missing;
+    }
+
+    /**
+     * Проверяет, что на очередную порцию содержимого хранилища ссылаются файлы.
+     * Позиция обхода сдвигается после проверки всей порции
+     *
+     * @return количество объектов хранилища без ссылок
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private int reconcileContent() throws IOException, InterruptedException {
+        throttle(batchSize);
+        List<FileStat> stats = fileStore.list(lastName, batchSize);
+        String nextName = stats.size() < batchSize ? null : stats.get(stats.size() - 1).getName();
+
+        long deadline = System.currentTimeMillis() - gracePeriod;
+        List<String> names = new ArrayList<>();
+        for (FileStat stat : stats) {
+            if (stat.getLastModified() <= deadline) {
+                names.add(stat.getName());
+            }
+        }
+        if (names.isEmpty()) {
+            lastName = nextName;
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>(fileRepository.findReferencedNames(names));
+        for (FileContent content : contentRepository.findAllById(names)) {
+            referenced.add(content.getHash());
+        }
+        int orphans = 0;
+        for (String name : names) {
+            if (!referenced.contains(name)) {
+                orphans++;
+                log.warn("Content {} is not referenced by any file", name);
+                if (repair) {
+                    throttle(1);
+                    deleteOrphanContent(name);
+                }
+            }
+        }
+        lastName = nextName;
+        return orphans;
+    }
+
+    /**
+     * Удаляет содержимое без ссылок. Содержимое, которое не удалось удалить, удаляется при следующем проходе
+     *
+     * @param name имя содержимого
+     */
+    private void deleteOrphanContent(String name) {
+        try {
+            fileService.deleteOrphanContent(name);
+        } catch (RuntimeException e) {
+            log.warn("Content {} was not deleted: {}", name, e.toString());
+        }
+    }
+
+    /**
+     * Проверяет отсутствие содержимого в хранилище.
+     * Перед тем как сообщить об отсутствии, проверка повторяется,
+     * так как содержимое могло переноситься между размещениями во время первой проверки
+     *
+     * @param name имя содержимого
+     * @return true, если содержимого нет
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private boolean isMissing(String name) throws IOException, InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            throttle(1);
+            if (fileStore.stat(name) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ждет, пока обращения к хранилищу не превысят заданную частоту
+     *
+     * @param permits количество обращений
+     * @throws InterruptedException
+     */
+    private void throttle(int permits) throws InterruptedException {
+        if (rate <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = nextAccessTime - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        nextAccessTime = Math.max(now, nextAccessTime) + TimeUnit.SECONDS.toNanos(permits) / rate;
+    }
+}
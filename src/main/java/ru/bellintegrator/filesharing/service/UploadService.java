@@ -0,0 +1,61 @@
+package ru.bellintegrator.filesharing.service;
+
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.UploadSession;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.model.UserFile;
+
+import java.io.InputStream;
+
+/**
+ * Сервис докачиваемой загрузки файлов по частям
+ */
+public interface UploadService {
+
+    /**
+     * Создает сессию загрузки
+     *
+     * @param currentUser текущий пользователь
+     * @param fileName оригинальное имя файла
+     * @return сессия загрузки
+     */
+    UploadSession createSession(User currentUser, String fileName);
+
+    /**
+     * Возвращает количество уже принятых байт
+     *
+     * @param currentUser текущий пользователь
+     * @param sessionId id сессии
+     * @return смещение, с которого нужно продолжить загрузку
+     */
+    long getOffset(User currentUser, String sessionId);
+
+    /**
+     * Дописывает часть файла
+     *
+     * @param currentUser текущий пользователь
+     * @param sessionId id сессии
+     * @param offset смещение части, должно совпадать с количеством принятых байт
+     * @param length размер части из заголовка Content-Length, -1 - неизвестен
+     * @param body содержимое части
+     * @return новое смещение
+     * @throws QuotaExceededException если уже принятые байты вместе с частью не помещаются в квоту
+     */
+    long writeChunk(User currentUser, String sessionId, long offset, long length, InputStream body);
+
+    /**
+     * Завершает загрузку и добавляет файл в систему.
+     * Повторный вызов возвращает уже созданный файл
+     *
+     * @param currentUser текущий пользователь
+     * @param sessionId id сессии
+     * @return файл
+     */
+    UserFile completeUpload(User currentUser, String sessionId);
+
+    /**
+     * Удаляет сессии и незавершенные загрузки, в которые не писали дольше срока хранения
+     */
+    void removeExpiredSessions();
+
+}
@@ -0,0 +1,347 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import ru.bellintegrator.filesharing.exception.AccessException;
+import ru.bellintegrator.filesharing.exception.ConflictException;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.UploadSession;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.repository.UploadSessionRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@inheritDoc}
+ */
+@Service
+public class UploadServiceImpl implements UploadService {
+
+    /**
+     * Каталог незавершенных загрузок внутри каталога загрузок
+     */
+    private static final String STAGING_DIR = ".staging";
+
+    /**
+     * Максимальное количество байт, переносимых из запроса за один вызов transferFrom
+     */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${upload.session.ttl-hours:24}")
+    private long sessionTtlHours;
+
+    private final UploadSessionRepository sessionRepository;
+    private final FileService fileService;
+
+    @Autowired
+    public UploadServiceImpl(UploadSessionRepository sessionRepository, FileService fileService) {
+        this.sessionRepository = sessionRepository;
+        this.fileService = fileService;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional
+    @Override
+    public UploadSession createSession(User currentUser, String fileName) {
+        checkUser(currentUser);
+        if (StringUtils.isEmpty(fileName)) {
+            throw new NotFoundException("Select file!");
+        }
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), fileName, new Date(), currentUser);
+        try {
+            Files.createDirectories(Paths.get(uploadPath, STAGING_DIR));
+            Files.createFile(getStagingFile(session.getId()));
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+        return sessionRepository.save(session);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public long getOffset(User currentUser, String sessionId) {
+        UploadSession session = findSession(currentUser, sessionId);
+        try {
+            return Files.size(getStagingFile(session.getId()));
+        } catch (IOException e) {
+            throw new NotFoundException("There is no upload session " + sessionId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Часть пишется напрямую в файл в каталоге загрузок, не накапливаясь в памяти.
+     * Если соединение оборвется, уже записанные байты сохранятся, и загрузку можно продолжить с нового смещения.
+     * Квота проверяется до записи по уже принятым байтам вместе с размером части, а часть неизвестного
+     * размера - после записи, и не поместившаяся в квоту часть отрезается.
+     * Транзакция не открывается, чтобы соединение с базой данных не было занято на время передачи части
+     */
+    @Override
+    public long writeChunk(User currentUser, String sessionId, long offset, long length, InputStream body) {
+        UploadSession session = findSession(currentUser, sessionId);
+        Path stagingFile = getStagingFile(session.getId());
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                throw new ConflictException("The upload is being written by another request");
+            }
+            try {
+                if (!Files.exists(stagingFile)) {
+                    throw new NotFoundException("There is no upload session " + sessionId);
+                }
+                long position = channel.size();
+                if (offset != position) {
+                    throw new ConflictException("The upload offset must be " + position);
+                }
+                fileService.checkQuota(currentUser, position + Math.max(length, 0));
+                ReadableByteChannel in = Channels.newChannel(body);
+                long transferred;
+                while ((transferred = channel.transferFrom(in, position, TRANSFER_SIZE)) > 0) {
+                    position += transferred;
+                }
+                if (length < 0) {
+                    try {
+                        fileService.checkQuota(currentUser, position);
+                    } catch (QuotaExceededException e) {
+                        channel.truncate(offset);
+                        throw e;
+                    }
+                }
+                return position;
+            } finally {
+                lock.release();
+            }
+        } catch (NoSuchFileException e) {
+            throw new NotFoundException("There is no upload session " + sessionId, e);
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Файл загрузки блокируется на время сохранения, поэтому сохранение не пересекается с записью части
+     * и повторным завершением той же загрузки. Содержимое читается через заблокированный канал, так как
+     * в Windows заблокированный файл нельзя прочитать другим дескриптором, а удаляется файл загрузки
+     * только после закрытия канала. Блокировка строки сессии не нужна, поэтому хеш содержимого
+     * считается без транзакции, а файл сохраняется и связывается с сессией в одной короткой транзакции
+     */
+    @Override
+    public UserFile completeUpload(User currentUser, String sessionId) {
+        checkUser(currentUser);
+        checkSessionId(sessionId);
+        UploadSession session = sessionRepository.findById(sessionId).orElse(null);
+        checkSession(currentUser, session, sessionId);
+        if (session.getFile() != null) {
+            return session.getFile();
+        }
+        Path stagingFile = getStagingFile(session.getId());
+        UserFile file;
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                throw new ConflictException("The upload is being written by another request");
+            }
+            try {
+                file = findCompletedFile(sessionId);
+                if (file == null) {
+                    fileService.checkQuota(currentUser, channel.size());
+                    file = fileService.uploadStagedFile(currentUser, session,
+                            StreamUtils.nonClosing(Channels.newInputStream(channel)));
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (NoSuchFileException e) {
+            UserFile completed = findCompletedFile(sessionId);
+            if (completed != null) {
+                return completed;
+            }
+            throw new ConflictException("The upload is being completed by another request");
+        } catch (IOException e) {
+            throw new NotFoundException("The file or path was not found!", e);
+        }
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+            // файл будет удален вместе с просроченной сессией
+        }
+        return file;
+    }
+
+    /**
+     * Находит файл, которым другой запрос уже завершил загрузку
+     *
+     * @param sessionId id сессии
+     * @return файл или null, если загрузка не завершена
+     */
+    private UserFile findCompletedFile(String sessionId) {
+        UploadSession completed = sessionRepository.findById(sessionId).orElse(null);
+        return completed != null ? completed.getFile() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Последняя активность сессии - время изменения файла загрузки, которое обновляет каждая записанная часть.
+     * Поэтому из сессий, созданных раньше срока, удаляются только те, в которые с тех пор не писали.
+     * Файл удаляется под той же блокировкой, что и при записи части и завершении загрузки,
+     * занятые файлы пропускаются до следующего запуска
+     */
+    @Scheduled(fixedDelayString = "${upload.session.cleanup-interval:3600000}")
+    @Transactional
+    @Override
+    public void removeExpiredSessions() {
+        long expirationTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(sessionTtlHours);
+        for (UploadSession session : sessionRepository.findByCreationDateBefore(new Date(expirationTime))) {
+            try {
+                if (deleteInactiveStagingFile(getStagingFile(session.getId()), expirationTime)) {
+                    sessionRepository.delete(session);
+                }
+            } catch (IOException e) {
+                // файл будет удален при следующем запуске
+            }
+        }
+    }
+
+    /**
+     * Удаляет файл загрузки, если он не заблокирован и не изменялся после указанного времени
+     *
+     * @param stagingFile файл загрузки
+     * @param expirationTime время в мс, после которого файл считается активным
+     * @return true, если файл удален или его уже нет
+     * @throws IOException
+     */
+    private boolean deleteInactiveStagingFile(Path stagingFile, long expirationTime) throws IOException {
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                return false;
+            }
+            try {
+                if (Files.getLastModifiedTime(stagingFile).toMillis() >= expirationTime) {
+                    return false;
+                }
+                Files.delete(stagingFile);
+                return true;
+            } finally {
+                lock.release();
+            }
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Находит незавершенную сессию загрузки текущего пользователя
+     *
+     * @param currentUser текущий пользователь
+     * @param sessionId id сессии
+     * @return сессия
+     */
+    private UploadSession findSession(User currentUser, String sessionId) {
+        checkUser(currentUser);
+        checkSessionId(sessionId);
+        UploadSession session = sessionRepository.findById(sessionId).orElse(null);
+        checkSession(currentUser, session, sessionId);
+        if (session.getFile() != null) {
+            throw new ConflictException("The upload is already completed");
+        }
+        return session;
+    }
+
+    /**
+     * Проверяет, что сессия существует и принадлежит текущему пользователю
+     *
+     * @param currentUser текущий пользователь
+     * @param session сессия
+     * @param sessionId id сессии
+     */
+    private void checkSession(User currentUser, UploadSession session, String sessionId) {
+        if (session == null) {
+            throw new NotFoundException("There is no upload session " + sessionId);
+        }
+        if (!currentUser.getId().equals(session.getUser().getId())) {
+            throw new AccessException("You can not upload to not your session!");
+        }
+    }
+
+    /**
+     * Проверяет формат id сессии, так как он используется в имени файла на диске
+     *
+     * @param sessionId id сессии
+     */
+    private void checkSessionId(String sessionId) {
+        if (sessionId == null || !sessionId.matches("[0-9a-f-]{36}")) {
+            throw new NotFoundException("There is no upload session " + sessionId);
+        }
+    }
+
+    /**
+     * Проверяет пользователя на пустоту
+     *
+     * @param user пользователь
+     */
+    private void checkUser(User user) {
+        if (user == null) {
+            throw new NotFoundException("No user");
+        }
+    }
+
+    /**
+     * Пытается захватить блокировку файла.
+     * Блокировка, уже захваченная в этой JVM, считается занятой
+     *
+     * @param channel канал файла
+     * @return блокировка или null, если файл уже заблокирован
+     * @throws IOException
+     */
+    private FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Возвращает путь к файлу незавершенной загрузки
+     *
+     * @param sessionId id сессии
+     * @return путь
+     */
+    private Path getStagingFile(String sessionId) {
+        return Paths.get(uploadPath, STAGING_DIR, sessionId);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.storage.ContentCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Ресурс файла пользователя.
+ * Содержимое хранится под именем-хешем, поэтому имя для скачивания берется из оригинального имени файла,
+ * а все остальное - из ресурса хранилища. Для сжатого содержимого ресурс отдает сжатые байты,
+ * исходные байты доступны через {@link #getDecodedInputStream()}
+ */
+public class UserFileResource extends AbstractResource {
+
+    private final Resource content;
+    private final UserFile userFile;
+    private final ContentCodec codec;
+
+    public UserFileResource(Resource content, UserFile userFile) {
+        this(content, userFile, null);
+    }
+
+    public UserFileResource(Resource content, UserFile userFile, ContentCodec codec) {
+        this.content = content;
+        this.userFile = userFile;
+        this.codec = codec;
+    }
+
+    public UserFile getUserFile() {
+        return userFile;
+    }
+
+    /**
+     * @return сжатие, с которым хранится содержимое, null - без сжатия
+     */
+    public String getContentEncoding() {
+        return userFile.getContentEncoding();
+    }
+
+    /**
+     * Возвращает поток с исходным содержимым файла, распаковывая его при необходимости
+     *
+     * @return поток
+     * @throws IOException
+     */
+    public InputStream getDecodedInputStream() throws IOException {
+        String encoding = getContentEncoding();
+        if (encoding == null) {
+            return getInputStream();
+        }
+        if (codec == null || !encoding.equals(codec.getEncoding())) {
+            throw new IOException("Unsupported content encoding " + encoding);
+        }
+        return codec.decode(getInputStream());
+    }
+
+    @Override
+    public String getFilename() {
+        return userFile.getOriginalName();
+    }
+
+    @Override
+    public boolean exists() {
+        return content.exists();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return content.isReadable();
+    }
+
+    @Override
+    public boolean isFile() {
+        return content.isFile();
+    }
+
+    @Override
+    public URL getURL() throws IOException {
+        return content.getURL();
+    }
+
+    @Override
+    public URI getURI() throws IOException {
+        return content.getURI();
+    }
+
+    @Override
+    public File getFile() throws IOException {
+        return content.getFile();
+    }
+
+    @Override
+    public ReadableByteChannel readableChannel() throws IOException {
+        return content.readableChannel();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return content.contentLength();
+    }
+
+    /**
+     * Возвращает дату загрузки файла, а для файлов без нее - дату изменения содержимого.
+     * Одно содержимое может принадлежать нескольким файлам, поэтому дата берется из файла
+     */
+    @Override
+    public long lastModified() throws IOException {
+        if (userFile.getUploadDate() != null) {
+            return userFile.getUploadDate().getTime();
+        }
+        return content.lastModified();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return content.getInputStream();
+    }
+
+    @Override
+    public String getDescription() {
+        return content.getDescription();
+    }
+}
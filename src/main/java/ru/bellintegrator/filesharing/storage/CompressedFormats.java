@@ -0,0 +1,61 @@
+package ru.bellintegrator.filesharing.storage;
+
+/**
+ * Распознавание уже сжатых форматов по первым байтам файла
+ */
+public class CompressedFormats {
+
+    /**
+     * Сигнатуры архивов, изображений, видео и аудио, которые не имеет смысла сжимать повторно
+     */
+    private static final int[][] SIGNATURES = {
+            {0x1f, 0x8b},                         // gzip
+            {0x50, 0x4b, 0x03, 0x04},             // zip, docx, xlsx, jar, apk
+            {0x42, 0x5a, 0x68},                   // bzip2
+            {0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00}, // xz
+            {0x28, 0xb5, 0x2f, 0xfd},             // zstd
+            {0x37, 0x7a, 0xbc, 0xaf, 0x27, 0x1c}, // 7z
+            {0x52, 0x61, 0x72, 0x21},             // rar
+            {0x89, 0x50, 0x4e, 0x47},             // png
+            {0xff, 0xd8, 0xff},                   // jpeg
+            {0x47, 0x49, 0x46, 0x38},             // gif
+            {0x52, 0x49, 0x46, 0x46},             // webp, avi, wav
+            {0x49, 0x44, 0x33},                   // mp3 с тегами ID3
+            {0xff, 0xfb},                         // mp3
+            {0x4f, 0x67, 0x67, 0x53},             // ogg
+            {0x66, 0x4c, 0x61, 0x43},             // flac
+            {0x1a, 0x45, 0xdf, 0xa3},             // mkv, webm
+    };
+
+    private CompressedFormats() {
+    }
+
+    /**
+     * Проверяет, что содержимое уже сжато
+     *
+     * @param head первые байты содержимого
+     * @param length количество прочитанных байт
+     * @return true - если формат распознан как сжатый
+     */
+    public static boolean isCompressed(byte[] head, int length) {
+        for (int[] signature : SIGNATURES) {
+            if (startsWith(head, length, signature, 0)) {
+                return true;
+            }
+        }
+        // mp4, mov, heic: ftyp по смещению 4
+        return startsWith(head, length, new int[]{0x66, 0x74, 0x79, 0x70}, 4);
+    }
+
+    private static boolean startsWith(byte[] head, int length, int[] signature, int offset) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((head[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
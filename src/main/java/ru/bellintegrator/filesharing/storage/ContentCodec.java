@@ -0,0 +1,33 @@
+package ru.bellintegrator.filesharing.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Алгоритм сжатия содержимого при хранении
+ */
+public interface ContentCodec {
+
+    /**
+     * @return название сжатия в терминах заголовка Content-Encoding
+     */
+    String getEncoding();
+
+    /**
+     * Возвращает поток, сжимающий содержимое по мере чтения
+     *
+     * @param content исходное содержимое
+     * @return сжатое содержимое
+     */
+    InputStream encode(InputStream content);
+
+    /**
+     * Возвращает поток, распаковывающий содержимое по мере чтения
+     *
+     * @param content сжатое содержимое
+     * @return исходное содержимое
+     * @throws IOException
+     */
+    InputStream decode(InputStream content) throws IOException;
+
+}
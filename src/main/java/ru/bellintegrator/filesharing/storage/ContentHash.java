@@ -0,0 +1,41 @@
+package ru.bellintegrator.filesharing.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Вычисление SHA-256 содержимого
+ */
+class ContentHash {
+
+    private ContentHash() {
+    }
+
+    /**
+     * Создает объект для вычисления SHA-256
+     *
+     * @return MessageDigest
+     */
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Переводит массив байт в шестнадцатеричную строку
+     *
+     * @param bytes массив байт
+     * @return шестнадцатеричная строка
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
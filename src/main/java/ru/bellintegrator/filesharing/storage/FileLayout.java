@@ -0,0 +1,86 @@
+package ru.bellintegrator.filesharing.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Иерархическое размещение файлов в каталоге загрузок: uploadPath/ab/cd/имя.
+ * Каталоги двух уровней берутся из первых шестнадцатеричных символов имени файла,
+ * поэтому ни в одном каталоге не накапливаются миллионы записей
+ */
+public class FileLayout {
+
+    private static final int PREFIX_LENGTH = 2;
+
+    private FileLayout() {
+    }
+
+    /**
+     * Возвращает путь к файлу в иерархическом размещении
+     *
+     * @param rootLocation каталог загрузок
+     * @param fileName имя файла на диске
+     * @return путь
+     */
+    public static Path getShardedPath(Path rootLocation, String fileName) {
+        String prefix = getPrefix(fileName);
+        return rootLocation.resolve(prefix.substring(0, PREFIX_LENGTH))
+                .resolve(prefix.substring(PREFIX_LENGTH, 2 * PREFIX_LENGTH))
+                .resolve(fileName);
+    }
+
+    /**
+     * Возвращает путь к файлу в прежнем плоском размещении
+     *
+     * @param rootLocation каталог загрузок
+     * @param fileName имя файла на диске
+     * @return путь
+     */
+    public static Path getFlatPath(Path rootLocation, String fileName) {
+        return rootLocation.resolve(fileName);
+    }
+
+    /**
+     * Находит файл в любом из размещений, пока перенос файлов не завершен.
+     * Если файла нет нигде, возвращается путь в иерархическом размещении
+     *
+     * @param rootLocation каталог загрузок
+     * @param fileName имя файла на диске
+     * @return путь
+     */
+    public static Path resolve(Path rootLocation, String fileName) {
+        Path sharded = getShardedPath(rootLocation, fileName);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = getFlatPath(rootLocation, fileName);
+        return Files.exists(flat) ? flat : sharded;
+    }
+
+    /**
+     * Возвращает ключ, задающий порядок обхода хранилища: префикс каталогов и имя файла.
+     * В этом порядке файлы лежат в иерархическом размещении
+     *
+     * @param fileName имя файла на диске
+     * @return ключ
+     */
+    public static String getKey(String fileName) {
+        return getPrefix(fileName) + "/" + fileName;
+    }
+
+    /**
+     * Возвращает четыре шестнадцатеричных символа для имен каталогов.
+     * Для хешей и UUID это начало имени, для остальных имен - начало hashCode имени
+     *
+     * @param fileName имя файла на диске
+     * @return префикс
+     */
+    private static String getPrefix(String fileName) {
+        String prefix = fileName.length() >= 2 * PREFIX_LENGTH
+                ? fileName.substring(0, 2 * PREFIX_LENGTH).toLowerCase() : "";
+        if (!prefix.matches("[0-9a-f]{4}")) {
+            prefix = String.format("%08x", fileName.hashCode()).substring(0, 2 * PREFIX_LENGTH);
+        }
+        return prefix;
+    }
+}
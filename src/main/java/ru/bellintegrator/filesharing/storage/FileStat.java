@@ -0,0 +1,66 @@
+package ru.bellintegrator.filesharing.storage;
+
+import java.util.Objects;
+
+/**
+ * Сведения о содержимом в хранилище
+ */
+public class FileStat {
+
+    /**
+     * Имя содержимого
+     */
+    private final String name;
+
+    /**
+     * Размер в байтах
+     */
+    private final long size;
+
+    /**
+     * Время последнего изменения в миллисекундах
+     */
+    private final long lastModified;
+
+    public FileStat(String name, long size, long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileStat fileStat = (FileStat) o;
+        return size == fileStat.size &&
+                lastModified == fileStat.lastModified &&
+                Objects.equals(name, fileStat.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, size, lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return "FileStat{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                ", lastModified=" + lastModified +
+                '}';
+    }
+}
@@ -0,0 +1,104 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Хранилище содержимого файлов.
+ * Содержимое сначала записывается во временный объект, для которого считаются SHA-256 и размер,
+ * и только затем сохраняется под постоянным именем
+ */
+public interface FileStore {
+
+    /**
+     * Записывает содержимое во временный объект хранилища.
+     * Поток читается один раз, хеш и размер считаются во время записи
+     *
+     * @param content содержимое
+     * @return временный объект
+     * @throws IOException
+     */
+    StagedContent stage(InputStream content) throws IOException;
+
+    /**
+     * Принимает во временный объект файл, уже записанный на диск.
+     * Файл переходит во владение хранилища и удаляется после put или discard
+     *
+     * @param file файл
+     * @return временный объект
+     * @throws IOException
+     */
+    StagedContent stage(Path file) throws IOException;
+
+    /**
+     * Сохраняет временный объект под постоянным именем.
+     * Если имя уже занято, содержимое считается одинаковым и временный объект удаляется
+     *
+     * @param content временный объект
+     * @param name имя
+     * @throws IOException
+     */
+    void put(StagedContent content, String name) throws IOException;
+
+    /**
+     * Удаляет временный объект
+     *
+     * @param content временный объект
+     * @throws IOException
+     */
+    void discard(StagedContent content) throws IOException;
+
+    /**
+     * Возвращает ресурс для чтения содержимого
+     *
+     * @param name имя
+     * @return ресурс, null - если содержимого нет
+     * @throws IOException
+     */
+    Resource get(String name) throws IOException;
+
+    /**
+     * Открывает поток для чтения части содержимого
+     *
+     * @param name имя
+     * @param position смещение первого байта
+     * @param count количество байт
+     * @return поток
+     * @throws IOException
+     */
+    InputStream openRange(String name, long position, long count) throws IOException;
+
+    /**
+     * Удаляет содержимое
+     *
+     * @param name имя
+     * @return true - если содержимое было удалено
+     * @throws IOException
+     */
+    boolean delete(String name) throws IOException;
+
+    /**
+     * Возвращает сведения о содержимом
+     *
+     * @param name имя
+     * @return сведения, null - если содержимого нет
+     * @throws IOException
+     */
+    FileStat stat(String name) throws IOException;
+
+    /**
+     * Возвращает сведения о следующей порции содержимого в порядке {@link FileLayout#getKey(String)}.
+     * Позволяет просматривать все хранилище частями, продолжая с последнего полученного имени
+     *
+     * @param after имя, после которого начинается порция, null - с начала хранилища
+     * @param limit максимальное количество записей
+     * @return сведения о содержимом
+     * @throws IOException
+     */
+    List<FileStat> list(String after, int limit) throws IOException;
+
+}
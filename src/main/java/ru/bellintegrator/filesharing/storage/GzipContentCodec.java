@@ -0,0 +1,148 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Сжатие gzip средствами JDK.
+ * Сжатые данные совпадают с тем, что отдается клиенту с Content-Encoding: gzip, поэтому передаются без изменений
+ */
+@Component
+public class GzipContentCodec implements ContentCodec {
+
+    /**
+     * Заголовок gzip: deflate, без имени файла и времени изменения
+     */
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Уровень сжатия от 1 до 9
+     */
+    @Value("${upload.compression.level:6}")
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getEncoding() {
+        return "gzip";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream encode(InputStream content) {
+        return new GzipEncodingInputStream(content, level);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream decode(InputStream content) throws IOException {
+        return new GZIPInputStream(content);
+    }
+
+    /**
+     * Поток, отдающий содержимое в формате gzip: заголовок, данные deflate и CRC32 с размером в конце
+     */
+    private static class GzipEncodingInputStream extends InputStream {
+
+        private final InputStream content;
+        private final Deflater deflater;
+        private final InputStream deflated;
+        private final CRC32 crc = new CRC32();
+        private long size;
+        private InputStream current;
+        private int part;
+
+        GzipEncodingInputStream(InputStream content, int level) {
+            this.content = content;
+            this.deflater = new Deflater(level, true);
+            this.deflated = new DeflaterInputStream(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    int b = GzipEncodingInputStream.this.content.read();
+                    if (b != -1) {
+                        crc.update(b);
+                        size++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = GzipEncodingInputStream.this.content.read(b, off, len);
+                    if (read > 0) {
+                        crc.update(b, off, read);
+                        size += read;
+                    }
+                    return read;
+                }
+            }, deflater);
+            this.current = new ByteArrayInputStream(HEADER);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (current != null) {
+                int read = current.read(b, off, len);
+                if (read > 0) {
+                    return read;
+                }
+                if (read == -1) {
+                    next();
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                content.close();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * Переходит к следующей части: после заголовка - данные, после данных - окончание
+         */
+        private void next() {
+            part++;
+            if (part == 1) {
+                current = deflated;
+            } else if (part == 2) {
+                long crcValue = crc.getValue();
+                byte[] trailer = new byte[8];
+                for (int i = 0; i < 4; i++) {
+                    trailer[i] = (byte) (crcValue >> (8 * i));
+                    trailer[i + 4] = (byte) (size >> (8 * i));
+                }
+                current = new ByteArrayInputStream(trailer);
+            } else {
+                current = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.bellintegrator.filesharing.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Поток, считающий SHA-256 и размер прочитанного содержимого
+ */
+public class HashingInputStream extends FilterInputStream {
+
+    private final MessageDigest digest = ContentHash.createDigest();
+    private long size;
+
+    public HashingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            digest.update((byte) b);
+            size++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            digest.update(b, off, read);
+            size += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("Skip is not supported while hashing");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Возвращает SHA-256 прочитанного содержимого. Вызывается после чтения всего потока
+     *
+     * @return SHA-256 в шестнадцатеричном виде
+     */
+    public String getHash() {
+        return ContentHash.toHex(digest.digest());
+    }
+
+    /**
+     * @return количество прочитанных байт
+     */
+    public long getSize() {
+        return size;
+    }
+}
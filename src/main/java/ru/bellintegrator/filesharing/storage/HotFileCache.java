@@ -0,0 +1,478 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш содержимого часто скачиваемых файлов вне heap (direct ByteBuffer).
+ * Частота обращений оценивается приближенно (count-min sketch со старением), поэтому в кэш попадают
+ * только файлы, которые запрашивались не реже min-frequency раз, а при нехватке места новый файл
+ * вытесняет случайно выбранный редко запрашиваемый, только если запрашивается чаще него.
+ * Суммарный размер содержимого ограничен max-bytes, 0 - кэш выключен
+ */
+@Component
+@ManagedResource(objectName = "ru.bellintegrator.filesharing:type=HotFileCache")
+public class HotFileCache {
+
+    /**
+     * Количество записей, среди которых выбирается вытесняемая
+     */
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    /**
+     * Ожидаемый средний размер файла в кэше для выбора размера таблицы частот
+     */
+    private static final long AVERAGE_ENTRY_SIZE = 16 * 1024;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int minFrequency;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Entry> samples = new ArrayList<>();
+    private final Map<String, Reservation> reserved = new HashMap<>();
+    private final FrequencySketch sketch;
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public HotFileCache(@Value("${download.cache.max-bytes:0}") long maxBytes,
+                        @Value("${download.cache.max-entry-bytes:1048576}") long maxEntryBytes,
+                        @Value("${download.cache.min-frequency:2}") int minFrequency) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+        this.minFrequency = minFrequency;
+        this.sketch = new FrequencySketch(maxBytes / AVERAGE_ENTRY_SIZE);
+    }
+
+    /**
+     * Возвращает содержимое из кэша и учитывает обращение к нему
+     *
+     * @param name имя содержимого в хранилище
+     * @return содержимое или null, если его нет в кэше
+     */
+    public Resource get(String name) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        sketch.increment(name);
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new CachedResource(entry);
+    }
+
+    /**
+     * Добавляет содержимое в кэш, если файл запрашивается достаточно часто и для него есть место.
+     * Решение о добавлении и резервирование места принимаются под блокировкой до чтения содержимого,
+     * поэтому буфер выделяется только для содержимого, которое попадет в кэш, и одно содержимое
+     * не читается несколькими потоками одновременно
+     *
+     * @param name имя содержимого в хранилище
+     * @param content содержимое из хранилища
+     * @return ресурс из кэша или исходный ресурс, если содержимое не добавлено
+     * @throws IOException
+     */
+    public Resource cache(String name, Resource content) throws IOException {
+        if (maxBytes <= 0) {
+            return content;
+        }
+        long size = content.contentLength();
+        if (size > maxEntryBytes || size > maxBytes || sketch.frequency(name) < minFrequency) {
+            return content;
+        }
+        Reservation reservation;
+        synchronized (this) {
+            Entry existing = entries.get(name);
+            if (existing != null) {
+                return new CachedResource(existing);
+            }
+            if (reserved.containsKey(name) || !makeRoom(name, size)) {
+                return content;
+            }
+            reservation = new Reservation(size);
+            reserved.put(name, reservation);
+            usedBytes += size;
+        }
+
+        ByteBuffer buffer = null;
+        try {
+            buffer = read(content, (int) size);
+        } finally {
+            if (buffer == null) {
+                release(name, reservation);
+            }
+        }
+        if (buffer == null) {
+            return content;
+        }
+        Entry entry = new Entry(name, buffer.asReadOnlyBuffer(), content.lastModified());
+        synchronized (this) {
+            if (!reserved.remove(name, reservation)) {
+                return content;
+            }
+            entry.index = samples.size();
+            samples.add(entry);
+            entries.put(name, entry);
+        }
+        return new CachedResource(entry);
+    }
+
+    /**
+     * Удаляет содержимое из кэша. Содержимое, которое читается в кэш в этот момент, в кэш не попадет,
+     * а зарезервированное для него место освобождается сразу
+     *
+     * @param name имя содержимого в хранилище
+     */
+    public synchronized void invalidate(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            remove(entry);
+        }
+        Reservation reservation = reserved.remove(name);
+        if (reservation != null) {
+            usedBytes -= reservation.size;
+        }
+    }
+
+    @ManagedAttribute(description = "Number of requests served from the cache")
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Number of requests not found in the cache")
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Number of entries evicted to make room for hotter files")
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @ManagedAttribute(description = "Bytes of off-heap memory held by cached content")
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    @ManagedAttribute(description = "Number of cached files")
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Освобождает место для нового содержимого, вытесняя редко запрашиваемые записи.
+     * Если выбранная запись запрашивается чаще нового содержимого или место занято содержимым,
+     * которое еще читается, оно не добавляется
+     *
+     * @param name имя нового содержимого
+     * @param size размер нового содержимого
+     * @return true, если место освобождено
+     */
+    private boolean makeRoom(String name, long size) {
+        int frequency = sketch.frequency(name);
+        while (usedBytes + size > maxBytes) {
+            Entry victim = sampleVictim();
+            if (victim == null || sketch.frequency(victim.name) > frequency) {
+                return false;
+            }
+            remove(victim);
+            evictions.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Выбирает среди нескольких случайных записей самую редко запрашиваемую.
+     * Если записей немного, просматриваются все
+     *
+     * @return запись или null, если записей нет
+     */
+    private Entry sampleVictim() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean all = samples.size() <= EVICTION_SAMPLE_SIZE;
+        Entry victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < Math.min(EVICTION_SAMPLE_SIZE, samples.size()); i++) {
+            Entry entry = samples.get(all ? i : random.nextInt(samples.size()));
+            int frequency = sketch.frequency(entry.name);
+            if (frequency < victimFrequency) {
+                victim = entry;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Удаляет запись, переставляя последнюю запись списка на ее место
+     *
+     * @param entry запись
+     */
+    private void remove(Entry entry) {
+        entries.remove(entry.name);
+        Entry last = samples.remove(samples.size() - 1);
+        if (last != entry) {
+            last.index = entry.index;
+            samples.set(entry.index, last);
+        }
+        usedBytes -= entry.buffer.capacity();
+    }
+
+    /**
+     * Освобождает место, зарезервированное для содержимого, которое не удалось прочитать.
+     * Если резерв уже снят удалением содержимого из кэша или заменен резервом другого потока, место не меняется
+     *
+     * @param name имя содержимого
+     * @param reservation резерв этого чтения
+     */
+    private synchronized void release(String name, Reservation reservation) {
+        if (reserved.remove(name, reservation)) {
+            usedBytes -= reservation.size;
+        }
+    }
+
+    /**
+     * Читает содержимое в буфер вне heap
+     *
+     * @param content содержимое
+     * @param size ожидаемый размер
+     * @return буфер или null, если размер содержимого изменился
+     * @throws IOException
+     */
+    private ByteBuffer read(Resource content, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (ReadableByteChannel channel = Channels.newChannel(content.getInputStream())) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    return null;
+                }
+            }
+            if (channel.read(ByteBuffer.allocate(1)) != -1) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Место, зарезервированное одним чтением содержимого в кэш
+     */
+    private static class Reservation {
+
+        private final long size;
+
+        Reservation(long size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Запись кэша
+     */
+    private static class Entry {
+
+        private final String name;
+        private final ByteBuffer buffer;
+        private final long lastModified;
+        private int index;
+
+        Entry(String name, ByteBuffer buffer, long lastModified) {
+            this.name = name;
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Приближенный счетчик частоты обращений: четыре строки 4-битных счетчиков, по 16 счетчиков в каждом long.
+     * Счетчики меняются через compare-and-set без общей блокировки, поэтому обращения к разным файлам
+     * не ждут друг друга. После 10 обращений на ячейку строки все счетчики делятся пополам,
+     * чтобы файлы, переставшие быть популярными, со временем вытеснялись
+     */
+    private static class FrequencySketch {
+
+        private static final int MAX_COUNT = 15;
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+        private final AtomicLongArray[] table = new AtomicLongArray[SEEDS.length];
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(256, Math.min(expectedEntries, 1 << 20)) * 2 - 1);
+            for (int i = 0; i < table.length; i++) {
+                table[i] = new AtomicLongArray(width / 16);
+            }
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        void increment(String name) {
+            int hash = name.hashCode();
+            boolean added = false;
+            for (int i = 0; i < table.length; i++) {
+                added |= increment(table[i], index(hash, i));
+            }
+            if (added && additions.incrementAndGet() == sampleSize) {
+                reset();
+                additions.addAndGet(-sampleSize / 2);
+            }
+        }
+
+        int frequency(String name) {
+            int hash = name.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < table.length; i++) {
+                frequency = Math.min(frequency, count(table[i], index(hash, i)));
+            }
+            return frequency;
+        }
+
+        private boolean increment(AtomicLongArray row, int index) {
+            int slot = index >>> 4;
+            int shift = (index & 15) << 2;
+            long value;
+            do {
+                value = row.get(slot);
+                if ((value >>> shift & MAX_COUNT) == MAX_COUNT) {
+                    return false;
+                }
+            } while (!row.compareAndSet(slot, value, value + (1L << shift)));
+            return true;
+        }
+
+        private int count(AtomicLongArray row, int index) {
+            return (int) (row.get(index >>> 4) >>> ((index & 15) << 2) & MAX_COUNT);
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (AtomicLongArray row : table) {
+                for (int i = 0; i < row.length(); i++) {
+                    long value;
+                    do {
+                        value = row.get(i);
+                    } while (!row.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+                }
+            }
+        }
+    }
+
+    /**
+     * Содержимое из кэша. Каждый ресурс читает собственную копию позиции буфера
+     */
+    private static class CachedResource extends AbstractResource {
+
+        private final Entry entry;
+
+        CachedResource(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return entry.buffer.capacity();
+        }
+
+        @Override
+        public long lastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public String getFilename() {
+            return entry.name;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Cached content [" + entry.name + "]";
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(entry.buffer.duplicate());
+        }
+    }
+
+    /**
+     * Поток чтения из буфера
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
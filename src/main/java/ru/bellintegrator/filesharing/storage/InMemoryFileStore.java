@@ -0,0 +1,175 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Хранилище в памяти для тестов и замеров производительности сервисов без обращения к диску
+ */
+@Component
+@ConditionalOnProperty(name = "upload.store", havingValue = "memory")
+public class InMemoryFileStore implements FileStore {
+
+    private final ConcurrentMap<String, StoredContent> contents = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StagedContent stage(InputStream content) throws IOException {
+        MessageDigest digest = ContentHash.createDigest();
+        byte[] bytes;
+        try (InputStream digestStream = new DigestInputStream(content, digest)) {
+            bytes = StreamUtils.copyToByteArray(digestStream);
+        }
+        return new StoredContent(bytes, ContentHash.toHex(digest.digest()), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StagedContent stage(Path file) throws IOException {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            MessageDigest digest = ContentHash.createDigest();
+            return new StoredContent(bytes, ContentHash.toHex(digest.digest(bytes)), 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(StagedContent content, String name) {
+        StoredContent staged = (StoredContent) content;
+        contents.putIfAbsent(name, new StoredContent(staged.bytes, staged.hash, System.currentTimeMillis()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void discard(StagedContent content) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Resource get(String name) {
+        StoredContent content = contents.get(name);
+        return content == null ? null : new StoredResource(name, content);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openRange(String name, long position, long count) throws IOException {
+        StoredContent content = contents.get(name);
+        if (content == null) {
+            throw new IOException("There is no content " + name);
+        }
+        if (position < 0 || count < 0 || position + count > content.bytes.length) {
+            throw new IllegalArgumentException("Range " + position + "+" + count + " is out of " + name);
+        }
+        return new ByteArrayInputStream(content.bytes, (int) position, (int) count);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean delete(String name) {
+        return contents.remove(name) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileStat stat(String name) {
+        StoredContent content = contents.get(name);
+        return content == null ? null : new FileStat(name, content.bytes.length, content.lastModified);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<FileStat> list(String after, int limit) {
+        String afterKey = after == null ? "" : FileLayout.getKey(after);
+        List<FileStat> stats = new ArrayList<>();
+        for (Map.Entry<String, StoredContent> e : contents.entrySet()) {
+            if (FileLayout.getKey(e.getKey()).compareTo(afterKey) > 0) {
+                stats.add(new FileStat(e.getKey(), e.getValue().bytes.length, e.getValue().lastModified));
+            }
+        }
+        stats.sort(Comparator.comparing(stat -> FileLayout.getKey(stat.getName())));
+        return new ArrayList<>(stats.subList(0, Math.min(limit, stats.size())));
+    }
+
+    /**
+     * Содержимое в памяти, временное или сохраненное
+     */
+    private static class StoredContent implements StagedContent {
+
+        private final byte[] bytes;
+        private final String hash;
+        private final long lastModified;
+
+        StoredContent(byte[] bytes, String hash, long lastModified) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public long getSize() {
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Ресурс содержимого в памяти со временем сохранения
+     */
+    private static class StoredResource extends ByteArrayResource {
+
+        private final long lastModified;
+
+        StoredResource(String name, StoredContent content) {
+            super(content.bytes, "in-memory content [" + name + "]");
+            this.lastModified = content.lastModified;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Хранилище в каталоге загрузок на локальном диске.
+ * Временные объекты пишутся в тот же каталог, поэтому сохранение - это атомарное переименование без копирования
+ */
+@Component
+@ConditionalOnProperty(name = "upload.store", havingValue = "local", matchIfMissing = true)
+public class LocalFileStore implements FileStore {
+
+    private final Path rootLocation;
+
+    @Autowired
+    public LocalFileStore(@Value("${upload.path}") String uploadPath) {
+        this.rootLocation = Paths.get(uploadPath);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StagedContent stage(InputStream content) throws IOException {
+        Files.createDirectories(rootLocation);
+        Path tempFile = Files.createTempFile(rootLocation, ".upload-", ".tmp");
+        try {
+            MessageDigest digest = ContentHash.createDigest();
+            long size;
+            try (InputStream digestStream = new DigestInputStream(content, digest)) {
+                size = Files.copy(digestStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new LocalStagedContent(tempFile, ContentHash.toHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StagedContent stage(Path file) throws IOException {
+        try {
+            MessageDigest digest = ContentHash.createDigest();
+            try (InputStream digestStream = new DigestInputStream(Files.newInputStream(file), digest)) {
+                StreamUtils.drain(digestStream);
+            }
+            return new LocalStagedContent(file, ContentHash.toHex(digest.digest()), Files.size(file));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Новое содержимое сразу размещается иерархически
+     */
+    @Override
+    public void put(StagedContent content, String name) throws IOException {
+        Path file = ((LocalStagedContent) content).file;
+        try {
+            if (!Files.exists(FileLayout.resolve(rootLocation, name))) {
+                Path target = FileLayout.getShardedPath(rootLocation, name);
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void discard(StagedContent content) throws IOException {
+        Files.deleteIfExists(((LocalStagedContent) content).file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Resource get(String name) throws IOException {
+        Path file = FileLayout.resolve(rootLocation, name);
+        return Files.exists(file) ? new UrlResource(file.toUri()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openRange(String name, long position, long count) throws IOException {
+        FileChannel channel = FileChannel.open(FileLayout.resolve(rootLocation, name), StandardOpenOption.READ);
+        try {
+            if (position < 0 || count < 0 || position + count > channel.size()) {
+                throw new IllegalArgumentException("Range " + position + "+" + count + " is out of " + name);
+            }
+            channel.position(position);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new RangeInputStream(Channels.newInputStream(channel), count);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Удаляются оба размещения, так как файл может быть перенесен во время удаления
+     */
+    @Override
+    public boolean delete(String name) throws IOException {
+        return Files.deleteIfExists(FileLayout.getFlatPath(rootLocation, name))
+                | Files.deleteIfExists(FileLayout.getShardedPath(rootLocation, name));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileStat stat(String name) throws IOException {
+        Path file = FileLayout.resolve(rootLocation, name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return new FileStat(name, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Каталоги обходятся по порядку, за один вызов читается не больше нескольких каталогов.
+     * Файлы в плоском размещении не возвращаются, пока не будут перенесены
+     */
+    @Override
+    public List<FileStat> list(String after, int limit) throws IOException {
+        List<FileStat> stats = new ArrayList<>();
+        String afterPrefix = after == null ? "" : FileLayout.getKey(after).substring(0, 4);
+        for (String first : listShardDirectories(rootLocation)) {
+            if (!afterPrefix.startsWith(first) && first.compareTo(afterPrefix) < 0) {
+                continue;
+            }
+            for (String second : listShardDirectories(rootLocation.resolve(first))) {
+                String prefix = first + second;
+                if (prefix.compareTo(afterPrefix) < 0) {
+                    continue;
+                }
+                List<String> names = listFileNames(rootLocation.resolve(first).resolve(second),
+                        prefix.equals(afterPrefix) ? after : null);
+                for (String name : names) {
+                    if (stats.size() >= limit) {
+                        return stats;
+                    }
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(
+                                rootLocation.resolve(first).resolve(second).resolve(name), BasicFileAttributes.class);
+                        stats.add(new FileStat(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    } catch (NoSuchFileException e) {
+                        // файл удален во время обхода
+                    }
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Возвращает отсортированные имена каталогов иерархического размещения
+     *
+     * @param directory родительский каталог
+     * @return имена каталогов
+     * @throws IOException
+     */
+    private static List<String> listShardDirectories(Path directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return names;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                if (name.matches("[0-9a-f]{2}")) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Возвращает отсортированные имена файлов каталога без служебных файлов
+     *
+     * @param directory каталог
+     * @param after имя, после которого начинаются возвращаемые имена, null - все имена
+     * @return имена файлов
+     * @throws IOException
+     */
+    private static List<String> listFileNames(Path directory, String after) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                if (!name.startsWith(".") && (after == null || name.compareTo(after) > 0)) {
+                    names.add(name);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // каталог удален во время обхода
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Временный файл в каталоге загрузок
+     */
+    private static class LocalStagedContent implements StagedContent {
+
+        private final Path file;
+        private final String hash;
+        private final long size;
+
+        LocalStagedContent(Path file, String hash, long size) {
+            this.file = file;
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Поток, читающий не больше заданного количества байт
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long count) {
+            super(in);
+            this.remaining = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
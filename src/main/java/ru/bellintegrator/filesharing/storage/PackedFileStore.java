@@ -0,0 +1,603 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Хранилище, упаковывающее маленькие файлы в большие сегменты.
+ * Содержимое меньше порога дописывается в конец текущего сегмента в каталоге uploadPath/.segments,
+ * а его смещение и длина хранятся в индексе в памяти. Индекс восстанавливается чтением сегментов при запуске.
+ * Сохранение и удаление возвращаются только после сброса сегмента на диск.
+ * Большие файлы хранятся в {@link LocalFileStore}.
+ *
+ * Запись в сегменте: флаг (1 байт), время сохранения (8 байт), длина имени (2 байта), имя,
+ * длина содержимого (8 байт), содержимое. При удалении в записи сбрасывается только флаг,
+ * а место освобождается фоновым уплотнением сегментов
+ */
+@Component
+@ConditionalOnProperty(name = "upload.store", havingValue = "packed")
+public class PackedFileStore implements FileStore {
+
+    private static final String SEGMENTS_DIR = ".segments";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 0;
+
+    /**
+     * Размер заголовка записи без имени
+     */
+    private static final int HEADER_SIZE = 1 + 8 + 2 + 8;
+
+    private final LocalFileStore largeFileStore;
+    private final Path segmentsLocation;
+
+    /**
+     * Файлы меньше порога упаковываются в сегменты
+     */
+    private final int threshold;
+
+    /**
+     * Размер, после которого начинается новый сегмент
+     */
+    private final long segmentSize;
+
+    /**
+     * Доля удаленных байт, после которой сегмент уплотняется
+     */
+    private final double compactionRatio;
+
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<>();
+
+    /**
+     * Имена из индекса по ключу порядка обхода (см. {@link FileLayout#getKey(String)}).
+     * Изменяется вместе с индексом под блокировкой на запись
+     */
+    private final ConcurrentNavigableMap<String, String> order = new ConcurrentSkipListMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Segment activeSegment;
+
+    @Autowired
+    public PackedFileStore(@Value("${upload.path}") String uploadPath,
+                           @Value("${upload.packed.threshold:65536}") int threshold,
+                           @Value("${upload.packed.segment-size:67108864}") long segmentSize,
+                           @Value("${upload.packed.compaction-ratio:0.5}") double compactionRatio) {
+        this.largeFileStore = new LocalFileStore(uploadPath);
+        this.segmentsLocation = Paths.get(uploadPath, SEGMENTS_DIR);
+        this.threshold = threshold;
+        this.segmentSize = segmentSize;
+        this.compactionRatio = compactionRatio;
+    }
+
+    /**
+     * Открывает сегменты и восстанавливает индекс
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(segmentsLocation);
+        lock.writeLock().lock();
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentsLocation,
+                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    int id = Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(),
+                            fileName.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+            for (Segment segment : segments.values()) {
+                load(segment);
+                activeSegment = segment;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Закрывает сегменты
+     *
+     * @throws IOException
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * В память читается не больше порога, остальное содержимое передается в хранилище больших файлов
+     */
+    @Override
+    public StagedContent stage(InputStream content) throws IOException {
+        byte[] buffer = new byte[threshold];
+        int length = 0;
+        int read;
+        while (length < threshold && (read = content.read(buffer, length, threshold - length)) != -1) {
+            length += read;
+        }
+        if (length == threshold) {
+            return largeFileStore.stage(new SequenceInputStream(new ByteArrayInputStream(buffer), content));
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, 0, bytes, 0, length);
+        return new PackedStagedContent(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StagedContent stage(Path file) throws IOException {
+        if (Files.size(file) >= threshold) {
+            return largeFileStore.stage(file);
+        }
+        try {
+            return new PackedStagedContent(Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(StagedContent content, String name) throws IOException {
+        if (!(content instanceof PackedStagedContent)) {
+            largeFileStore.put(content, name);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!index.containsKey(name) && largeFileStore.stat(name) == null) {
+                append(name, ((PackedStagedContent) content).bytes, System.currentTimeMillis());
+                activeSegment.channel.force(false);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void discard(StagedContent content) throws IOException {
+        if (!(content instanceof PackedStagedContent)) {
+            largeFileStore.discard(content);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Содержимое маленького файла читается из сегмента по смещению при каждом обращении к потоку
+     */
+    @Override
+    public Resource get(String name) throws IOException {
+        Entry entry = index.get(name);
+        return entry == null ? largeFileStore.get(name) : new SegmentResource(name, entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openRange(String name, long position, long count) throws IOException {
+        if (!index.containsKey(name)) {
+            return largeFileStore.openRange(name, position, count);
+        }
+        return new ByteArrayInputStream(read(name, position, count));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean delete(String name) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Entry entry = index.remove(name);
+            if (entry == null) {
+                return largeFileStore.delete(name);
+            }
+            order.remove(FileLayout.getKey(name));
+            writeFully(entry.segment.channel, ByteBuffer.wrap(new byte[]{DELETED}), entry.recordPosition);
+            entry.segment.channel.force(false);
+            entry.segment.deadBytes += entry.recordLength();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileStat stat(String name) throws IOException {
+        Entry entry = index.get(name);
+        return entry == null ? largeFileStore.stat(name) : new FileStat(name, entry.length, entry.lastModified);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Порция записей индекса, следующих за after в порядке обхода, объединяется с порцией файлов
+     * хранилища больших файлов
+     */
+    @Override
+    public List<FileStat> list(String after, int limit) throws IOException {
+        List<FileStat> stats = new ArrayList<>(largeFileStore.list(after, limit));
+        Map<String, String> tail = after == null ? order : order.tailMap(FileLayout.getKey(after), false);
+        int count = 0;
+        for (String name : tail.values()) {
+            if (count == limit) {
+                break;
+            }
+            Entry entry = index.get(name);
+            if (entry != null) {
+                stats.add(new FileStat(name, entry.length, entry.lastModified));
+                count++;
+            }
+        }
+        stats.sort(Comparator.comparing(stat -> FileLayout.getKey(stat.getName())));
+        return new ArrayList<>(stats.subList(0, Math.min(limit, stats.size())));
+    }
+
+    /**
+     * Уплотняет заполненные сегменты, в которых доля удаленных байт превысила порог.
+     * Живые записи по одной переносятся в текущий сегмент, после чего старый сегмент удаляется.
+     * Чтение и запись блокируются только на время переноса одной записи
+     *
+     * @return количество удаленных сегментов
+     * @throws IOException
+     */
+    @Scheduled(fixedDelayString = "${upload.packed.compaction-interval:600000}")
+    public int compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment && segment.deadBytes >= segment.size * compactionRatio) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Segment segment : candidates) {
+            compact(segment);
+        }
+        return candidates.size();
+    }
+
+    /**
+     * Переносит живые записи сегмента в текущий сегмент и удаляет его
+     *
+     * @param segment сегмент
+     * @throws IOException
+     */
+    private void compact(Segment segment) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            if (e.getValue().segment == segment) {
+                names.add(e.getKey());
+            }
+        }
+        for (String name : names) {
+            lock.writeLock().lock();
+            try {
+                Entry entry = index.get(name);
+                if (entry != null && entry.segment == segment) {
+                    ByteBuffer data = ByteBuffer.allocate((int) entry.length);
+                    readFully(segment.channel, data, entry.dataPosition);
+                    append(name, data.array(), entry.lastModified);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment target : segments.tailMap(segment.id, false).values()) {
+                target.channel.force(false);
+            }
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+            segments.remove(segment.id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Читает часть содержимого маленького файла из сегмента
+     *
+     * @param name имя
+     * @param position смещение внутри содержимого
+     * @param count количество байт
+     * @return прочитанные байты
+     * @throws IOException
+     */
+    private byte[] read(String name, long position, long count) throws IOException {
+        lock.readLock().lock();
+        try {
+            Entry entry = index.get(name);
+            if (entry == null) {
+                throw new NoSuchFileException(name);
+            }
+            if (position < 0 || count < 0 || position + count > entry.length) {
+                throw new IllegalArgumentException("Range " + position + "+" + count + " is out of " + name);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) count);
+            readFully(entry.segment.channel, buffer, entry.dataPosition + position);
+            return buffer.array();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Дописывает запись в текущий сегмент и обновляет индекс.
+     * Вызывается под блокировкой на запись
+     *
+     * @param name имя
+     * @param data содержимое
+     * @param lastModified время сохранения
+     * @throws IOException
+     */
+    private void append(String name, byte[] data, long lastModified) throws IOException {
+        if (activeSegment == null || activeSegment.size >= segmentSize) {
+            int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            activeSegment = new Segment(id, segmentsLocation.resolve(String.format("%s%08d%s",
+                    SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+            segments.put(id, activeSegment);
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + nameBytes.length + data.length);
+        record.put(LIVE).putLong(lastModified).putShort((short) nameBytes.length).put(nameBytes)
+                .putLong(data.length).put(data).flip();
+        long position = activeSegment.size;
+        writeFully(activeSegment.channel, record, position);
+        activeSegment.size += record.capacity();
+
+        Entry previous = index.put(name, new Entry(activeSegment, position,
+                position + HEADER_SIZE + nameBytes.length, data.length, lastModified));
+        order.put(FileLayout.getKey(name), name);
+        if (previous != null) {
+            writeFully(previous.segment.channel, ByteBuffer.wrap(new byte[]{DELETED}), previous.recordPosition);
+            previous.segment.deadBytes += previous.recordLength();
+        }
+    }
+
+    /**
+     * Читает записи сегмента в индекс.
+     * Недописанная последняя запись, оставшаяся после сбоя, отрезается
+     *
+     * @param segment сегмент
+     * @throws IOException
+     */
+    private void load(Segment segment) throws IOException {
+        FileChannel channel = segment.channel;
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE - 8);
+        while (position < fileSize) {
+            header.clear();
+            if (position + HEADER_SIZE > fileSize || !tryReadFully(channel, header, position)) {
+                break;
+            }
+            header.flip();
+            byte flag = header.get();
+            long lastModified = header.getLong();
+            int nameLength = header.getShort() & 0xFFFF;
+            ByteBuffer nameAndLength = ByteBuffer.allocate(nameLength + 8);
+            if (!tryReadFully(channel, nameAndLength, position + header.capacity())) {
+                break;
+            }
+            nameAndLength.flip();
+            byte[] nameBytes = new byte[nameLength];
+            nameAndLength.get(nameBytes);
+            long length = nameAndLength.getLong();
+            long dataPosition = position + HEADER_SIZE + nameLength;
+            if (length < 0 || dataPosition + length > fileSize) {
+                break;
+            }
+            Entry entry = new Entry(segment, position, dataPosition, length, lastModified);
+            if (flag == LIVE) {
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                order.put(FileLayout.getKey(name), name);
+                Entry previous = index.put(name, entry);
+                if (previous != null) {
+                    previous.segment.deadBytes += previous.recordLength();
+                }
+            } else {
+                segment.deadBytes += entry.recordLength();
+            }
+            position = dataPosition + length;
+        }
+        if (position < fileSize) {
+            channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!tryReadFully(channel, buffer, position)) {
+            throw new EOFException("Unexpected end of segment");
+        }
+    }
+
+    private static boolean tryReadFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * Файл сегмента
+     */
+    private static class Segment {
+
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        private long deadBytes;
+
+        Segment(int id, Path file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * Положение записи в сегменте
+     */
+    private static class Entry {
+
+        private final Segment segment;
+        private final long recordPosition;
+        private final long dataPosition;
+        private final long length;
+        private final long lastModified;
+
+        Entry(Segment segment, long recordPosition, long dataPosition, long length, long lastModified) {
+            this.segment = segment;
+            this.recordPosition = recordPosition;
+            this.dataPosition = dataPosition;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        long recordLength() {
+            return dataPosition + length - recordPosition;
+        }
+    }
+
+    /**
+     * Маленький файл, прочитанный в память
+     */
+    private static class PackedStagedContent implements StagedContent {
+
+        private final byte[] bytes;
+        private final String hash;
+
+        PackedStagedContent(byte[] bytes) {
+            MessageDigest digest = ContentHash.createDigest();
+            this.bytes = bytes;
+            this.hash = ContentHash.toHex(digest.digest(bytes));
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public long getSize() {
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Ресурс маленького файла, читающий содержимое из сегмента
+     */
+    private class SegmentResource extends AbstractResource {
+
+        private final String name;
+        private final Entry entry;
+
+        SegmentResource(String name, Entry entry) {
+            this.name = name;
+            this.entry = entry;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(read(name, 0, entry.length));
+        }
+
+        @Override
+        public boolean exists() {
+            return index.containsKey(name);
+        }
+
+        @Override
+        public long contentLength() {
+            return entry.length;
+        }
+
+        @Override
+        public long lastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public String getDescription() {
+            return "packed content [" + name + "]";
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.bellintegrator.filesharing.storage;
+
+/**
+ * Временный объект хранилища с уже посчитанными хешем и размером содержимого
+ */
+public interface StagedContent {
+
+    /**
+     * @return SHA-256 содержимого
+     */
+    String getHash();
+
+    /**
+     * @return размер содержимого в байтах
+     */
+    long getSize();
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Пакет содержит хранилища содержимого файлов
+ */
+package ru.bellintegrator.filesharing.storage;
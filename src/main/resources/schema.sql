@@ -3,7 +3,13 @@ CREATE TABLE IF NOT EXISTS file (
     version         INTEGER NOT NULL,
     file_name       VARCHAR(200) COMMENT 'Название файла',
     original_name   VARCHAR(200) COMMENT 'Оригинальное название файла',
-    download_count  INTEGER COMMENT 'Количество скачиваний'
+    download_count  INTEGER COMMENT 'Количество скачиваний',
+    content_hash    CHAR(64) COMMENT 'SHA-256 содержимого файла',
+    content_encoding VARCHAR(20) COMMENT 'Сжатие содержимого на диске',
+    size            BIGINT COMMENT 'Размер исходного содержимого в байтах',
+    content_type    VARCHAR(100) COMMENT 'Тип содержимого',
+    upload_date     TIMESTAMP COMMENT 'Дата загрузки файла',
+    deleted_date    TIMESTAMP COMMENT 'Дата удаления файла, NULL - файл не удален'
 )
 COMMENT 'Файл';
 
@@ -15,7 +21,9 @@ CREATE TABLE IF NOT EXISTS user (
     email               VARCHAR(50) NOT NULL COMMENT 'E-mail',
     code                VARCHAR(100) COMMENT 'Код регистрации',
     registration_date   DATETIME COMMENT 'Дата регистрации',
-    is_confirmed        BOOLEAN COMMENT 'Статус учетной записи (подтверждена или нет)'
+    is_confirmed        BOOLEAN COMMENT 'Статус учетной записи (подтверждена или нет)',
+    used_bytes          BIGINT NOT NULL DEFAULT 0 COMMENT 'Суммарный размер файлов пользователя в байтах',
+    quota_bytes         BIGINT COMMENT 'Квота пользователя в байтах, NULL - квота по умолчанию'
 )
 COMMENT 'Пользователь';
 
@@ -25,11 +33,37 @@ CREATE TABLE IF NOT EXISTS file (
     file_name       VARCHAR(200) COMMENT 'Название файла',
     original_name   VARCHAR(200) COMMENT 'Оригинальное название файла',
     download_count  INTEGER COMMENT 'Количество скачиваний',
+    content_hash    CHAR(64) COMMENT 'SHA-256 содержимого файла',
+    content_encoding VARCHAR(20) COMMENT 'Сжатие содержимого на диске',
+    size            BIGINT COMMENT 'Размер исходного содержимого в байтах',
+    content_type    VARCHAR(100) COMMENT 'Тип содержимого',
+    upload_date     TIMESTAMP COMMENT 'Дата загрузки файла',
+    deleted_date    TIMESTAMP COMMENT 'Дата удаления файла, NULL - файл не удален',
     user_id         INTEGER COMMENT 'Уникальный идентификатор пользователя, внешний ключ',
     FOREIGN KEY (user_id) REFERENCES User (id) ON DELETE CASCADE ON UPDATE CASCADE
 )
 COMMENT 'Файл';
 
+CREATE TABLE IF NOT EXISTS file_content (
+    hash            CHAR(64) PRIMARY KEY COMMENT 'SHA-256 содержимого, имя файла на диске',
+    size            BIGINT NOT NULL COMMENT 'Размер содержимого в байтах',
+    ref_count       INTEGER NOT NULL COMMENT 'Количество файлов, ссылающихся на содержимое',
+    encoding        VARCHAR(20) COMMENT 'Сжатие содержимого на диске, NULL - без сжатия'
+)
+COMMENT 'Содержимое файлов, хранящееся в единственном экземпляре';
+
+CREATE TABLE IF NOT EXISTS upload_session (
+    id              CHAR(36) PRIMARY KEY COMMENT 'Уникальный идентификатор сессии загрузки',
+    version         INTEGER NOT NULL,
+    original_name   VARCHAR(200) COMMENT 'Оригинальное название файла',
+    creation_date   TIMESTAMP NOT NULL COMMENT 'Дата создания сессии',
+    user_id         INTEGER NOT NULL COMMENT 'Уникальный идентификатор пользователя, внешний ключ',
+    file_id         INTEGER COMMENT 'Уникальный идентификатор загруженного файла, внешний ключ',
+    FOREIGN KEY (user_id) REFERENCES User (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    FOREIGN KEY (file_id) REFERENCES file (id) ON DELETE CASCADE ON UPDATE CASCADE
+)
+COMMENT 'Сессия докачиваемой загрузки файла';
+
 CREATE TABLE IF NOT EXISTS access (
 	user_id             INTEGER NOT NULL COMMENT 'Уникальный идентификатор пользователя, внешний ключ',
     subscriber_id       INTEGER NOT NULL COMMENT 'Уникальный идентификатор пользователя, запрашивающего доступ к файлу, внешний ключ',
@@ -44,4 +78,48 @@ CREATE TABLE IF NOT EXISTS access (
 )
 COMMENT 'Доступ к файлам для других пользователей';
 
+CREATE TABLE IF NOT EXISTS sharing_group (
+    id                  INTEGER PRIMARY KEY COMMENT 'Уникальный идентификатор группы',
+    version             INTEGER NOT NULL,
+    user_id             INTEGER NOT NULL COMMENT 'Уникальный идентификатор владельца группы, внешний ключ',
+    name                VARCHAR(100) NOT NULL COMMENT 'Название группы',
+    read_access         BOOLEAN COMMENT 'Доступ участников на чтение',
+    download_access     BOOLEAN COMMENT 'Доступ участников на скачивание',
+    FOREIGN KEY (user_id) REFERENCES User (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    UNIQUE (user_id, name)
+)
+COMMENT 'Группа пользователей, которой владелец предоставляет доступ к файлам';
+
+CREATE TABLE IF NOT EXISTS group_member (
+    group_id            INTEGER NOT NULL COMMENT 'Уникальный идентификатор группы, внешний ключ',
+    user_id             INTEGER NOT NULL COMMENT 'Уникальный идентификатор участника, внешний ключ',
+    FOREIGN KEY (group_id) REFERENCES sharing_group (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES User (id) ON DELETE CASCADE ON UPDATE CASCADE,
+    PRIMARY KEY (group_id, user_id)
+)
+COMMENT 'Участник группы';
+
+CREATE TABLE IF NOT EXISTS id_generator (
+    name            VARCHAR(64) PRIMARY KEY COMMENT 'Название таблицы',
+    next_val        BIGINT NOT NULL COMMENT 'Первый id следующего выделяемого блока'
+)
+COMMENT 'Блоки идентификаторов, выделяемые приложением для пакетных вставок';
+
+INSERT IGNORE INTO id_generator (name, next_val) SELECT 'user', COALESCE(MAX(id), 0) + 1 FROM user;
+INSERT IGNORE INTO id_generator (name, next_val) SELECT 'file', COALESCE(MAX(id), 0) + 1 FROM file;
+INSERT IGNORE INTO id_generator (name, next_val) SELECT 'sharing_group', COALESCE(MAX(id), 0) + 1 FROM sharing_group;
+
+UPDATE file f JOIN file_content c ON c.hash = f.content_hash SET f.size = c.size WHERE f.size IS NULL;
+UPDATE user u SET used_bytes = (SELECT COALESCE(SUM(f.size), 0) FROM file f
+    WHERE f.user_id = u.id AND f.deleted_date IS NULL);
+
 CREATE INDEX IX_User_Code ON User (code);
+CREATE INDEX IX_File_Deleted_Date ON file (deleted_date);
+CREATE INDEX IX_File_Content_Hash ON file (content_hash);
+CREATE INDEX IX_File_File_Name ON file (file_name);
+CREATE INDEX IX_File_User_Original_Name ON file (user_id, original_name);
+CREATE INDEX IX_File_User_Upload_Date ON file (user_id, upload_date);
+CREATE INDEX IX_File_User_Download_Count ON file (user_id, download_count);
+CREATE INDEX IX_Access_User_Requests ON access (user_id, read_request, download_request);
+CREATE INDEX IX_Group_Member_User ON group_member (user_id, group_id);
+CREATE INDEX IX_Upload_Session_Creation_Date ON upload_session (creation_date);
@@ -5,4 +5,20 @@
 
     <#include "parts/fileList.ftl" />
 
+    <nav>
+        <ul class="pagination">
+            <li class="page-item"><a class="page-link" href="/files">First</a></li>
+            <#if page.hasPrevious>
+                <li class="page-item"><a class="page-link" href="/files?before=${page.firstId?c}">Previous</a></li>
+            <#else>
+                <li class="page-item disabled"><span class="page-link">Previous</span></li>
+            </#if>
+            <#if page.hasNext>
+                <li class="page-item"><a class="page-link" href="/files?after=${page.lastId?c}">Next</a></li>
+            <#else>
+                <li class="page-item disabled"><span class="page-link">Next</span></li>
+            </#if>
+        </ul>
+    </nav>
+
 </@c.page>
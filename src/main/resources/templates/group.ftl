@@ -0,0 +1,81 @@
+<#include "parts/security.ftl">
+<#import "parts/common.ftl" as c>
+
+<@c.page>
+<h3>Group ${group.name?html}</h3>
+
+<div class="form-group mt-3">
+    <form action="/groups/${group.id?c}/access" method="post">
+        <div class="form-check form-check-inline">
+            <input class="form-check-input" type="checkbox" id="read" name="read" value="true"<#if group.readAccess> checked</#if> />
+            <label class="form-check-label" for="read">Members can read my files</label>
+        </div>
+        <div class="form-check form-check-inline">
+            <input class="form-check-input" type="checkbox" id="download" name="download" value="true"<#if group.downloadAccess> checked</#if> />
+            <label class="form-check-label" for="download">Members can download my files</label>
+        </div>
+        <input type="hidden" name="_csrf" value="${_csrf.token}" />
+        <button class="btn btn-primary" type="submit">Save</button>
+    </form>
+</div>
+
+<div class="form-group">
+    <form action="/groups/${group.id?c}/members" method="post" class="form-inline">
+        <input type="text" name="username" class="form-control mr-2" placeholder="User name" />
+        <input type="hidden" name="_csrf" value="${_csrf.token}" />
+        <button class="btn btn-primary" type="submit">Add member</button>
+    </form>
+</div>
+
+<#if page??>
+    <p>Members: ${page.totalElements}</p>
+</#if>
+
+<table class="table table-striped">
+    <thead class="thead-light">
+        <tr>
+            <th>User Name</th>
+            <th></th>
+        </tr>
+    </thead>
+    <tbody>
+        <#list members as member>
+            <tr>
+                <td><a href="/${member.user.id?c}/files">${member.user.username}</a></td>
+                <td><button class="btn btn-secondary" onclick="deleteData('/groups/${group.id?c}/members/${member.user.id?c}')">Remove</button></td>
+            </tr>
+        </#list>
+    </tbody>
+</table>
+
+<#if page?? && page.totalPages gt 1>
+    <nav>
+        <ul class="pagination">
+            <#list ([page.number - 5, 0]?max)..([page.number + 5, page.totalPages - 1]?min) as number>
+                <li class="page-item<#if number == page.number> active</#if>">
+                    <a class="page-link" href="/groups/${group.id?c}?page=${number?c}">${number + 1}</a>
+                </li>
+            </#list>
+        </ul>
+    </nav>
+</#if>
+
+<button class="btn btn-danger" onclick="deleteData('/groups/${group.id?c}')">Delete group</button>
+
+<script type="text/javascript">
+    function deleteData(url) {
+        var token = $("input[name='_csrf']").val();
+        fetch(url, {
+            method: 'DELETE',
+            headers: {
+                'X-CSRF-TOKEN': token
+            },
+            credentials: 'include'
+            }).then(function(response) {
+                return response.text();
+            }).then(function(html) {
+                document.documentElement.innerHTML = html;
+            });
+    }
+</script>
+</@c.page>
@@ -0,0 +1,33 @@
+<#include "parts/security.ftl">
+<#import "parts/common.ftl" as c>
+
+<@c.page>
+<h3>My groups</h3>
+
+<div class="form-group mt-3">
+    <form action="/groups" method="post" class="form-inline">
+        <input type="text" name="name" class="form-control mr-2" placeholder="Group name" maxlength="100" />
+        <input type="hidden" name="_csrf" value="${_csrf.token}" />
+        <button class="btn btn-primary" type="submit">Create group</button>
+    </form>
+</div>
+
+<table class="table table-striped">
+    <thead class="thead-light">
+        <tr>
+            <th>Group</th>
+            <th>Read</th>
+            <th>Download</th>
+        </tr>
+    </thead>
+    <tbody>
+        <#list groups as group>
+            <tr>
+                <td><a href="/groups/${group.id?c}">${group.name?html}</a></td>
+                <td>${group.readAccess?then("Yes", "No")}</td>
+                <td>${group.downloadAccess?then("Yes", "No")}</td>
+            </tr>
+        </#list>
+    </tbody>
+</table>
+</@c.page>
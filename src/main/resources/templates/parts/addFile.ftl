@@ -1,10 +1,44 @@
 <h5>Add file</h5>
 
 <div class="form-group mt-3">
-    <form method="post" enctype="multipart/form-data">
-        <input type="file" name="file">
+    <form id="addFileForm" method="post" enctype="multipart/form-data">
+        <input type="file" name="file" multiple>
         <input type="hidden" name="_csrf" value="${_csrf.token}" />
         <button class="btn btn-primary" type="submit">Add file</button>
     </form>
 </div>
 
+<script>
+    <#-- Файл отправляется телом PUT-запроса без multipart, если браузер поддерживает fetch.
+         Несколько файлов отправляются одним multipart-запросом -->
+    document.getElementById("addFileForm").addEventListener("submit", function (event) {
+        var files = this.elements["file"].files;
+        if (files.length > 1) {
+            this.action = window.location.pathname + "/batch";
+            return;
+        }
+        var file = files[0];
+        if (!file || !window.fetch) {
+            return;
+        }
+        event.preventDefault();
+        var headers = {"Content-Type": "application/octet-stream"};
+        headers["${_csrf.headerName}"] = "${_csrf.token}";
+        fetch(window.location.pathname + "?name=" + encodeURIComponent(file.name), {
+            method: "PUT",
+            credentials: "same-origin",
+            headers: headers,
+            body: file
+        }).then(function (response) {
+            if (response.ok) {
+                window.location.reload();
+            } else {
+                response.text().then(function (page) {
+                    document.open();
+                    document.write(page);
+                    document.close();
+                });
+            }
+        });
+    });
+</script>
@@ -22,6 +22,9 @@
                 <li class="nav-item">
                     <a class="nav-link" href="/subscribers">My subscribers</a>
                 </li>
+                <li class="nav-item">
+                    <a class="nav-link" href="/groups">My groups</a>
+                </li>
                 <li class="nav-item">
                     <a class="nav-link" href="/users">Users</a>
                 </li>
@@ -4,6 +4,28 @@
 <@c.page>
 <h3>List of my requesting subscribers</h3>
 
+<#if page??>
+    <p>Pending requests: ${page.totalElements}</p>
+</#if>
+
+<#if accesses?hasContent>
+    <form id="bulk" method="post" class="mb-2">
+        <input type="hidden" name="_csrf" value="${_csrf.token}" />
+        Selected:
+        <button class="btn btn-primary" type="submit" formaction="/subscribers/allow" name="type" value="read">Allow read</button>
+        <button class="btn btn-primary" type="submit" formaction="/subscribers/allow" name="type" value="download">Allow download</button>
+        <button class="btn btn-secondary" type="submit" formaction="/subscribers/deny" name="type" value="read">Deny read</button>
+        <button class="btn btn-secondary" type="submit" formaction="/subscribers/deny" name="type" value="download">Deny download</button>
+    </form>
+    <form action="/subscribers/allow" method="post" class="mb-2">
+        <input type="hidden" name="_csrf" value="${_csrf.token}" />
+        <input type="hidden" name="all" value="true" />
+        All pending:
+        <button class="btn btn-primary" type="submit" name="type" value="read">Allow all read</button>
+        <button class="btn btn-primary" type="submit" name="type" value="download">Allow all download</button>
+    </form>
+</#if>
+
 <#if message??>
     <div class="form-group row">
         <div class="col-sm-8">
@@ -17,6 +39,7 @@
 <table class="table table-striped">
     <thead class="thead-light">
         <tr>
+            <th></th>
             <th>User Name</th>
             <th>Request to read</th>
             <th>Request to download</th>
@@ -26,11 +49,12 @@
         <#if accesses??>
             <#list accesses as access>
                 <tr>
-                    <td><a href="/${access.subscriber.id}/files">${access.subscriber.username}</a></td>
+                    <td><input type="checkbox" name="id" value="${access.subscriber.id?c}" form="bulk" /></td>
+                    <td><a href="/${access.subscriber.id?c}/files">${access.subscriber.username}</a></td>
 
                     <#if access.readRequest>
                         <td>
-                            <form action="/allowread/${access.subscriber.id}" method="post">
+                            <form action="/allowread/${access.subscriber.id?c}" method="post">
                                 <input type="hidden" name="_csrf" value="${_csrf.token}" />
                                 <button class="btn btn-primary" type="submit">Allow</button>
                             </form>
@@ -40,7 +64,7 @@
 
                     <#if access.downloadRequest>
                         <td>
-                            <form action="/allowdownload/${access.subscriber.id}" method="post">
+                            <form action="/allowdownload/${access.subscriber.id?c}" method="post">
                                 <input type="hidden" name="_csrf" value="${_csrf.token}" />
                                 <button class="btn btn-primary" type="submit">Allow</button>
                             </form>
@@ -53,4 +77,16 @@
     </tbody>
 </table>
 
+<#if page?? && page.totalPages gt 1>
+    <nav>
+        <ul class="pagination">
+            <#list ([page.number - 5, 0]?max)..([page.number + 5, page.totalPages - 1]?min) as number>
+                <li class="page-item<#if number == page.number> active</#if>">
+                    <a class="page-link" href="/subscribers?page=${number?c}">${number + 1}</a>
+                </li>
+            </#list>
+        </ul>
+    </nav>
+</#if>
+
 </@c.page>
\ No newline at end of file
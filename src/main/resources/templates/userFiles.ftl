@@ -7,6 +7,9 @@
 </#if>
 
 <h3>File list of ${fileOwner.username}</h3>
+<#if isFileOwner>
+    <p class="text-muted">Used: ${(fileOwner.usedBytes)!0} bytes<#if fileOwner.quotaBytes??> of ${fileOwner.quotaBytes}</#if></p>
+</#if>
 
 <#if info??>
     <div class="alert alert-info">
@@ -25,5 +28,32 @@
     </form>
 </#if>
 
+<#if !(readAccess!true) && files?hasContent>
+    <a class="btn btn-secondary mb-2" href="/${fileOwner.id?c}/files/zip">Download all (ZIP)</a>
+</#if>
+
+<#if page??>
+    <div class="mb-2">
+        Sort by:
+        <#list sortFields as field>
+            <#assign fieldDir = (sort == field && dir == "asc")?then("desc", "asc")>
+            <a class="btn btn-link<#if sort == field> font-weight-bold</#if>"
+               href="/${fileOwner.id?c}/files?sort=${field}&dir=${fieldDir}">${field?capFirst}<#if sort == field> (${dir})</#if></a>
+        </#list>
+    </div>
+</#if>
+
 <#include "parts/fileList.ftl" />
+
+<#if page?? && page.totalPages gt 1>
+    <nav>
+        <ul class="pagination">
+            <#list ([page.number - 5, 0]?max)..([page.number + 5, page.totalPages - 1]?min) as number>
+                <li class="page-item<#if number == page.number> active</#if>">
+                    <a class="page-link" href="/${fileOwner.id?c}/files?page=${number?c}&sort=${sort}&dir=${dir}">${number + 1}</a>
+                </li>
+            </#list>
+        </ul>
+    </nav>
+</#if>
 </@c.page>
\ No newline at end of file
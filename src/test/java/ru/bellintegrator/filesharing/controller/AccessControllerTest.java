@@ -6,22 +6,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import ru.bellintegrator.filesharing.configuration.WebSecurityConfig;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
 import ru.bellintegrator.filesharing.service.AccessService;
+import ru.bellintegrator.filesharing.service.FileService;
 import ru.bellintegrator.filesharing.service.UserService;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
@@ -29,6 +36,7 @@ import static org.springframework.security.test.web.servlet.response.SecurityMoc
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
@@ -48,6 +56,9 @@ public class AccessControllerTest {
     @MockBean
     private AccessService accessService;
 
+    @MockBean
+    private FileService fileService;
+
     @MockBean
     private UserService userService;
 
@@ -167,13 +178,40 @@ public class AccessControllerTest {
         access.setReadAccess(true);
         List<Access> accessList = Collections.singletonList(access);
 
-        when(accessService.getRequestingAccesses(fileOwner)).thenReturn(accessList);
+        Page<Access> page = new PageImpl<>(accessList, PageRequest.of(1, 1), 3);
 
-        mockMvc.perform(get("/subscribers").with(user(fileOwner)))
+        when(accessService.getRequestingAccesses(fileOwner, 1)).thenReturn(page);
+
+        mockMvc.perform(get("/subscribers").param("page", "1").with(user(fileOwner)))
                 .andDo(print())
                 .andExpect(authenticated())
                 .andExpect(status().isOk())
-                .andExpect(model().attribute("accesses", accessList));
+                .andExpect(model().attribute("accesses", accessList))
+                .andExpect(model().attribute("page", page))
+                .andExpect(content().string(containsString("Pending requests: 3")))
+                .andExpect(content().string(containsString("href=\"/subscribers?page=2\"")))
+                .andExpect(content().string(containsString("form=\"bulk\"")));
+    }
+
+    /**
+     * Тест списка подписчиков с id больше 999: id выводятся без разделителя разрядов
+     */
+    @Test
+    public void showRequestingSubscribersLargeIdTest() throws Exception {
+        User subscriber = new User(1234, "Ivan", "ivan", "example@example.com", null, true);
+        Access access = new Access(fileOwner, subscriber);
+        access.setReadRequest(true);
+        access.setReadAccess(true);
+        Page<Access> page = new PageImpl<>(Collections.singletonList(access), PageRequest.of(0, 1), 1);
+
+        when(accessService.getRequestingAccesses(fileOwner, 0)).thenReturn(page);
+
+        mockMvc.perform(get("/subscribers").with(user(fileOwner)))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("value=\"1234\"")))
+                .andExpect(content().string(containsString("/allowread/1234")))
+                .andExpect(content().string(containsString("/1234/files")));
     }
 
     /**
@@ -181,7 +219,7 @@ public class AccessControllerTest {
      */
     @Test
     public void showRequestingSubscribersTest2() throws Exception {
-        when(accessService.getRequestingAccesses(fileOwner)).thenReturn(Collections.EMPTY_LIST);
+        when(accessService.getRequestingAccesses(fileOwner, 0)).thenReturn(new PageImpl<>(Collections.emptyList()));
 
         mockMvc.perform(get("/subscribers").with(user(fileOwner)))
                 .andDo(print())
@@ -280,13 +318,53 @@ public class AccessControllerTest {
                 .andExpect(model().attribute("error", "There is no requesting access"));
     }
 
+    /**
+     * Тест массового одобрения запросов выбранных подписчиков
+     */
+    @Test
+    public void allowRequestsTest() throws Exception {
+        mockMvc.perform(post("/subscribers/allow").param("type", "download").param("id", "2", "3")
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(redirectedUrl("/subscribers"));
+
+        verify(accessService).allowRequests(fileOwner, Arrays.asList(2, 3), true);
+    }
+
+    /**
+     * Тест отклонения всех запросов на чтение
+     */
+    @Test
+    public void denyAllRequestsTest() throws Exception {
+        mockMvc.perform(post("/subscribers/deny").param("type", "read").param("all", "true")
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(redirectedUrl("/subscribers"));
+
+        verify(accessService).denyRequests(fileOwner, null, false);
+    }
+
+    /**
+     * Тест массового изменения запросов неизвестного типа
+     */
+    @Test
+    public void allowRequestsUnknownTypeTest() throws Exception {
+        mockMvc.perform(post("/subscribers/allow").param("type", "write").param("all", "true")
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isNotFound())
+                .andExpect(model().attribute("error", "Unknown request type"));
+    }
+
     /**
      * Тест метода, который отображает файлы пользователя, если нет какого-либо доступа
      */
     @Test
     public void showUserFilesWithNoAccessTest() throws Exception {
         when(accessService.findUserById("1")).thenReturn(fileOwner);
-        when(accessService.findAccess("1", notOwner)).thenReturn(null);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.NONE);
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -307,7 +385,7 @@ public class AccessControllerTest {
         Access access = new Access(fileOwner, notOwner);
         access.setReadAccess(true);
         access.setReadRequest(true);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -328,7 +406,7 @@ public class AccessControllerTest {
         Access access = new Access(fileOwner, notOwner);
         access.setDownloadAccess(true);
         access.setDownloadRequest(true);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -347,7 +425,7 @@ public class AccessControllerTest {
     public void showUserFilesWithNoAccessTest4() throws Exception {
         when(accessService.findUserById("1")).thenReturn(fileOwner);
         Access access = new Access(fileOwner, notOwner);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -369,11 +447,11 @@ public class AccessControllerTest {
         UserFile file = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         file.setUser(fileOwner);
-        Set<UserFile> files = Collections.singleton(file);
-        fileOwner.setFiles(files);
+        List<UserFile> files = Collections.singletonList(file);
+        when(fileService.findOwnerFiles(fileOwner, 0, "date", true)).thenReturn(new PageImpl<>(files));
         Access access = new Access(fileOwner, notOwner);
         access.setReadAccess(true);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -385,6 +463,28 @@ public class AccessControllerTest {
                 .andExpect(model().attribute("isFileOwner", false));
     }
 
+    /**
+     * Тест страницы файлов владельца с id и номером страницы больше 999: ссылки на страницы и ZIP-архив
+     * выводятся без разделителя разрядов
+     */
+    @Test
+    public void showUserFilesLargeIdTest() throws Exception {
+        User largeIdOwner = new User(1234, "Ivan", "ivan", "example@example.com", null, true);
+        when(accessService.findUserById("1234")).thenReturn(largeIdOwner);
+
+        UserFile file = new UserFile(5, "test", "test.txt", 0);
+        file.setUser(largeIdOwner);
+        Page<UserFile> page = new PageImpl<>(Collections.singletonList(file), PageRequest.of(1000, 1), 2000);
+        when(fileService.findOwnerFiles(largeIdOwner, 1000, "date", true)).thenReturn(page);
+
+        mockMvc.perform(get("/1234/files?page=1000").with(user(largeIdOwner)))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("href=\"/1234/files?sort=name&dir=asc\"")))
+                .andExpect(content().string(containsString("href=\"/1234/files?page=1001&sort=date&dir=desc\"")))
+                .andExpect(content().string(containsString("href=\"/1234/files/zip\"")));
+    }
+
     /**
      * Тест метода, который отображает файлы пользователя с доступом на чтение и запросом на скачивание
      */
@@ -395,13 +495,13 @@ public class AccessControllerTest {
         UserFile file = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         file.setUser(fileOwner);
-        Set<UserFile> files = Collections.singleton(file);
-        fileOwner.setFiles(files);
+        List<UserFile> files = Collections.singletonList(file);
+        when(fileService.findOwnerFiles(fileOwner, 0, "date", true)).thenReturn(new PageImpl<>(files));
         Access access = new Access(fileOwner, notOwner);
         access.setReadAccess(true);
         access.setDownloadAccess(true);
         access.setDownloadRequest(true);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -423,11 +523,11 @@ public class AccessControllerTest {
         UserFile file = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         file.setUser(fileOwner);
-        Set<UserFile> files = Collections.singleton(file);
-        fileOwner.setFiles(files);
+        List<UserFile> files = Collections.singletonList(file);
+        when(fileService.findOwnerFiles(fileOwner, 0, "date", true)).thenReturn(new PageImpl<>(files));
         Access access = new Access(fileOwner, notOwner);
         access.setDownloadAccess(true);
-        when(accessService.findAccess("1", notOwner)).thenReturn(access);
+        when(accessService.findAccessDecision("1", notOwner)).thenReturn(AccessDecision.of(access));
 
         mockMvc.perform(get("/1/files").with(user(notOwner)))
                 .andDo(print())
@@ -449,8 +549,8 @@ public class AccessControllerTest {
         UserFile file = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         file.setUser(fileOwner);
-        Set<UserFile> files = Collections.singleton(file);
-        fileOwner.setFiles(files);
+        List<UserFile> files = Collections.singletonList(file);
+        when(fileService.findOwnerFiles(fileOwner, 0, "date", true)).thenReturn(new PageImpl<>(files));
 
         mockMvc.perform(get("/1/files").with(user(fileOwner)))
                 .andDo(print())
@@ -461,4 +561,33 @@ public class AccessControllerTest {
                 .andExpect(model().attribute("fileOwner", fileOwner))
                 .andExpect(model().attribute("isFileOwner", true));
     }
+
+    /**
+     * Тест метода, который отображает страницу файлов владельца, отсортированных по имени
+     */
+    @Test
+    public void showUserFilesSortedPageTest() throws Exception {
+        when(accessService.findUserById("1")).thenReturn(fileOwner);
+
+        UserFile file = new UserFile(5,
+                "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
+        file.setUser(fileOwner);
+        UserFile file2 = new UserFile(6,
+                "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test2.txt", 0);
+        file2.setUser(fileOwner);
+        List<UserFile> files = Arrays.asList(file, file2);
+        when(fileService.findOwnerFiles(fileOwner, 1, "name", false))
+                .thenReturn(new PageImpl<>(files, PageRequest.of(1, 2), 6));
+
+        mockMvc.perform(get("/1/files").param("page", "1").param("sort", "name").param("dir", "asc")
+                .with(user(fileOwner)))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("files", files))
+                .andExpect(model().attribute("sort", "name"))
+                .andExpect(content().string(containsString("/1/files?page=2&sort=name&dir=asc")))
+                .andExpect(content().string(containsString("/1/files?sort=name&dir=desc")));
+        verify(fileService).findOwnerFiles(fileOwner, 1, "name", false);
+    }
 }
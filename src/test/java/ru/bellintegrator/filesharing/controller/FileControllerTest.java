@@ -1,5 +1,7 @@
 package ru.bellintegrator.filesharing.controller;
 
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,25 +11,58 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
 import ru.bellintegrator.filesharing.configuration.WebSecurityConfig;
 import ru.bellintegrator.filesharing.exception.AccessException;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.service.FilePage;
 import ru.bellintegrator.filesharing.service.FileService;
+import ru.bellintegrator.filesharing.service.UserFileResource;
 import ru.bellintegrator.filesharing.service.UserService;
+import ru.bellintegrator.filesharing.storage.GzipContentCodec;
+import ru.bellintegrator.filesharing.storage.InMemoryFileStore;
 
+import javax.servlet.ServletInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -37,10 +72,13 @@ import static org.springframework.security.test.web.servlet.response.SecurityMoc
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
 
@@ -67,6 +105,18 @@ public class FileControllerTest {
     private User fileOwner = new User(1, "Maria", "maria", "example@example.com", null, true);
     private User notOwner = new User(2, "John", "john", "example@example.com", null, true);
 
+    private static final String TEST_FILE_NAME = "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt";
+
+    /**
+     * SHA-256 строки "test"
+     */
+    private static final String TEST_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Before
+    public void init() {
+        when(fileService.findFile(any(), any())).thenReturn(new UserFile(5, TEST_FILE_NAME, "test.txt", 0));
+    }
+
     /**
      * Тест метода, возвращающего список файлов
      */
@@ -77,14 +127,16 @@ public class FileControllerTest {
         file.setUser(fileOwner);
         List<UserFile> files = Collections.singletonList(file);
 
-        when(fileService.findAllFiles()).thenReturn(files);
+        when(fileService.findFiles(3, null)).thenReturn(new FilePage(files, true, true));
 
-        mockMvc.perform(get("/files").with(user(fileOwner))
+        mockMvc.perform(get("/files").param("after", "3").with(user(fileOwner))
                 .contentType(MediaType.TEXT_HTML))
                 .andDo(print())
                 .andExpect(authenticated())
                 .andExpect(status().isOk())
-                .andExpect(model().attribute("files", files));
+                .andExpect(model().attribute("files", files))
+                .andExpect(content().string(containsString("/files?before=5")))
+                .andExpect(content().string(containsString("/files?after=5")));
     }
 
     /**
@@ -106,6 +158,79 @@ public class FileControllerTest {
         verify(fileService).uploadFile(fileOwner, multipartFile);
     }
 
+    /**
+     * Тест метода сохранения нескольких файлов одним запросом
+     *
+     * @throws Exception
+     */
+    @Test
+    public void uploadFilesTest() throws Exception {
+        MockMultipartFile first = new MockMultipartFile("file", "test.txt", "text/plain", "test".getBytes());
+        MockMultipartFile second = new MockMultipartFile("file", "test2.txt", "text/plain", "test2".getBytes());
+        mockMvc.perform(multipart("/1/files/batch").file(first).file(second).with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isFound())
+                .andExpect(redirectedUrl("/1/files"));
+        verify(fileService).uploadFiles(eq(fileOwner), argThat(files -> files.size() == 2
+                && "test2.txt".equals(files.get(1).getOriginalFilename())));
+    }
+
+    /**
+     * Тест метода сохранения файла из тела запроса
+     *
+     * @throws Exception
+     */
+    @Test
+    public void uploadFileStreamTest() throws Exception {
+        when(fileService.uploadFile(eq(fileOwner), eq("test2.txt"), any(InputStream.class)))
+                .thenReturn(new UserFile(5, TEST_FILE_NAME, "test2.txt", 0));
+        mockMvc.perform(put("/1/files").param("name", "test2.txt")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM).content("test2".getBytes())
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Location", "/files/5"));
+        verify(fileService).uploadFile(eq(fileOwner), eq("test2.txt"), any(InputStream.class));
+    }
+
+    /**
+     * Тест отклонения загрузки, которая не помещается в квоту, по заголовку Content-Length до чтения тела
+     *
+     * @throws Exception
+     */
+    @Test
+    public void uploadFileStreamQuotaExceededTest() throws Exception {
+        doThrow(new QuotaExceededException("Storage quota exceeded!")).when(fileService).checkQuota(fileOwner, 5);
+        mockMvc.perform(put("/1/files").param("name", "test2.txt")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM).content("test2".getBytes())
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isPayloadTooLarge());
+        verify(fileService, never()).uploadFile(eq(fileOwner), eq("test2.txt"), any(InputStream.class));
+    }
+
+    /**
+     * Тест отклонения multipart-загрузки, которая не помещается в квоту, до чтения тела запроса:
+     * фильтры перед проверкой квоты не должны запрашивать параметры формы
+     *
+     * @throws Exception
+     */
+    @Test
+    public void uploadMultipartQuotaExceededTest() throws Exception {
+        AtomicBoolean quotaChecked = new AtomicBoolean();
+        doAnswer(invocation -> {
+            quotaChecked.set(true);
+            throw new QuotaExceededException("Storage quota exceeded!");
+        }).when(fileService).checkQuota(fileOwner, 5);
+        mockMvc.perform(post("/1/files").contentType(MediaType.MULTIPART_FORM_DATA).content("test2".getBytes())
+                .with(unreadableBodyUntil(quotaChecked)).with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isPayloadTooLarge());
+        verify(fileService, never()).uploadFile(any(User.class), any(MultipartFile.class));
+    }
+
     /**
      * Тест метода сохранения непереданного файла
      *
@@ -167,6 +292,224 @@ public class FileControllerTest {
                 .andExpect(content().string("test"));
     }
 
+    /**
+     * Тест метода загрузки файла, если контейнер поддерживает sendfile
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFileWithSendfileTest() throws Exception {
+        Path file = Paths.get(uploadPath).resolve("sendfile.test.bin");
+        Files.write(file, new byte[64 * 1024]);
+        try {
+            Resource resource = new UrlResource(file.toUri());
+            when(fileService.downloadFile(fileOwner, "6")).thenReturn(resource);
+            mockMvc.perform(get("/files/6").with(user(fileOwner))
+                    .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+                    .andDo(print())
+                    .andExpect(authenticated())
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Content-Length", "65536"))
+                    .andExpect(request().attribute("org.apache.tomcat.sendfile.filename",
+                            file.toFile().getCanonicalPath()))
+                    .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 0L))
+                    .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 65536L))
+                    .andExpect(content().string(""));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Тест метода загрузки сжатого файла клиентом, принимающим gzip
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadEncodedFileTest() throws Exception {
+        byte[] encoded = StreamUtils.copyToByteArray(
+                new GzipContentCodec().encode(new ByteArrayInputStream("test".getBytes())));
+        when(fileService.downloadFile(fileOwner, "7")).thenReturn(createEncodedResource(encoded));
+        mockMvc.perform(get("/files/7").with(user(fileOwner)).header("Accept-Encoding", "deflate, gzip"))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andExpect(header().string("Content-Length", String.valueOf(encoded.length)))
+                .andExpect(content().bytes(encoded));
+    }
+
+    /**
+     * Тест метода загрузки сжатого файла клиентом, не принимающим gzip, в том числе с частью файла
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadEncodedFileWithoutAcceptEncodingTest() throws Exception {
+        byte[] encoded = StreamUtils.copyToByteArray(
+                new GzipContentCodec().encode(new ByteArrayInputStream("test".getBytes())));
+        when(fileService.downloadFile(fileOwner, "7")).thenReturn(createEncodedResource(encoded));
+        when(fileService.downloadFile(fileOwner, "7", true)).thenReturn(createEncodedResource(encoded));
+        mockMvc.perform(get("/files/7").with(user(fileOwner)).header("Accept-Encoding", "gzip;q=0, *"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(content().string("test"));
+        mockMvc.perform(get("/files/7").with(user(fileOwner)).header("Range", "bytes=0-1"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string("Accept-Ranges", "none"))
+                .andExpect(content().string("test"));
+    }
+
+    /**
+     * Тест метода загрузки части файла
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFileRangeTest() throws Exception {
+        Resource resource = new UrlResource(Paths.get(uploadPath).resolve(TEST_FILE_NAME).toUri());
+        when(fileService.downloadFile(fileOwner, "5", false)).thenReturn(resource);
+        mockMvc.perform(get("/files/5").with(user(fileOwner)).header("Range", "bytes=1-2"))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 1-2/4"))
+                .andExpect(header().string("Content-Length", "2"))
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(content().string("es"));
+    }
+
+    /**
+     * Тест метода загрузки нескольких частей файла
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFileMultiRangeTest() throws Exception {
+        Resource resource = new UrlResource(Paths.get(uploadPath).resolve(TEST_FILE_NAME).toUri());
+        when(fileService.downloadFile(fileOwner, "5", true)).thenReturn(resource);
+        mockMvc.perform(get("/files/5").with(user(fileOwner)).header("Range", "bytes=0-0,3-3"))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Type", startsWith("multipart/byteranges")))
+                .andExpect(content().string(containsString("Content-Range: bytes 0-0/4")))
+                .andExpect(content().string(containsString("Content-Range: bytes 3-3/4")));
+    }
+
+    /**
+     * Тест метода загрузки части файла за его пределами
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFileNotSatisfiableRangeTest() throws Exception {
+        Resource resource = new UrlResource(Paths.get(uploadPath).resolve(TEST_FILE_NAME).toUri());
+        when(fileService.downloadFile(fileOwner, "5", false)).thenReturn(resource);
+        mockMvc.perform(get("/files/5").with(user(fileOwner)).header("Range", "bytes=10-20"))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */4"));
+    }
+
+    /**
+     * Тест метода загрузки части файла, если файл изменился после даты из If-Range
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFileChangedIfRangeTest() throws Exception {
+        Resource resource = new UrlResource(Paths.get(uploadPath).resolve(TEST_FILE_NAME).toUri());
+        when(fileService.downloadFile(fileOwner, "5", false)).thenReturn(resource);
+        mockMvc.perform(get("/files/5").with(user(fileOwner))
+                .header("Range", "bytes=1-2")
+                .header("If-Range", "Thu, 01 Jan 1970 00:00:00 GMT"))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Length", "4"))
+                .andExpect(content().string("test"));
+    }
+
+    /**
+     * Тест условного запроса файла с актуальным ETag
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadNotModifiedFileTest() throws Exception {
+        when(fileService.findFile(fileOwner, "5")).thenReturn(createUploadedFile());
+        mockMvc.perform(get("/files/5").with(user(fileOwner)).header("If-None-Match", "\"" + TEST_HASH + "\""))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"" + TEST_HASH + "\""))
+                .andExpect(header().dateValue("Last-Modified", 1500000000000L))
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/files/5").with(user(fileOwner)).header("Range", "bytes=1-2")
+                .header("If-None-Match", "W/\"other\", W/\"" + TEST_HASH + "\""))
+                .andDo(print())
+                .andExpect(status().isNotModified());
+        verify(fileService, times(0)).downloadFile(any(), any());
+        verify(fileService, times(0)).downloadFile(any(), any(), anyBoolean());
+    }
+
+    /**
+     * Тест условного запроса файла по дате изменения
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadNotModifiedSinceFileTest() throws Exception {
+        when(fileService.findFile(fileOwner, "5")).thenReturn(createUploadedFile());
+        mockMvc.perform(get("/files/5").with(user(fileOwner))
+                .header("If-Modified-Since", "Fri, 14 Jul 2017 02:40:00 GMT"))
+                .andDo(print())
+                .andExpect(status().isNotModified());
+        verify(fileService, times(0)).downloadFile(any(), any());
+    }
+
+    /**
+     * Тест условного запроса измененного файла: файл отдается целиком с новыми ETag и Last-Modified
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadModifiedFileTest() throws Exception {
+        UserFile userFile = createUploadedFile();
+        when(fileService.findFile(fileOwner, "5")).thenReturn(userFile);
+        Resource content = new UrlResource(Paths.get(uploadPath).resolve(TEST_FILE_NAME).toUri());
+        when(fileService.downloadFile(fileOwner, "5")).thenReturn(new UserFileResource(content, userFile));
+        mockMvc.perform(get("/files/5").with(user(fileOwner))
+                .header("If-None-Match", "\"other\"")
+                .header("If-Modified-Since", "Fri, 14 Jul 2017 02:40:00 GMT"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + TEST_HASH + "\""))
+                .andExpect(header().dateValue("Last-Modified", 1500000000000L))
+                .andExpect(content().string("test"));
+    }
+
+    /**
+     * Тест условного запроса файла пользователем, не имеющим доступа
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadNotModifiedFileByNotOwnerTest() throws Exception {
+        when(fileService.findFile(notOwner, "5"))
+                .thenThrow(new AccessException("You need permission to perform this action!"));
+
+        mockMvc.perform(get("/files/5").with(user(notOwner)).header("If-None-Match", "\"" + TEST_HASH + "\""))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isForbidden());
+    }
+
     /**
      * Тест метода загрузки файла пользователем-не владельцем и не имеющим доступа
      *
@@ -290,4 +633,184 @@ public class FileControllerTest {
                 .andExpect(status().isNotFound())
                 .andExpect(model().attribute("error", "The file was not deleted!"));
     }
+
+    /**
+     * Тест метода загрузки файлов владельца одним ZIP-архивом: уже сжатые форматы не сжимаются повторно,
+     * сжатое при хранении содержимое распаковывается, одинаковые имена получают номер
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFilesZipTest() throws Exception {
+        byte[] png = {(byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a, 1, 2, 3};
+        byte[] text = String.join("", Collections.nCopies(512, "test")).getBytes();
+        List<UserFileResource> files = Arrays.asList(
+                createResource(5, "image.png", png, null),
+                createResource(6, "test.txt",
+                        StreamUtils.copyToByteArray(new GzipContentCodec().encode(new ByteArrayInputStream(text))), "gzip"),
+                createResource(7, "test.txt", "test".getBytes(), null));
+        when(fileService.downloadFiles(notOwner, "1", Arrays.asList(5, 6, 7))).thenReturn(files);
+
+        MvcResult result = mockMvc.perform(get("/1/files/zip").param("id", "5", "6", "7").with(user(notOwner)))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files-1.zip\""))
+                .andReturn();
+
+        try (ZipInputStream zip = new ZipInputStream(
+                new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            ZipEntry entry = zip.getNextEntry();
+            Assert.assertEquals("image.png", entry.getName());
+            Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            Assert.assertArrayEquals(png, StreamUtils.copyToByteArray(zip));
+            Assert.assertTrue(entry.getCompressedSize() > png.length);
+            entry = zip.getNextEntry();
+            Assert.assertEquals("test.txt", entry.getName());
+            Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            Assert.assertArrayEquals(text, StreamUtils.copyToByteArray(zip));
+            entry = zip.getNextEntry();
+            Assert.assertEquals("test (2).txt", entry.getName());
+            Assert.assertEquals("test", StreamUtils.copyToString(zip, StandardCharsets.UTF_8));
+            Assert.assertNull(zip.getNextEntry());
+        }
+        verify(fileService).countDownload(5);
+        verify(fileService).countDownload(6);
+        verify(fileService).countDownload(7);
+    }
+
+    /**
+     * Тест загрузки архивом файлов, имена которых содержат путь: в архив попадает только последний элемент пути
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFilesZipPathNamesTest() throws Exception {
+        List<UserFileResource> files = Arrays.asList(
+                createResource(5, "../../etc/passwd", "test".getBytes(), null),
+                createResource(6, "C:\\Windows\\..\\passwd", "test".getBytes(), null),
+                createResource(7, "/abs/..", "test".getBytes(), null),
+                createResource(8, "D:evil.txt", "test".getBytes(), null));
+        when(fileService.downloadFiles(notOwner, "1", null)).thenReturn(files);
+
+        MvcResult result = mockMvc.perform(get("/1/files/zip").with(user(notOwner)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(
+                new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("passwd", "passwd (2)", "file", "evil.txt"), names);
+    }
+
+    /**
+     * Тест метода загрузки файлов архивом без доступа к скачиванию
+     *
+     * @throws Exception
+     */
+    @Test
+    public void downloadFilesZipWithoutAccessTest() throws Exception {
+        when(fileService.downloadFiles(notOwner, "1", null))
+                .thenThrow(new AccessException("You need permission to perform this action!"));
+
+        mockMvc.perform(get("/1/files/zip").with(user(notOwner)))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isForbidden());
+    }
+
+    /**
+     * Создает загруженный файл с известными хешем и датой загрузки
+     *
+     * @return файл
+     */
+    private UserFile createUploadedFile() {
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setContentHash(TEST_HASH);
+        userFile.setUploadDate(new Date(1500000000000L));
+        userFile.setUser(fileOwner);
+        return userFile;
+    }
+
+    /**
+     * Создает ресурс файла, хранящегося в сжатом виде
+     *
+     * @param encoded сжатое содержимое
+     * @return ресурс
+     * @throws IOException
+     */
+    private Resource createEncodedResource(byte[] encoded) throws IOException {
+        InMemoryFileStore fileStore = new InMemoryFileStore();
+        fileStore.put(fileStore.stage(new ByteArrayInputStream(encoded)), "hash");
+        UserFile userFile = new UserFile(7, "hash", "test.txt", 0);
+        userFile.setContentEncoding("gzip");
+        return new UserFileResource(fileStore.get("hash"), userFile, new GzipContentCodec());
+    }
+
+    /**
+     * Создает ресурс файла с содержимым в памяти
+     *
+     * @param id id файла
+     * @param originalName оригинальное имя файла
+     * @param content хранимое содержимое
+     * @param encoding сжатие хранимого содержимого, null - без сжатия
+     * @return ресурс
+     * @throws IOException
+     */
+    private UserFileResource createResource(int id, String originalName, byte[] content, String encoding)
+            throws IOException {
+        InMemoryFileStore fileStore = new InMemoryFileStore();
+        fileStore.put(fileStore.stage(new ByteArrayInputStream(content)), "hash");
+        UserFile userFile = new UserFile(id, "hash", originalName, 0);
+        userFile.setContentEncoding(encoding);
+        userFile.setUploadDate(new Date(1500000000000L));
+        return new UserFileResource(fileStore.get("hash"), userFile, new GzipContentCodec());
+    }
+
+    /**
+     * Заменяет запрос на запрос, тело и параметры которого нельзя прочитать до проверки квоты
+     *
+     * @param quotaChecked признак того, что квота проверена
+     * @return обработчик запроса, сохраняющий адрес, тип и длину содержимого
+     */
+    private static RequestPostProcessor unreadableBodyUntil(AtomicBoolean quotaChecked) {
+        return request -> {
+            MockHttpServletRequest unreadable = new MockHttpServletRequest(request.getServletContext(),
+                    request.getMethod(), request.getRequestURI()) {
+                @Override
+                public String getParameter(String name) {
+                    checkRead();
+                    return super.getParameter(name);
+                }
+
+                @Override
+                public Map<String, String[]> getParameterMap() {
+                    checkRead();
+                    return super.getParameterMap();
+                }
+
+                @Override
+                public ServletInputStream getInputStream() {
+                    checkRead();
+                    return super.getInputStream();
+                }
+
+                private void checkRead() {
+                    if (!quotaChecked.get()) {
+                        throw new AssertionError("Request body read before the quota check");
+                    }
+                }
+            };
+            unreadable.setServletPath(request.getServletPath());
+            unreadable.setPathInfo(request.getPathInfo());
+            unreadable.setContentType(request.getContentType());
+            unreadable.setContent(request.getContentAsByteArray());
+            return unreadable;
+        };
+    }
 }
@@ -0,0 +1,89 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Тест отправки файлов с диска
+ */
+public class FileSenderTest {
+
+    private static final Path FILE = Paths.get("src/test/resources/uploads/file-sender-test.txt");
+
+    @Before
+    public void init() throws IOException {
+        Files.write(FILE, "0123456789".getBytes());
+    }
+
+    @After
+    public void clean() throws IOException {
+        Files.deleteIfExists(FILE);
+    }
+
+    /**
+     * Тест отправки файла целиком через FileChannel.transferTo
+     *
+     * @throws IOException
+     */
+    @Test
+    public void sendTest() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        FileSender.send(new FileSystemResource(FILE), new MockHttpServletRequest(), response);
+
+        Assert.assertEquals(10, response.getContentLengthLong());
+        Assert.assertEquals("0123456789", response.getContentAsString());
+    }
+
+    /**
+     * Тест отправки диапазона байт файла через FileChannel.transferTo
+     *
+     * @throws IOException
+     */
+    @Test
+    public void sendRangeTest() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Resource resource = new FileSystemResource(FILE);
+
+        FileSender.sendRange(resource, new ResourceRegion(resource, 2, 5), new MockHttpServletRequest(), response);
+
+        Assert.assertEquals(HttpStatus.PARTIAL_CONTENT.value(), response.getStatus());
+        Assert.assertEquals("bytes 2-6/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        Assert.assertEquals("23456", response.getContentAsString());
+    }
+
+    /**
+     * Тест отправки диапазона файла, укоротившегося после определения диапазона:
+     * запись прерывается, а не зацикливается
+     *
+     * @throws IOException
+     */
+    @Test(timeout = 10000)
+    public void sendRangeTruncatedFileTest() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Resource resource = new FileSystemResource(FILE);
+        ResourceRegion region = new ResourceRegion(resource, 5, 15);
+        try {
+            FileSender.sendRange(resource, region, new MockHttpServletRequest(), response);
+            Assert.fail();
+        } catch (EOFException e) {
+            Assert.assertEquals("The file file-sender-test.txt ended at 10 of 20", e.getMessage());
+        }
+        Assert.assertEquals("56789", response.getContentAsString());
+    }
+}
@@ -0,0 +1,225 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.bellintegrator.filesharing.configuration.WebSecurityConfig;
+import ru.bellintegrator.filesharing.exception.AlreadyExistException;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.service.SharingGroupService;
+import ru.bellintegrator.filesharing.service.UserService;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.security.test.web.servlet.response.SecurityMockMvcResultMatchers.authenticated;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit-тест контроллера групп
+ */
+@RunWith(SpringRunner.class)
+@WebMvcTest(GroupController.class)
+@Import(WebSecurityConfig.class)
+public class GroupControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private SharingGroupService groupService;
+
+    @MockBean
+    private UserService userService;
+
+    private User owner = new User(1, "Maria", "maria", "example@example.com", null, true);
+    private User member = new User(2, "John", "john", "example@example.com", null, true);
+
+    /**
+     * Тест страницы со списком групп
+     */
+    @Test
+    public void showGroupsTest() throws Exception {
+        SharingGroup group = createGroup();
+        List<SharingGroup> groups = Collections.singletonList(group);
+        when(groupService.findGroups(owner)).thenReturn(groups);
+
+        mockMvc.perform(get("/groups").with(user(owner)))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("groups", groups))
+                .andExpect(content().string(containsString("&lt;team&gt;")));
+    }
+
+    /**
+     * Тест создания группы
+     */
+    @Test
+    public void createGroupTest() throws Exception {
+        when(groupService.createGroup(owner, "team")).thenReturn(createGroup());
+
+        mockMvc.perform(post("/groups").param("name", "team").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(redirectedUrl("/groups/3"));
+    }
+
+    /**
+     * Тест создания группы
+     * Выбрасывается ошибка о том, что группа с таким названием уже есть
+     */
+    @Test
+    public void createGroupFailTest() throws Exception {
+        doThrow(new AlreadyExistException("You already have a group with this name!"))
+                .when(groupService).createGroup(owner, "team");
+
+        mockMvc.perform(post("/groups").param("name", "team").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(model().attribute("error", "You already have a group with this name!"));
+    }
+
+    /**
+     * Тест страницы группы с участниками
+     */
+    @Test
+    public void showGroupTest() throws Exception {
+        SharingGroup group = createGroup();
+        List<GroupMember> members = Collections.singletonList(new GroupMember(group, member));
+        Page<GroupMember> page = new PageImpl<>(members, PageRequest.of(0, 1), 2);
+        when(groupService.findGroup(owner, "3")).thenReturn(group);
+        when(groupService.findMembers(owner, "3", 0)).thenReturn(page);
+
+        mockMvc.perform(get("/groups/3").with(user(owner)))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("members", members))
+                .andExpect(content().string(containsString("Members: 2")))
+                .andExpect(content().string(containsString("/groups/3/members/2")))
+                .andExpect(content().string(containsString("href=\"/groups/3?page=1\"")));
+    }
+
+    /**
+     * Тест страницы группы с id больше 999: id выводятся без разделителя разрядов
+     */
+    @Test
+    public void showGroupLargeIdTest() throws Exception {
+        SharingGroup group = createGroup();
+        group.setId(1234);
+        User largeIdMember = new User(5678, "Ivan", "ivan", "example@example.com", null, true);
+        List<GroupMember> members = Collections.singletonList(new GroupMember(group, largeIdMember));
+        when(groupService.findGroup(owner, "1234")).thenReturn(group);
+        when(groupService.findMembers(owner, "1234", 0))
+                .thenReturn(new PageImpl<>(members, PageRequest.of(0, 1), 1));
+
+        mockMvc.perform(get("/groups/1234").with(user(owner)))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("/groups/1234/access")))
+                .andExpect(content().string(containsString("/groups/1234/members/5678")));
+    }
+
+    /**
+     * Тест страницы чужой или несуществующей группы
+     */
+    @Test
+    public void showGroupFailTest() throws Exception {
+        doThrow(new NotFoundException("There is no group with id 3")).when(groupService).findGroup(member, "3");
+
+        mockMvc.perform(get("/groups/3").with(user(member)))
+                .andDo(print())
+                .andExpect(status().isNotFound())
+                .andExpect(model().attribute("error", "There is no group with id 3"));
+    }
+
+    /**
+     * Тест изменения доступа группы
+     */
+    @Test
+    public void updateGroupAccessTest() throws Exception {
+        mockMvc.perform(post("/groups/3/access").param("download", "true").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(redirectedUrl("/groups/3"));
+
+        verify(groupService).updateGroupAccess(owner, "3", false, true);
+    }
+
+    /**
+     * Тест добавления участника
+     */
+    @Test
+    public void addMemberTest() throws Exception {
+        mockMvc.perform(post("/groups/3/members").param("username", "john").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(redirectedUrl("/groups/3"));
+
+        verify(groupService).addMember(owner, "3", "john");
+    }
+
+    /**
+     * Тест удаления участника
+     */
+    @Test
+    public void removeMemberTest() throws Exception {
+        mockMvc.perform(delete("/groups/3/members/2").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isSeeOther())
+                .andExpect(redirectedUrl("/groups/3"));
+
+        verify(groupService).removeMember(owner, "3", "2");
+    }
+
+    /**
+     * Тест удаления группы
+     */
+    @Test
+    public void deleteGroupTest() throws Exception {
+        mockMvc.perform(delete("/groups/3").with(user(owner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isSeeOther())
+                .andExpect(redirectedUrl("/groups"));
+
+        verify(groupService).deleteGroup(owner, "3");
+    }
+
+    /**
+     * Создает группу владельца с id 3
+     *
+     * @return группа
+     */
+    private SharingGroup createGroup() {
+        SharingGroup group = new SharingGroup(owner, "<team>");
+        group.setId(3);
+        return group;
+    }
+}
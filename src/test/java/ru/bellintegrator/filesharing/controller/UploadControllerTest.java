@@ -0,0 +1,136 @@
+package ru.bellintegrator.filesharing.controller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.bellintegrator.filesharing.configuration.WebSecurityConfig;
+import ru.bellintegrator.filesharing.exception.ConflictException;
+import ru.bellintegrator.filesharing.model.UploadSession;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.service.UploadService;
+import ru.bellintegrator.filesharing.service.UserService;
+
+import java.io.InputStream;
+import java.util.Date;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.security.test.web.servlet.response.SecurityMockMvcResultMatchers.authenticated;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit-тест контроллера докачиваемой загрузки файлов
+ */
+@RunWith(SpringRunner.class)
+@WebMvcTest(UploadController.class)
+@Import(WebSecurityConfig.class)
+public class UploadControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private UploadService uploadService;
+
+    @MockBean
+    private UserService userService;
+
+    private User fileOwner = new User(1, "Maria", "maria", "example@example.com", null, true);
+
+    private static final String SESSION_ID = "3f8d6d2a-6a57-4c1e-9a1b-2f1f0c3c9e11";
+
+    /**
+     * Тест метода создания сессии загрузки
+     *
+     * @throws Exception
+     */
+    @Test
+    public void createSessionTest() throws Exception {
+        when(uploadService.createSession(fileOwner, "test.txt"))
+                .thenReturn(new UploadSession(SESSION_ID, "test.txt", new Date(), fileOwner));
+        mockMvc.perform(post("/1/uploads").param("name", "test.txt").with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(authenticated())
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Location", "/uploads/" + SESSION_ID))
+                .andExpect(header().string(UploadController.UPLOAD_OFFSET, "0"));
+    }
+
+    /**
+     * Тест метода, возвращающего смещение загрузки
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getOffsetTest() throws Exception {
+        when(uploadService.getOffset(fileOwner, SESSION_ID)).thenReturn(2L);
+        mockMvc.perform(get("/uploads/" + SESSION_ID).with(user(fileOwner)))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string(UploadController.UPLOAD_OFFSET, "2"));
+    }
+
+    /**
+     * Тест метода дозаписи части файла
+     *
+     * @throws Exception
+     */
+    @Test
+    public void writeChunkTest() throws Exception {
+        when(uploadService.writeChunk(eq(fileOwner), eq(SESSION_ID), eq(2L), eq(2L), any(InputStream.class)))
+                .thenReturn(4L);
+        mockMvc.perform(put("/uploads/" + SESSION_ID).header(UploadController.UPLOAD_OFFSET, 2)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM).content("st".getBytes())
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isNoContent())
+                .andExpect(header().string(UploadController.UPLOAD_OFFSET, "4"));
+    }
+
+    /**
+     * Тест метода дозаписи части файла с неверным смещением
+     *
+     * @throws Exception
+     */
+    @Test
+    public void writeChunkWrongOffsetTest() throws Exception {
+        when(uploadService.writeChunk(eq(fileOwner), eq(SESSION_ID), eq(0L), eq(4L), any(InputStream.class)))
+                .thenThrow(new ConflictException("The upload offset must be 2"));
+        mockMvc.perform(put("/uploads/" + SESSION_ID).header(UploadController.UPLOAD_OFFSET, 0)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM).content("test".getBytes())
+                .with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isConflict());
+    }
+
+    /**
+     * Тест метода завершения загрузки
+     *
+     * @throws Exception
+     */
+    @Test
+    public void completeUploadTest() throws Exception {
+        when(uploadService.completeUpload(fileOwner, SESSION_ID)).thenReturn(new UserFile(5, "test", "test.txt", 0));
+        mockMvc.perform(post("/uploads/" + SESSION_ID + "/complete").with(user(fileOwner)).with(csrf()))
+                .andDo(print())
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Location", "/files/5"));
+        verify(uploadService).completeUpload(fileOwner, SESSION_ID);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тест кэша решений по доступу
+ */
+public class AccessDecisionCacheTest {
+
+    private static final AccessDecision READ = new AccessDecision(true, false, false, false);
+
+    /**
+     * Тест попадания в кэш и удаления записи
+     */
+    @Test
+    public void getAndInvalidateTest() {
+        AccessDecisionCache cache = new AccessDecisionCache(100, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertSame(READ, cache.get(1, 2, () -> load(loads)));
+        Assert.assertSame(READ, cache.get(1, 2, () -> load(loads)));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(0.5, cache.getHitRate(), 0.001);
+
+        cache.invalidate(1, 2);
+        cache.get(1, 2, () -> load(loads));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    /**
+     * Тест удаления всех решений владельца
+     */
+    @Test
+    public void invalidateUserTest() {
+        AccessDecisionCache cache = new AccessDecisionCache(100, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(1, 2, () -> load(loads));
+        cache.get(1, 3, () -> load(loads));
+        cache.get(4, 2, () -> load(loads));
+
+        cache.invalidateUser(1);
+
+        Assert.assertEquals(1, cache.getEntryCount());
+        cache.get(4, 2, () -> load(loads));
+        Assert.assertEquals(3, loads.get());
+    }
+
+    /**
+     * Тест устаревания записи
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void ttlTest() throws InterruptedException {
+        AccessDecisionCache cache = new AccessDecisionCache(100, 1);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(1, 2, () -> load(loads));
+        Thread.sleep(5);
+        cache.get(1, 2, () -> load(loads));
+
+        Assert.assertEquals(2, loads.get());
+    }
+
+    /**
+     * Тест ограничения количества записей
+     */
+    @Test
+    public void maxEntriesTest() {
+        AccessDecisionCache cache = new AccessDecisionCache(2, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(1, i, () -> READ);
+        }
+
+        Assert.assertEquals(2, cache.getEntryCount());
+    }
+
+    /**
+     * Тест решения, прочитанного во время изменения доступа: оно не попадает в кэш
+     */
+    @Test
+    public void invalidateDuringLoadTest() {
+        AccessDecisionCache cache = new AccessDecisionCache(100, 60000);
+
+        cache.get(1, 2, () -> {
+            cache.invalidate(1, 2);
+            return READ;
+        });
+
+        Assert.assertEquals(0, cache.getEntryCount());
+    }
+
+    private AccessDecision load(AtomicInteger loads) {
+        loads.incrementAndGet();
+        return READ;
+    }
+}
@@ -0,0 +1,128 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+
+import java.util.Arrays;
+
+/**
+ * Тест индекса доступов в памяти
+ */
+public class AccessPermissionIndexTest {
+
+    /**
+     * Тест поиска до окончания загрузки
+     */
+    @Test
+    public void notLoadedTest() {
+        AccessPermissionIndex index = new AccessPermissionIndex();
+        index.startLoading();
+        index.load(1, 2, AccessDecision.READ_ACCESS);
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 2));
+        index.finishLoading();
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 2));
+        Assert.assertEquals(0, index.get(2, 1));
+    }
+
+    /**
+     * Тест загрузки и замены флагов, в том числе после увеличения таблицы
+     */
+    @Test
+    public void loadTest() {
+        AccessPermissionIndex index = new AccessPermissionIndex();
+        index.startLoading();
+        for (int userId = 1; userId <= 100; userId++) {
+            for (int subscriberId = 1; subscriberId <= 100; subscriberId++) {
+                index.load(userId, subscriberId, (userId + subscriberId) & 0xF);
+            }
+        }
+        index.load(7, 9, AccessDecision.DOWNLOAD_ACCESS);
+        index.finishLoading();
+
+        Assert.assertEquals(10000, index.getSize());
+        Assert.assertTrue(index.getCapacity() >= 20000);
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(7, 9));
+        Assert.assertEquals((100 + 55) & 0xF, index.get(100, 55));
+        Assert.assertEquals(0, index.get(101, 1));
+    }
+
+    /**
+     * Тест отметки измененных доступов: поиск по ним не возвращает флаги до следующей загрузки
+     */
+    @Test
+    public void markStaleTest() {
+        AccessPermissionIndex index = new AccessPermissionIndex();
+        index.startLoading();
+        index.load(1, 2, AccessDecision.READ_ACCESS | AccessDecision.READ_REQUEST);
+        index.load(1, 3, AccessDecision.READ_ACCESS);
+        index.finishLoading();
+
+        index.markStale(1, Arrays.asList(2, 4));
+        index.markStale(1, 2);
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 2));
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 3));
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 4));
+        Assert.assertEquals(3, index.getSize());
+        Assert.assertEquals(2, index.getStaleCount());
+
+        index.startLoading();
+        index.load(1, 2, AccessDecision.READ_ACCESS);
+        index.finishLoading();
+
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 2));
+        Assert.assertEquals(0, index.get(1, 4));
+        Assert.assertEquals(0, index.getStaleCount());
+    }
+
+    /**
+     * Тест отметки всех подписчиков владельца после массового изменения запросов
+     */
+    @Test
+    public void markUserStaleTest() {
+        AccessPermissionIndex index = new AccessPermissionIndex();
+        index.startLoading();
+        index.load(1, 2, AccessDecision.READ_ACCESS);
+        index.load(3, 2, AccessDecision.READ_ACCESS);
+        index.finishLoading();
+
+        index.markUserStale(1);
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 2));
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 5));
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(3, 2));
+
+        index.startLoading();
+        index.load(1, 2, AccessDecision.READ_ACCESS);
+        index.finishLoading();
+
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 2));
+    }
+
+    /**
+     * Тест изменения доступа во время повторной загрузки: прочитанные до изменения флаги не используются,
+     * а старая копия отвечает на поиск до конца загрузки
+     */
+    @Test
+    public void markStaleDuringLoadingTest() {
+        AccessPermissionIndex index = new AccessPermissionIndex();
+        index.startLoading();
+        index.load(1, 2, AccessDecision.DOWNLOAD_ACCESS);
+        index.finishLoading();
+
+        index.startLoading();
+        index.load(1, 2, AccessDecision.DOWNLOAD_ACCESS);
+        index.load(1, 3, AccessDecision.READ_ACCESS);
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(1, 2));
+        Assert.assertEquals(0, index.get(1, 3));
+        index.markStale(1, 2);
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 2));
+        index.finishLoading();
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, index.get(1, 2));
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 3));
+        Assert.assertEquals(1, index.getStaleCount());
+    }
+}
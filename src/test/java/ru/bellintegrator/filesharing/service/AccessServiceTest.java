@@ -5,17 +5,27 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.util.ReflectionTestUtils;
 import ru.bellintegrator.filesharing.exception.AlreadyExistException;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.repository.AccessRepository;
 import ru.bellintegrator.filesharing.repository.UserRepository;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,6 +42,15 @@ public class AccessServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private AccessDecisionCache accessCache = new AccessDecisionCache(100, 60000);
+
+    @Spy
+    private AccessPermissionIndex permissionIndex = new AccessPermissionIndex();
+
+    @Mock
+    private SharingGroupService groupService;
+
     @InjectMocks
     private AccessServiceImpl accessService;
 
@@ -133,22 +152,22 @@ public class AccessServiceTest {
     }
 
     /**
-     * Тест метода, возвращающего список пользователей, запрашивающих доступ
+     * Тест метода, возвращающего страницу пользователей, запрашивающих доступ
      */
     @Test
     public void getRequestingAccessesTest() {
+        ReflectionTestUtils.setField(accessService, "pageSize", 20);
         Access access = new Access(user, subscriber);
-        List<Access> accessList = Collections.singletonList(access);
-        when(accessRepository.findByUser(user)).thenReturn(accessList);
-
-        List<Access> emptyList = accessService.getRequestingAccesses(user);
-
-        Assert.assertTrue(emptyList.isEmpty());
-
         access.setDownloadRequest(true);
-        List<Access> filteredList = accessService.getRequestingAccesses(user);
+        PageRequest pageRequest = PageRequest.of(1, 20, Sort.by("id.subscriberId"));
+        when(accessRepository.findRequestingByUserId(1, pageRequest))
+                .thenReturn(new PageImpl<>(Collections.singletonList(access), pageRequest, 21));
+
+        Page<Access> page = accessService.getRequestingAccesses(user, 1);
 
-        Assert.assertTrue(filteredList.contains(access));
+        Assert.assertTrue(page.getContent().contains(access));
+        Assert.assertEquals(21, page.getTotalElements());
+        verify(accessRepository, Mockito.never()).findByUser(user);
     }
 
     /**
@@ -157,7 +176,7 @@ public class AccessServiceTest {
      */
     @Test(expected = NotFoundException.class)
     public void getRequestingAccessesFailTest() {
-        accessService.getRequestingAccesses(null);
+        accessService.getRequestingAccesses(null, 0);
     }
 
     /**
@@ -240,6 +259,150 @@ public class AccessServiceTest {
         accessService.allowDownload(user, "2");
     }
 
+    /**
+     * Тест кэширования флагов доступа: повторная проверка не читает базу данных,
+     * а после одобрения доступа флаги читаются заново
+     */
+    @Test
+    public void findAccessDecisionTest() {
+        when(accessRepository.findDecision(1, 2)).thenReturn(new AccessDecision(true, true, false, false));
+
+        Assert.assertTrue(accessService.findAccessDecision("1", subscriber).getReadRequest());
+        Assert.assertTrue(accessService.findAccessDecision("1", subscriber).getReadRequest());
+        verify(accessRepository, Mockito.times(1)).findDecision(1, 2);
+        Assert.assertEquals(1, accessCache.getHitCount());
+
+        when(userRepository.findById(2)).thenReturn(Optional.of(subscriber));
+        Access access = new Access(user, subscriber);
+        access.setReadAccess(true);
+        access.setReadRequest(true);
+        when(accessRepository.findByUserAndSubscriber(user, subscriber)).thenReturn(access);
+        when(accessRepository.findDecision(1, 2)).thenReturn(new AccessDecision(true, false, false, false));
+        accessService.allowRead(user, "2");
+
+        Assert.assertFalse(accessService.findAccessDecision("1", subscriber).getReadRequest());
+        verify(accessRepository, Mockito.times(2)).findDecision(1, 2);
+    }
+
+    /**
+     * Тест загрузки индекса доступов: после загрузки флаги берутся из индекса,
+     * а изменение доступа сразу попадает в индекс
+     */
+    @Test
+    public void loadPermissionsTest() {
+        Object[] row = {1, 2, true, false, (byte) 1, 1};
+        when(accessRepository.streamAllFlags()).thenReturn(Stream.<Object[]>of(row));
+
+        Assert.assertEquals(1, accessService.loadPermissions());
+        AccessDecision decision = accessService.findAccessDecision("1", subscriber);
+
+        Assert.assertTrue(decision.getReadAccess());
+        Assert.assertFalse(decision.getReadRequest());
+        Assert.assertTrue(decision.getDownloadAccess());
+        Assert.assertTrue(decision.getDownloadRequest());
+        verify(accessRepository, Mockito.never()).findDecision(1, 2);
+
+        when(userRepository.findById(2)).thenReturn(Optional.of(subscriber));
+        Access access = new Access(user, subscriber);
+        access.setDownloadAccess(true);
+        access.setDownloadRequest(true);
+        when(accessRepository.findByUserAndSubscriber(user, subscriber)).thenReturn(access);
+        accessService.allowDownload(user, "2");
+        when(accessRepository.findDecision(1, 2)).thenReturn(AccessDecision.of(access));
+
+        Assert.assertTrue(accessService.findAccessDecision("1", subscriber).canDownload());
+        verify(accessRepository).findDecision(1, 2);
+    }
+
+    /**
+     * Тест массового одобрения запросов на чтение выбранных подписчиков
+     */
+    @Test
+    public void allowRequestsTest() {
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, AccessDecision.READ_ACCESS | AccessDecision.READ_REQUEST);
+        permissionIndex.load(1, 3, AccessDecision.READ_ACCESS);
+        permissionIndex.load(1, 4, AccessDecision.READ_ACCESS | AccessDecision.READ_REQUEST);
+        permissionIndex.finishLoading();
+        List<Integer> subscriberIds = Arrays.asList(2, 3);
+        when(accessRepository.updateReadRequests(1, subscriberIds, true)).thenReturn(1);
+
+        Assert.assertEquals(1, accessService.allowRequests(user, subscriberIds, false));
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, permissionIndex.get(1, 2));
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, permissionIndex.get(1, 3));
+        Assert.assertEquals(AccessDecision.READ_ACCESS | AccessDecision.READ_REQUEST, permissionIndex.get(1, 4));
+        verify(accessRepository, Mockito.never()).updateAllReadRequests(Mockito.anyInt(), Mockito.anyBoolean());
+    }
+
+    /**
+     * Тест отклонения всех запросов на скачивание: один запрос UPDATE без чтения id подписчиков,
+     * доступы владельца в индексе и кэше помечаются устаревшими
+     */
+    @Test
+    public void denyAllRequestsTest() {
+        int flags = AccessDecision.READ_ACCESS | AccessDecision.DOWNLOAD_ACCESS | AccessDecision.DOWNLOAD_REQUEST;
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, flags);
+        permissionIndex.load(3, 2, flags);
+        permissionIndex.finishLoading();
+        accessCache.get(1, 2, () -> AccessDecision.ofFlags(flags));
+        when(accessRepository.updateAllDownloadRequests(1, false)).thenReturn(1);
+
+        Assert.assertEquals(1, accessService.denyRequests(user, null, true));
+
+        Assert.assertEquals(AccessPermissionIndex.UNKNOWN, permissionIndex.get(1, 2));
+        Assert.assertEquals(flags, permissionIndex.get(3, 2));
+        when(accessRepository.findDecision(1, 2)).thenReturn(AccessDecision.ofFlags(AccessDecision.READ_ACCESS));
+        Assert.assertFalse(accessService.findAccessDecision("1", subscriber).getDownloadAccess());
+        verify(accessRepository, Mockito.never()).updateDownloadRequests(Mockito.anyInt(), Mockito.anyCollection(),
+                Mockito.anyBoolean());
+    }
+
+    /**
+     * Тест массового изменения запросов, если подписчики не выбраны
+     */
+    @Test
+    public void allowRequestsEmptyTest() {
+        Assert.assertEquals(0, accessService.allowRequests(user, Collections.emptyList(), true));
+
+        verify(accessRepository, Mockito.never()).updateDownloadRequests(Mockito.anyInt(), Mockito.anyCollection(),
+                Mockito.anyBoolean());
+    }
+
+    /**
+     * Тест доступа, предоставленного группой: он заменяет неодобренный запрос подписчика
+     */
+    @Test
+    public void findAccessDecisionWithGroupTest() {
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, AccessDecision.READ_ACCESS | AccessDecision.READ_REQUEST);
+        permissionIndex.finishLoading();
+        when(groupService.findGroupFlags(1, 2)).thenReturn(AccessDecision.READ_ACCESS);
+
+        AccessDecision decision = accessService.findAccessDecision("1", subscriber);
+
+        Assert.assertTrue(decision.getReadAccess());
+        Assert.assertFalse(decision.getReadRequest());
+        Assert.assertFalse(decision.getDownloadAccess());
+
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, AccessDecision.DOWNLOAD_ACCESS);
+        permissionIndex.finishLoading();
+        Assert.assertTrue(accessService.findAccessDecision("1", subscriber).canDownload());
+        verify(groupService).findGroupFlags(1, 2);
+    }
+
+    /**
+     * Тест флагов доступа подписчика без доступа
+     */
+    @Test
+    public void findAccessDecisionNoAccessTest() {
+        when(accessRepository.findDecision(1, 2)).thenReturn(null);
+
+        Assert.assertSame(AccessDecision.NONE, accessService.findAccessDecision("1", subscriber));
+    }
+
     /**
      * Тест метода, который находит доступ
      */
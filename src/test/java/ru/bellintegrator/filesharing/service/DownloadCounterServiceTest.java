@@ -0,0 +1,122 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+/**
+ * Тест сервиса подсчета скачиваний
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadCounterServiceTest {
+
+    @Mock
+    private UserFileRepository fileRepository;
+
+    private DownloadCounterServiceImpl downloadCounter;
+
+    @Before
+    public void init() {
+        downloadCounter = new DownloadCounterServiceImpl(fileRepository);
+        ReflectionTestUtils.setField(downloadCounter, "batchSize", 2);
+    }
+
+    /**
+     * Тест записи скачиваний, сгруппированных по количеству
+     */
+    @Test
+    public void flushTest() {
+        downloadCounter.increment(1);
+        downloadCounter.increment(1);
+        downloadCounter.increment(2);
+        downloadCounter.increment(3);
+        downloadCounter.increment(4);
+
+        Assert.assertEquals(4, downloadCounter.flush());
+
+        verify(fileRepository).addDownloads(2, Collections.singletonList(1));
+        verify(fileRepository).addDownloads(ArgumentMatchers.eq(1), ArgumentMatchers.argThat(ids -> ids.size() == 2));
+        verify(fileRepository).addDownloads(ArgumentMatchers.eq(1), ArgumentMatchers.argThat(ids -> ids.size() == 1));
+        Assert.assertEquals(0, downloadCounter.flush());
+        Assert.assertEquals(0, downloadCounter.flush());
+        verifyNoMoreInteractions(fileRepository);
+    }
+
+    /**
+     * Тест возврата скачиваний в счетчики, если запись не удалась
+     */
+    @Test
+    public void failedFlushTest() {
+        downloadCounter.increment(1);
+        downloadCounter.increment(1);
+        Mockito.doThrow(new IllegalStateException("Database is not available")).when(fileRepository)
+                .addDownloads(2, Collections.singletonList(1));
+        Assert.assertEquals(0, downloadCounter.flush());
+
+        Mockito.reset(fileRepository);
+        downloadCounter.increment(1);
+        Assert.assertEquals(1, downloadCounter.flush());
+        verify(fileRepository).addDownloads(3, Collections.singletonList(1));
+    }
+
+    /**
+     * Тест одновременного учета скачиваний и записи в базу данных: ни одно скачивание не теряется
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void concurrentIncrementTest() throws InterruptedException {
+        int[] flushed = new int[1];
+        Mockito.doAnswer(invocation -> {
+            List<Integer> ids = invocation.getArgument(1);
+            flushed[0] += (int) invocation.getArgument(0) * ids.size();
+            return ids.size();
+        }).when(fileRepository).addDownloads(ArgumentMatchers.anyInt(), ArgumentMatchers.anyCollection());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    downloadCounter.increment(j % 3);
+                }
+            });
+        }
+        for (int i = 0; i < 20; i++) {
+            downloadCounter.flush();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        downloadCounter.close();
+
+        Assert.assertEquals(40000, flushed[0]);
+    }
+
+    /**
+     * Тест записи скачиваний при остановке приложения
+     */
+    @Test
+    public void closeTest() {
+        downloadCounter.increment(7);
+        downloadCounter.close();
+        verify(fileRepository).addDownloads(1, Arrays.asList(7));
+        verify(fileRepository, times(1)).addDownloads(ArgumentMatchers.anyInt(), ArgumentMatchers.anyCollection());
+    }
+}
@@ -0,0 +1,68 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Mockito.verify;
+
+/**
+ * Тест сервиса фонового удаления файлов
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FilePurgeServiceTest {
+
+    @Mock
+    private UserFileRepository fileRepository;
+
+    @Mock
+    private FileService fileService;
+
+    private FilePurgeServiceImpl purgeService;
+
+    @Before
+    public void init() {
+        purgeService = new FilePurgeServiceImpl(fileRepository, fileService);
+        ReflectionTestUtils.setField(purgeService, "batchSize", 2);
+    }
+
+    /**
+     * Тест удаления файлов порциями с продолжением с места предыдущего запуска
+     */
+    @Test
+    public void purgeDeletedFilesTest() {
+        Mockito.doReturn(Arrays.asList(1, 2)).when(fileRepository).findDeletedIds(0, 2);
+        Mockito.doReturn(Collections.singletonList(3)).when(fileRepository).findDeletedIds(2, 2);
+        Mockito.doReturn(true).when(fileService).purgeFile(Mockito.anyInt());
+
+        Assert.assertEquals(2, purgeService.purgeDeletedFiles());
+        Assert.assertEquals(1, purgeService.purgeDeletedFiles());
+        purgeService.purgeDeletedFiles();
+
+        verify(fileRepository, Mockito.times(2)).findDeletedIds(0, 2);
+        verify(fileService).purgeFile(3);
+    }
+
+    /**
+     * Тест повторного удаления файла, который не удалось удалить: остальные файлы удаляются
+     */
+    @Test
+    public void purgeFailedFileTest() {
+        Mockito.doReturn(Arrays.asList(1, 2)).when(fileRepository).findDeletedIds(0, 2);
+        Mockito.doThrow(new NotFoundException("The file was not deleted!")).when(fileService).purgeFile(1);
+        Mockito.doReturn(true).when(fileService).purgeFile(2);
+
+        Assert.assertEquals(1, purgeService.purgeDeletedFiles());
+        verify(fileService).purgeFile(2);
+    }
+}
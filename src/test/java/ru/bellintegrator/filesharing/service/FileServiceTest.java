@@ -1,38 +1,65 @@
 package ru.bellintegrator.filesharing.service;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentMatchers;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.multipart.MultipartFile;
 import ru.bellintegrator.filesharing.UserFileMatcher;
 import ru.bellintegrator.filesharing.exception.AccessException;
 import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
 import ru.bellintegrator.filesharing.model.Access;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+import ru.bellintegrator.filesharing.model.FileContent;
+import ru.bellintegrator.filesharing.model.UploadSession;
 import ru.bellintegrator.filesharing.model.User;
 import ru.bellintegrator.filesharing.model.UserFile;
 import ru.bellintegrator.filesharing.repository.AccessRepository;
+import ru.bellintegrator.filesharing.repository.FileContentRepository;
+import ru.bellintegrator.filesharing.repository.UploadSessionRepository;
 import ru.bellintegrator.filesharing.repository.UserFileRepository;
+import ru.bellintegrator.filesharing.repository.UserRepository;
+import ru.bellintegrator.filesharing.storage.GzipContentCodec;
+import ru.bellintegrator.filesharing.storage.HotFileCache;
+import ru.bellintegrator.filesharing.storage.LocalFileStore;
 
 import javax.persistence.EntityNotFoundException;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.times;
@@ -48,31 +75,146 @@ public class FileServiceTest {
     @Mock
     private UserFileRepository fileRepository;
 
+    @Mock
+    private UserRepository userRepository;
+
     @Mock
     private AccessRepository accessRepository;
 
-    @InjectMocks
+    @Mock
+    private FileContentRepository contentRepository;
+
+    @Mock
+    private UploadSessionRepository sessionRepository;
+
+    @Mock
+    private DownloadCounterService downloadCounter;
+
+    @Mock
+    private SharingGroupService groupService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     private FileServiceImpl fileService;
 
+    private AccessPermissionIndex permissionIndex = new AccessPermissionIndex();
+
+    private AccessDecisionCache accessCache = new AccessDecisionCache(100, 60000);
+
+    private HotFileCache hotFileCache = new HotFileCache(1024, 1024, 2);
+
+    private ExecutorService uploadExecutor = Executors.newFixedThreadPool(2);
+
     private User fileOwner = new User(1, "Maria", "maria", "example@example.com", null, true);
     private User notOwner = new User(2, "John", "john", "example@example.com", null, true);
 
+    /**
+     * SHA-256 строки "test"
+     */
+    private static final String TEST_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    /**
+     * Путь к содержимому строки "test" в иерархическом размещении
+     */
+    private static final String TEST_SHARDED_PATH = "src/test/resources/uploads/9f/86/" + TEST_HASH;
+
+    /**
+     * SHA-256 строки "test2"
+     */
+    private static final String TEST2_HASH = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
     @Before
     public void init() {
-        ReflectionTestUtils.setField(fileService, "uploadPath", "src/test/resources/uploads");
+        Mockito.lenient().doReturn(1).when(userRepository)
+                .reserveBytes(ArgumentMatchers.any(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong());
+        fileService = new FileServiceImpl(fileRepository, userRepository, accessRepository, permissionIndex,
+                accessCache, groupService, contentRepository, sessionRepository,
+                new LocalFileStore("src/test/resources/uploads"), new GzipContentCodec(), hotFileCache, downloadCounter, uploadExecutor, transactionManager);
+    }
+
+    @After
+    public void clean() {
+        uploadExecutor.shutdown();
+        FileSystemUtils.deleteRecursively(new File("src/test/resources/uploads/9f"));
+        FileSystemUtils.deleteRecursively(new File("src/test/resources/uploads/60"));
+    }
+
+    /**
+     * Тест метода, возвращающего первую страницу списка файлов
+     */
+    @Test
+    public void findFilesTest() {
+        ReflectionTestUtils.setField(fileService, "pageSize", 2);
+        List<UserFile> files = Arrays.asList(new UserFile(5, TEST_HASH, "test.txt", 0),
+                new UserFile(7, TEST_HASH, "test2.txt", 0), new UserFile(9, TEST_HASH, "test3.txt", 0));
+        Mockito.doReturn(files).when(fileRepository).findAfterWithOwner(0, PageRequest.of(0, 3));
+
+        FilePage page = fileService.findFiles(null, null);
+
+        Assert.assertEquals(files.subList(0, 2), page.getFiles());
+        Assert.assertFalse(page.getHasPrevious());
+        Assert.assertTrue(page.getHasNext());
+        Assert.assertEquals(Integer.valueOf(7), page.getLastId());
+        verify(fileRepository, Mockito.never()).findAll();
+    }
+
+    /**
+     * Тест страницы файлов после курсора, перед которым все файлы удалены: предыдущей страницы нет
+     */
+    @Test
+    public void findFilesAfterDeletedTest() {
+        ReflectionTestUtils.setField(fileService, "pageSize", 2);
+        List<UserFile> files = Collections.singletonList(new UserFile(9, TEST_HASH, "test3.txt", 0));
+        Mockito.doReturn(files).when(fileRepository).findAfterWithOwner(7, PageRequest.of(0, 3));
+        Mockito.doReturn(false).when(fileRepository).existsByIdLessThanEqual(7);
+
+        FilePage page = fileService.findFiles(7, null);
+
+        Assert.assertEquals(files, page.getFiles());
+        Assert.assertFalse(page.getHasPrevious());
+        Assert.assertFalse(page.getHasNext());
+
+        Mockito.doReturn(true).when(fileRepository).existsByIdLessThanEqual(7);
+        Assert.assertTrue(fileService.findFiles(7, null).getHasPrevious());
     }
 
     /**
-     * Тест метода, возвращающего список файлов
+     * Тест метода, возвращающего страницу файлов владельца: сортировка по выбранному полю, затем по id
      */
     @Test
-    public void findAllFilesTest() {
-        List<UserFile> files = Collections.singletonList(new UserFile(5,
-                "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0));
-        Mockito.doReturn(files).when(fileRepository).findAll();
-        List<UserFile> files2 = fileService.findAllFiles();
-        verify(fileRepository).findAll();
-        Assert.assertEquals(files, files2);
+    public void findOwnerFilesTest() {
+        ReflectionTestUtils.setField(fileService, "pageSize", 2);
+        Page<UserFile> page = new PageImpl<>(Collections.singletonList(new UserFile(5, TEST_HASH, "test.txt", 0)));
+        PageRequest expected = PageRequest.of(1, 2, Sort.by(Sort.Direction.DESC, "downloadCount")
+                .and(Sort.by(Sort.Direction.DESC, "id")));
+        Mockito.doReturn(page).when(fileRepository).findPageByOwnerId(1, expected);
+
+        Assert.assertEquals(page, fileService.findOwnerFiles(fileOwner, 1, "downloads", true));
+
+        PageRequest byDate = PageRequest.of(0, 2, Sort.by(Sort.Direction.ASC, "uploadDate")
+                .and(Sort.by(Sort.Direction.ASC, "id")));
+        fileService.findOwnerFiles(fileOwner, -1, "size; DROP TABLE file", false);
+        verify(fileRepository).findPageByOwnerId(1, byDate);
+    }
+
+    /**
+     * Тест метода, возвращающего предыдущую страницу списка файлов
+     */
+    @Test
+    public void findFilesBeforeTest() {
+        ReflectionTestUtils.setField(fileService, "pageSize", 2);
+        List<UserFile> files = Arrays.asList(new UserFile(7, TEST_HASH, "test2.txt", 0),
+                new UserFile(5, TEST_HASH, "test.txt", 0));
+        Mockito.doReturn(files).when(fileRepository).findBeforeWithOwner(9, PageRequest.of(0, 3));
+        Mockito.doReturn(true).when(fileRepository).existsByIdGreaterThanEqual(9);
+
+        FilePage page = fileService.findFiles(null, 9);
+
+        Assert.assertEquals(Arrays.asList(files.get(1), files.get(0)), page.getFiles());
+        Assert.assertFalse(page.getHasPrevious());
+        Assert.assertTrue(page.getHasNext());
+        Assert.assertEquals(Integer.valueOf(5), page.getFirstId());
     }
 
     /**
@@ -85,46 +227,409 @@ public class FileServiceTest {
         fileService.uploadFile(fileOwner, multipartFile);
         verify(fileRepository).save(argThat(new UserFileMatcher(new UserFile(null,
                 "5086663c-c4d0-47ca-907d-4be2020355fc.test2.txt", "test2.txt", 0))));
-        File dir = new File("src/test/resources/uploads");
-        File[] matchingFiles = dir.listFiles((uploadPath, name) -> name.endsWith("test2.txt"));
-        Assert.assertNotNull(matchingFiles);
-        File file = Arrays.stream(matchingFiles)
-                .filter(f -> f.getName().endsWith("test2.txt"))
-                .findFirst()
-                .orElse(null);
+        verify(fileRepository).save(argThat(userFile -> TEST_HASH.equals(userFile.getContentHash())
+                && TEST_HASH.equals(userFile.getFileName())));
+        verify(contentRepository).acquire(TEST_HASH, 4L, null);
+        verify(fileRepository).save(argThat(userFile -> Long.valueOf(4).equals(userFile.getSize())
+                && MediaType.TEXT_PLAIN_VALUE.equals(userFile.getContentType())));
+        verify(userRepository).reserveBytes(1, 4L, 0L);
+        File file = new File(TEST_SHARDED_PATH);
         Assert.assertTrue(file.exists());
+    }
+
+    /**
+     * Тест метода сохранения файла, который не помещается в квоту пользователя:
+     * файл не сохраняется, временный объект хранилища удаляется
+     */
+    @Test
+    public void uploadFileQuotaExceededTest() {
+        Mockito.doReturn(0).when(userRepository).reserveBytes(1, 4L, 0L);
+        MultipartFile multipartFile = new MockMultipartFile("test2", "test2.txt", MediaType.TEXT_PLAIN_VALUE,
+                "test".getBytes());
+
+        try {
+            fileService.uploadFile(fileOwner, multipartFile);
+            Assert.fail();
+        } catch (QuotaExceededException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Storage quota exceeded"));
+        }
+
+        verify(fileRepository, Mockito.never()).save(ArgumentMatchers.any(UserFile.class));
+        verify(contentRepository, Mockito.never()).acquire(ArgumentMatchers.any(), ArgumentMatchers.anyLong(),
+                ArgumentMatchers.any());
+        Assert.assertFalse(new File(TEST_SHARDED_PATH).exists());
+    }
+
+    /**
+     * Тест проверки квоты до чтения файла
+     */
+    @Test
+    public void checkQuotaTest() {
+        User user = new User(1, "Maria", "maria", "example@example.com", null, true);
+        user.setUsedBytes(90L);
+        user.setQuotaBytes(100L);
+        Mockito.doReturn(Optional.of(user)).when(userRepository).findById(1);
+
+        fileService.checkQuota(fileOwner, 10);
+        try {
+            fileService.checkQuota(fileOwner, 11);
+            Assert.fail();
+        } catch (QuotaExceededException e) {
+            Assert.assertEquals("Storage quota exceeded: 90 of 100 bytes used, 11 more requested!", e.getMessage());
+        }
+    }
+
+    /**
+     * Тест метода сохранения нескольких файлов одним пакетом
+     */
+    @Test
+    public void uploadFilesTest() {
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .saveAll(ArgumentMatchers.anyList());
+        List<MultipartFile> files = Arrays.asList(
+                new MockMultipartFile("file", "test.txt", MediaType.TEXT_PLAIN_VALUE, "test".getBytes()),
+                new MockMultipartFile("file", "test2.txt", MediaType.TEXT_PLAIN_VALUE, "test2".getBytes()));
+
+        List<UserFile> userFiles = fileService.uploadFiles(fileOwner, files);
+
+        Assert.assertEquals(2, userFiles.size());
+        Assert.assertEquals("test.txt", userFiles.get(0).getOriginalName());
+        Assert.assertEquals(TEST_HASH, userFiles.get(0).getContentHash());
+        Assert.assertEquals(TEST2_HASH, userFiles.get(1).getContentHash());
+        Assert.assertEquals(fileOwner, userFiles.get(1).getUser());
+        verify(fileRepository).saveAll(ArgumentMatchers.anyList());
+        verify(fileRepository, Mockito.never()).save(ArgumentMatchers.any(UserFile.class));
+        verify(userRepository).reserveBytes(1, 9L, 0L);
+        Assert.assertTrue(new File(TEST_SHARDED_PATH).exists());
+        Assert.assertTrue(new File("src/test/resources/uploads/60/30/" + TEST2_HASH).exists());
+    }
+
+    /**
+     * Тест метода сохранения нескольких файлов, когда один файл не удалось прочитать:
+     * не сохраняется ни один файл
+     *
+     * @throws IOException
+     */
+    @Test
+    public void uploadFilesFailTest() throws IOException {
+        MultipartFile brokenFile = Mockito.mock(MultipartFile.class);
+        Mockito.doReturn("test2.txt").when(brokenFile).getOriginalFilename();
+        Mockito.doThrow(new IOException("broken")).when(brokenFile).getInputStream();
+        List<MultipartFile> files = Arrays.asList(
+                new MockMultipartFile("file", "test.txt", MediaType.TEXT_PLAIN_VALUE, "test".getBytes()),
+                brokenFile);
+
+        try {
+            fileService.uploadFiles(fileOwner, files);
+            Assert.fail();
+        } catch (NotFoundException e) {
+            Assert.assertEquals("The file or path was not found!", e.getMessage());
+        }
+
+        verify(fileRepository, Mockito.never()).saveAll(ArgumentMatchers.anyList());
+        verify(contentRepository, Mockito.never()).acquire(ArgumentMatchers.any(), ArgumentMatchers.anyLong(),
+                ArgumentMatchers.any());
+        Assert.assertFalse(new File(TEST_SHARDED_PATH).exists());
+        try (Stream<Path> stagedFiles = Files.list(Paths.get("src/test/resources/uploads"))) {
+            Assert.assertFalse(stagedFiles.anyMatch(path -> path.getFileName().toString().startsWith(".upload-")));
+        }
+    }
+
+    /**
+     * Тест метода сохранения файла из потока
+     */
+    @Test
+    public void uploadFileStreamTest() {
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .save(ArgumentMatchers.any(UserFile.class));
+        UserFile userFile = fileService.uploadFile(fileOwner, "test2.txt",
+                new ByteArrayInputStream("test".getBytes()));
+        Assert.assertEquals("test2.txt", userFile.getOriginalName());
+        Assert.assertEquals(TEST_HASH, userFile.getFileName());
+        Assert.assertNotNull(userFile.getUploadDate());
+        verify(contentRepository).acquire(TEST_HASH, 4L, null);
+        File file = new File(TEST_SHARDED_PATH);
+        Assert.assertTrue(file.exists());
+    }
+
+    /**
+     * Тест чтения потока загрузки до открытия транзакции: соединение с базой данных не занято на время передачи
+     */
+    @Test
+    public void uploadFileStreamOutsideTransactionTest() {
+        AtomicBoolean read = new AtomicBoolean();
+        InputStream body = new ByteArrayInputStream("test".getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int count = super.read(b, off, len);
+                read.set(count == -1);
+                return count;
+            }
+        };
+        Mockito.doAnswer(invocation -> {
+            Assert.assertTrue("Transaction opened before the upload was read", read.get());
+            return null;
+        }).when(transactionManager).getTransaction(ArgumentMatchers.any());
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .save(ArgumentMatchers.any(UserFile.class));
+
+        fileService.uploadFile(fileOwner, "test2.txt", body);
+
+        verify(transactionManager).getTransaction(ArgumentMatchers.any());
+        verify(transactionManager).commit(ArgumentMatchers.any());
+    }
+
+    /**
+     * Тест метода сохранения файла со сжатием при хранении
+     *
+     * @throws IOException
+     */
+    @Test
+    public void uploadCompressedFileTest() throws IOException {
+        ReflectionTestUtils.setField(fileService, "compressionEnabled", true);
+        ReflectionTestUtils.setField(fileService, "compressionMinSize", 1024);
+        byte[] content = String.join("", Collections.nCopies(512, "test")).getBytes();
+        String hash = "8e6dbb52317ccd19e3f4651bb62c22563eba80908461ace0b6f43081c0ec94f1";
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .save(ArgumentMatchers.any(UserFile.class));
+
+        UserFile userFile = fileService.uploadFile(fileOwner, "test.txt", new ByteArrayInputStream(content));
+
+        Assert.assertEquals(hash, userFile.getContentHash());
+        Assert.assertEquals("gzip", userFile.getContentEncoding());
+        verify(contentRepository).acquire(hash, 2048L, "gzip");
+        Path stored = Paths.get("src/test/resources/uploads", hash.substring(0, 2), hash.substring(2, 4), hash);
+        byte[] storedContent = Files.readAllBytes(stored);
+        Assert.assertTrue(storedContent.length < content.length);
+        Assert.assertEquals(0x1f, storedContent[0] & 0xFF);
+        Assert.assertEquals(0x8b, storedContent[1] & 0xFF);
+
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        UserFileResource resource = (UserFileResource) fileService.downloadFile(fileOwner, "5");
+        try (InputStream in = resource.getDecodedInputStream()) {
+            Assert.assertArrayEquals(content, StreamUtils.copyToByteArray(in));
+        }
+        FileSystemUtils.deleteRecursively(new File("src/test/resources/uploads", hash.substring(0, 2)));
+    }
+
+    /**
+     * Тест метода сохранения маленького файла, который не сжимается
+     */
+    @Test
+    public void uploadSmallFileWithCompressionTest() {
+        ReflectionTestUtils.setField(fileService, "compressionEnabled", true);
+        ReflectionTestUtils.setField(fileService, "compressionMinSize", 1024);
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .save(ArgumentMatchers.any(UserFile.class));
+
+        UserFile userFile = fileService.uploadFile(fileOwner, "test2.txt",
+                new ByteArrayInputStream("test".getBytes()));
+
+        Assert.assertNull(userFile.getContentEncoding());
+        verify(contentRepository).acquire(TEST_HASH, 4L, null);
+        Assert.assertTrue(new File(TEST_SHARDED_PATH).exists());
+    }
+
+    /**
+     * Тест метода сохранения файла из потока без имени
+     */
+    @Test(expected = NotFoundException.class)
+    public void missingNameUploadFileStreamTest() {
+        fileService.uploadFile(fileOwner, "", new ByteArrayInputStream("test".getBytes()));
+    }
+
+    /**
+     * Тест метода сохранения файла, загруженного по частям: сессия связывается с файлом в той же транзакции
+     *
+     * @throws IOException
+     */
+    @Test
+    public void uploadStagedFileTest() throws IOException {
+        UploadSession session = new UploadSession("3f8d6d2a-6a57-4c1e-9a1b-2f1f0c3c9e11", "test2.txt", new Date(),
+                fileOwner);
+        Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(fileRepository)
+                .save(ArgumentMatchers.any(UserFile.class));
+        Mockito.doAnswer(invocation -> {
+            Assert.assertNotNull(((UploadSession) invocation.getArgument(0)).getFile());
+            verify(transactionManager, Mockito.never()).commit(ArgumentMatchers.any());
+            return invocation.getArgument(0);
+        }).when(sessionRepository).save(session);
+        UserFile userFile = fileService.uploadStagedFile(fileOwner, session,
+                new ByteArrayInputStream("test".getBytes()));
+        Assert.assertEquals("test2.txt", userFile.getOriginalName());
+        Assert.assertEquals(TEST_HASH, userFile.getContentHash());
+        Assert.assertEquals(userFile, session.getFile());
+        verify(contentRepository).acquire(TEST_HASH, 4L, null);
+        verify(transactionManager).commit(ArgumentMatchers.any());
+        File file = new File(TEST_SHARDED_PATH);
+        Assert.assertTrue(file.exists());
+    }
+
+    /**
+     * Тест метода сохранения файла, содержимое которого уже хранится на диске
+     *
+     * @throws IOException
+     */
+    @Test
+    public void uploadDuplicateFileTest() throws IOException {
+        File file = new File("src/test/resources/uploads/" + TEST_HASH);
+        Files.write(file.toPath(), "test".getBytes());
+        long lastModified = file.lastModified();
+        File dir = new File("src/test/resources/uploads");
+        int filesCount = dir.listFiles().length;
+
+        MultipartFile multipartFile = new MockMultipartFile("test2", "test2.txt", MediaType.TEXT_PLAIN_VALUE,
+                "test".getBytes());
+        fileService.uploadFile(notOwner, multipartFile);
+
+        verify(contentRepository).acquire(TEST_HASH, 4L, null);
+        Assert.assertEquals(filesCount, dir.listFiles().length);
+        Assert.assertEquals(lastModified, file.lastModified());
         file.delete();
     }
 
     /**
      * Тест метода загрузки файла владельцем
      *
-     * @throws MalformedURLException
+     * @throws IOException
      */
     @Test
-    public void downloadFileByOwnerTest() throws MalformedURLException {
+    public void downloadFileByOwnerTest() throws IOException {
         UserFile userFile = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         userFile.setUser(fileOwner);
         Mockito.doReturn(userFile).when(fileRepository).getOne(5);
 
         Resource testResource = fileService.downloadFile(fileOwner, "5");
-        Assert.assertTrue(userFile.getDownloadCount() == 1);
+        verify(downloadCounter).increment(5);
 
-        verify(accessRepository).findByUserAndSubscriber(fileOwner, fileOwner);
-        verify(fileRepository).save(userFile);
+        verify(accessRepository, Mockito.never()).findDecision(ArgumentMatchers.any(), ArgumentMatchers.any());
+        verify(fileRepository, times(0)).save(userFile);
 
         Path rootLocation = Paths.get("src/test/resources/uploads");
         Path file = rootLocation.resolve(userFile.getFileName());
         Resource resource = new UrlResource(file.toUri());
-        Assert.assertEquals(resource, testResource);
+        Assert.assertEquals(resource.getURL(), testResource.getURL());
+    }
+
+    /**
+     * Тест метода, находящего выбранные файлы владельца для скачивания архивом: запрашиваются только выбранные id,
+     * скачивания не учитываются до отправки файлов
+     *
+     * @throws IOException
+     */
+    @Test
+    public void downloadFilesTest() throws IOException {
+        UserFile second = new UserFile(6, "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test2.txt", 0);
+        second.setUser(fileOwner);
+        Mockito.doReturn(Collections.singletonList(second)).when(fileRepository)
+                .findByOwnerIdAndIds(1, Arrays.asList(6, 8));
+        Access access = new Access(fileOwner, notOwner);
+        access.setDownloadAccess(true);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
+
+        List<UserFileResource> resources = new ArrayList<>();
+        fileService.downloadFiles(notOwner, "1", Arrays.asList(8, 6, 8)).forEach(resources::add);
+
+        Assert.assertEquals(1, resources.size());
+        Assert.assertEquals("test2.txt", resources.get(0).getFilename());
+        Assert.assertTrue(resources.get(0).exists());
+        verify(fileRepository, Mockito.never()).findByOwnerIdAfter(ArgumentMatchers.any(), ArgumentMatchers.anyInt(), ArgumentMatchers.any());
+        verify(downloadCounter, Mockito.never()).increment(ArgumentMatchers.anyInt());
+    }
+
+    /**
+     * Тест метода, находящего все файлы владельца для скачивания архивом: файлы запрашиваются порциями по id
+     */
+    @Test
+    public void downloadAllFilesTest() {
+        List<UserFile> firstBatch = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            UserFile userFile = new UserFile(id, "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
+            userFile.setUser(fileOwner);
+            firstBatch.add(userFile);
+        }
+        UserFile lastFile = new UserFile(150, "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
+        lastFile.setUser(fileOwner);
+        Mockito.doReturn(firstBatch).when(fileRepository).findByOwnerIdAfter(ArgumentMatchers.eq(1), ArgumentMatchers.eq(0), ArgumentMatchers.any());
+        Mockito.doReturn(Collections.singletonList(lastFile)).when(fileRepository)
+                .findByOwnerIdAfter(ArgumentMatchers.eq(1), ArgumentMatchers.eq(100), ArgumentMatchers.any());
+
+        int count = 0;
+        for (UserFileResource resource : fileService.downloadFiles(fileOwner, "1", null)) {
+            count++;
+        }
+
+        Assert.assertEquals(101, count);
+        verify(fileRepository, times(2)).findByOwnerIdAfter(ArgumentMatchers.eq(1), ArgumentMatchers.anyInt(), ArgumentMatchers.any());
+    }
+
+    /**
+     * Тест метода, находящего файлы владельца для скачивания архивом, без доступа к скачиванию
+     */
+    @Test(expected = AccessException.class)
+    public void downloadFilesWithoutAccessTest() {
+        fileService.downloadFiles(notOwner, "1", null);
+    }
+
+    /**
+     * Тест метода загрузки части файла, которая не учитывается в счетчике скачиваний
+     */
+    @Test
+    public void downloadFilePartTest() {
+        UserFile userFile = new UserFile(5,
+                "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+
+        Resource resource = fileService.downloadFile(fileOwner, "5", false);
+
+        Assert.assertTrue(resource.exists());
+        Assert.assertTrue(userFile.getDownloadCount() == 0);
+        verify(fileRepository, times(0)).save(userFile);
+        verify(downloadCounter, times(0)).increment(5);
+    }
+
+    /**
+     * Тест метода загрузки часто скачиваемого файла из кэша и удаления файла из кэша вместе с содержимым
+     *
+     * @throws IOException
+     */
+    @Test
+    public void downloadHotFileTest() throws IOException {
+        File file = new File("src/test/resources/uploads/" + TEST_HASH);
+        Files.write(file.toPath(), "test".getBytes());
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setContentHash(TEST_HASH);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+
+        fileService.downloadFile(fileOwner, "5");
+        Assert.assertEquals(0, hotFileCache.getEntryCount());
+        fileService.downloadFile(fileOwner, "5");
+        Assert.assertEquals(1, hotFileCache.getEntryCount());
+        Assert.assertTrue(file.delete());
+
+        Resource resource = fileService.downloadFile(fileOwner, "5");
+        Assert.assertEquals(1, hotFileCache.getHitCount());
+        Assert.assertEquals("test.txt", resource.getFilename());
+        Assert.assertEquals("test", StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+
+        Files.write(file.toPath(), "test".getBytes());
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
+        Mockito.doReturn(new FileContent(TEST_HASH, 4L, 1)).when(contentRepository).findByHash(TEST_HASH);
+        fileService.purgeFile(5);
+        Assert.assertEquals(0, hotFileCache.getEntryCount());
+        Assert.assertFalse(file.exists());
     }
 
     /**
      * Тест метода загрузки файла не владельцем, но имеющим доступ на скачивание
      */
     @Test
-    public void downloadFileByNotOwnerTest() throws MalformedURLException {
+    public void downloadFileByNotOwnerTest() throws IOException {
         UserFile userFile = new UserFile(5,
                 "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
         userFile.setUser(fileOwner);
@@ -132,18 +637,100 @@ public class FileServiceTest {
 
         Access access = new Access(fileOwner, notOwner);
         access.setDownloadAccess(true);
-        Mockito.doReturn(access).when(accessRepository).findByUserAndSubscriber(fileOwner, notOwner);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
 
         Resource testResource = fileService.downloadFile(notOwner, "5");
-        Assert.assertTrue(userFile.getDownloadCount() == 1);
+        verify(downloadCounter).increment(5);
 
-        verify(accessRepository).findByUserAndSubscriber(fileOwner, notOwner);
-        verify(fileRepository).save(userFile);
+        verify(accessRepository).findDecision(1, 2);
+        verify(fileRepository, times(0)).save(userFile);
 
         Path rootLocation = Paths.get("src/test/resources/uploads");
         Path file = rootLocation.resolve(userFile.getFileName());
         Resource resource = new UrlResource(file.toUri());
-        Assert.assertEquals(resource, testResource);
+        Assert.assertEquals(resource.getURL(), testResource.getURL());
+    }
+
+    /**
+     * Тест метода поиска файла для условного запроса: содержимое не читается и не учитывается в счетчике скачиваний
+     */
+    @Test
+    public void findFileTest() {
+        UserFile userFile = new UserFile(5, "missing", "test.txt", 0);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        Access access = new Access(fileOwner, notOwner);
+        access.setDownloadAccess(true);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
+
+        Assert.assertEquals(userFile, fileService.findFile(notOwner, "5"));
+        Assert.assertTrue(userFile.getDownloadCount() == 0);
+        verify(fileRepository, times(0)).save(userFile);
+    }
+
+    /**
+     * Тест проверки доступа по загруженному индексу: база данных не читается
+     */
+    @Test
+    public void findFileWithPermissionIndexTest() {
+        UserFile userFile = new UserFile(5, "missing", "test.txt", 0);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, AccessDecision.DOWNLOAD_ACCESS);
+        permissionIndex.finishLoading();
+
+        Assert.assertEquals(userFile, fileService.findFile(notOwner, "5"));
+        verify(accessRepository, Mockito.never()).findDecision(ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        permissionIndex.startLoading();
+        permissionIndex.load(1, 2, AccessDecision.DOWNLOAD_ACCESS | AccessDecision.DOWNLOAD_REQUEST);
+        permissionIndex.finishLoading();
+        try {
+            fileService.findFile(notOwner, "5");
+            Assert.fail();
+        } catch (AccessException e) {
+            Assert.assertEquals("You need permission to perform this action!", e.getMessage());
+        }
+    }
+
+    /**
+     * Тест проверки доступа, предоставленного группой владельца
+     */
+    @Test
+    public void findFileWithGroupAccessTest() {
+        UserFile userFile = new UserFile(5, "missing", "test.txt", 0);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        permissionIndex.startLoading();
+        permissionIndex.finishLoading();
+        Mockito.when(groupService.findGroupFlags(1, 2)).thenReturn(AccessDecision.DOWNLOAD_ACCESS);
+
+        Assert.assertEquals(userFile, fileService.findFile(notOwner, "5"));
+
+        Mockito.when(groupService.findGroupFlags(1, 2)).thenReturn(AccessDecision.READ_ACCESS);
+        try {
+            fileService.findFile(notOwner, "5");
+            Assert.fail();
+        } catch (AccessException e) {
+            Assert.assertEquals("You need permission to perform this action!", e.getMessage());
+        }
+    }
+
+    /**
+     * Тест метода поиска файла для условного запроса пользователем, не имеющим доступа
+     */
+    @Test(expected = AccessException.class)
+    public void findFileByNotOwnerFailTest() {
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setUser(fileOwner);
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        Access access = new Access(fileOwner, notOwner);
+        access.setDownloadAccess(true);
+        access.setDownloadRequest(true);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
+
+        fileService.findFile(notOwner, "5");
     }
 
     /**
@@ -157,11 +744,11 @@ public class FileServiceTest {
         Mockito.doReturn(userFile).when(fileRepository).getOne(5);
 
         Access access = null;
-        Mockito.doReturn(access).when(accessRepository).findByUserAndSubscriber(fileOwner, notOwner);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
 
         fileService.downloadFile(notOwner, "5");
 
-        verify(accessRepository).findByUserAndSubscriber(fileOwner, fileOwner);
+        verify(accessRepository).findDecision(1, 2);
         verifyNoMoreInteractions(fileRepository);
     }
 
@@ -177,11 +764,11 @@ public class FileServiceTest {
 
         Access access = new Access(fileOwner, notOwner);
         access.setReadAccess(true);
-        Mockito.doReturn(access).when(accessRepository).findByUserAndSubscriber(fileOwner, notOwner);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
 
         fileService.downloadFile(notOwner, "5");
 
-        verify(accessRepository).findByUserAndSubscriber(fileOwner, fileOwner);
+        verify(accessRepository).findDecision(1, 2);
         verifyNoMoreInteractions(fileRepository);
     }
 
@@ -197,11 +784,11 @@ public class FileServiceTest {
 
         Access access = new Access(fileOwner, notOwner);
         access.setDownloadRequest(true);
-        Mockito.doReturn(access).when(accessRepository).findByUserAndSubscriber(fileOwner, notOwner);
+        Mockito.doReturn(AccessDecision.of(access)).when(accessRepository).findDecision(1, 2);
 
         fileService.downloadFile(notOwner, "5");
 
-        verify(accessRepository).findByUserAndSubscriber(fileOwner, fileOwner);
+        verify(accessRepository).findDecision(1, 2);
         verifyNoMoreInteractions(fileRepository);
     }
 
@@ -230,7 +817,7 @@ public class FileServiceTest {
     }
 
     /**
-     * Тест метода удаления файла владельцем
+     * Тест метода удаления файла владельцем: файл помечается удаленным, содержимое остается до фонового удаления
      *
      * @throws IOException
      */
@@ -244,11 +831,130 @@ public class FileServiceTest {
         UserFile userFile = new UserFile(5,
                 "5086663c-c4d0-47ca-907d-4be2020355fc.test2.txt", "test2.txt", 0);
         userFile.setUser(fileOwner);
+        userFile.setSize(4L);
         Mockito.doReturn(userFile).when(fileRepository).getOne(5);
         fileService.deleteFile(fileOwner,"5");
 
         verify(fileRepository).getOne(5);
-        verify(fileRepository).delete(userFile);
+        verify(fileRepository).save(userFile);
+        verify(userRepository).releaseBytes(1, 4L);
+        verify(fileRepository, times(0)).delete(userFile);
+        Assert.assertNotNull(userFile.getDeletedDate());
+        Assert.assertTrue(file.exists());
+
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
+        Assert.assertTrue(fileService.purgeFile(5));
+        verify(fileRepository).removeDeleted(5);
+        Assert.assertFalse(file.exists());
+    }
+
+    /**
+     * Тест метода удаления файла, уже помеченного удаленным
+     */
+    @Test(expected = NotFoundException.class)
+    public void deleteDeletedFileFailTest() {
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setUser(fileOwner);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+
+        fileService.deleteFile(fileOwner, "5");
+    }
+
+    /**
+     * Тест метода загрузки файла, помеченного удаленным
+     */
+    @Test(expected = NotFoundException.class)
+    public void downloadDeletedFileFailTest() {
+        UserFile userFile = new UserFile(5,
+                "47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt", "test.txt", 0);
+        userFile.setUser(fileOwner);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+
+        fileService.downloadFile(fileOwner, "5");
+    }
+
+    /**
+     * Тест метода удаления содержимого файла, которое используется другими файлами
+     *
+     * @throws IOException
+     */
+    @Test
+    public void purgeSharedContentFileTest() throws IOException {
+        File file = new File("src/test/resources/uploads/" + TEST_HASH);
+        Files.write(file.toPath(), "test".getBytes());
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setContentHash(TEST_HASH);
+        userFile.setUser(fileOwner);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
+        FileContent content = new FileContent(TEST_HASH, 4L, 2);
+        Mockito.doReturn(content).when(contentRepository).findByHash(TEST_HASH);
+
+        Assert.assertTrue(fileService.purgeFile(5));
+
+        verify(fileRepository).removeDeleted(5);
+        verify(contentRepository).save(content);
+        Assert.assertEquals(Integer.valueOf(1), content.getRefCount());
+        Assert.assertTrue(file.exists());
+        file.delete();
+    }
+
+    /**
+     * Тест метода удаления содержимого последнего файла, ссылающегося на него
+     *
+     * @throws IOException
+     */
+    @Test
+    public void purgeLastContentFileTest() throws IOException {
+        File file = new File("src/test/resources/uploads/" + TEST_HASH);
+        Files.write(file.toPath(), "test".getBytes());
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setContentHash(TEST_HASH);
+        userFile.setUser(fileOwner);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
+        FileContent content = new FileContent(TEST_HASH, 4L, 1);
+        Mockito.doReturn(content).when(contentRepository).findByHash(TEST_HASH);
+
+        Assert.assertTrue(fileService.purgeFile(5));
+
+        verify(fileRepository).removeDeleted(5);
+        verify(contentRepository).delete(content);
+        Assert.assertFalse(file.exists());
+    }
+
+    /**
+     * Тест метода удаления содержимого файла, который не помечен удаленным
+     */
+    @Test
+    public void purgeNotDeletedFileTest() {
+        Assert.assertFalse(fileService.purgeFile(5));
+        verify(fileRepository, times(0)).removeDeleted(5);
+        verifyNoMoreInteractions(contentRepository);
+    }
+
+    /**
+     * Тест метода удаления содержимого файла, уже перенесенного в иерархическое размещение
+     *
+     * @throws IOException
+     */
+    @Test
+    public void purgeShardedFileTest() throws IOException {
+        File file = new File(TEST_SHARDED_PATH);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), "test".getBytes());
+        UserFile userFile = new UserFile(5, TEST_HASH, "test.txt", 0);
+        userFile.setContentHash(TEST_HASH);
+        userFile.setUser(fileOwner);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
+        Mockito.doReturn(new FileContent(TEST_HASH, 4L, 1)).when(contentRepository).findByHash(TEST_HASH);
+
+        fileService.purgeFile(5);
+
+        verify(fileRepository).removeDeleted(5);
         Assert.assertFalse(file.exists());
     }
 
@@ -300,22 +1006,55 @@ public class FileServiceTest {
     }
 
     /**
-     * Тест метода удаления файла, если файл найден в базе данных, но не найден на диске
+     * Тест метода удаления содержимого файла, которое уже отсутствует на диске,
+     * например, если приложение остановилось после удаления содержимого, но до удаления строки
      */
-    @Test(expected = NotFoundException.class)
-    public void deleteNotExistFileFailTest2() {
+    @Test
+    public void purgeMissingContentFileTest() {
         UserFile userFile = new UserFile(5,
                 "2b2bddef-15f1-4469-bbcb-9d72505df459.test.txt", "test.txt", 0);
         userFile.setUser(fileOwner);
-        Mockito.doReturn(userFile).when(fileRepository).getOne(5);
+        userFile.setDeletedDate(new Date());
+        Mockito.doReturn(userFile).when(fileRepository).findDeletedById(5);
         File file = new File("src/test/resources/uploads/2b2bddef-15f1-4469-bbcb-9d72505df459.test.txt");
 
         Assert.assertFalse(file.exists());
 
-        fileService.deleteFile(fileOwner, "5");
+        Assert.assertTrue(fileService.purgeFile(5));
 
-        verify(fileRepository).getOne(ArgumentMatchers.any(Integer.class));
-        verifyNoMoreInteractions(fileRepository);
+        verify(fileRepository).removeDeleted(5);
+    }
+
+    /**
+     * Тест удаления содержимого, на которое не ссылается ни один файл
+     *
+     * @throws IOException
+     */
+    @Test
+    public void deleteOrphanContentTest() throws IOException {
+        File file = new File(TEST_SHARDED_PATH);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), "test".getBytes());
+
+        Assert.assertTrue(fileService.deleteOrphanContent(TEST_HASH));
+        Assert.assertFalse(file.exists());
+        verify(contentRepository).findByHash(TEST_HASH);
+    }
+
+    /**
+     * Тест метода удаления содержимого без ссылок, когда ссылка появилась после сверки
+     *
+     * @throws IOException
+     */
+    @Test
+    public void deleteReferencedContentTest() throws IOException {
+        File file = new File(TEST_SHARDED_PATH);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), "test".getBytes());
+        Mockito.doReturn(new FileContent(TEST_HASH, 4L, 1)).when(contentRepository).findByHash(TEST_HASH);
+
+        Assert.assertFalse(fileService.deleteOrphanContent(TEST_HASH));
+        Assert.assertTrue(file.exists());
     }
 
 }
@@ -0,0 +1,102 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+
+/**
+ * Тест индекса групп в памяти
+ */
+public class SharingGroupIndexTest {
+
+    /**
+     * Тест поиска доступа по группам владельца
+     */
+    @Test
+    public void getTest() {
+        SharingGroupIndex index = new SharingGroupIndex();
+        index.startLoading();
+        index.loadGroup(10, 1, AccessDecision.READ_ACCESS);
+        index.loadGroup(11, 1, AccessDecision.DOWNLOAD_ACCESS);
+        index.loadGroup(12, 2, AccessDecision.DOWNLOAD_ACCESS);
+        for (int memberId = 2099; memberId >= 100; memberId--) {
+            index.loadMember(10, memberId);
+        }
+        index.loadMember(11, 5);
+        index.loadMember(12, 6);
+        index.loadMember(13, 7);
+
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(1, 100));
+        index.finishLoading();
+
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 2099));
+        Assert.assertEquals(AccessDecision.READ_ACCESS, index.get(1, 100));
+        Assert.assertEquals(0, index.get(1, 99));
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(1, 5));
+        Assert.assertEquals(0, index.get(1, 6));
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(2, 6));
+        Assert.assertEquals(0, index.get(3, 100));
+        Assert.assertEquals(3, index.getGroupCount());
+    }
+
+    /**
+     * Тест изменения групп и участников после загрузки: поиск по ним не возвращает флаги до следующей загрузки
+     */
+    @Test
+    public void markStaleTest() {
+        SharingGroupIndex index = new SharingGroupIndex();
+        index.startLoading();
+        index.loadGroup(10, 1, AccessDecision.DOWNLOAD_ACCESS);
+        index.loadGroup(11, 2, AccessDecision.READ_ACCESS);
+        index.loadMember(10, 5);
+        index.loadMember(10, 6);
+        index.loadMember(11, 5);
+        index.finishLoading();
+
+        index.markStale(1, 5);
+        index.markUserStale(2);
+
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(1, 5));
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(1, 6));
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(2, 5));
+        Assert.assertEquals(2, index.getStaleCount());
+
+        index.startLoading();
+        index.loadGroup(10, 1, AccessDecision.DOWNLOAD_ACCESS);
+        index.loadMember(10, 6);
+        index.finishLoading();
+
+        Assert.assertEquals(0, index.get(1, 5));
+        Assert.assertEquals(0, index.get(2, 5));
+        Assert.assertEquals(0, index.getStaleCount());
+    }
+
+    /**
+     * Тест изменений, сделанных во время загрузки: прочитанные до изменения данные не используются,
+     * а старая копия отвечает на поиск до конца загрузки
+     */
+    @Test
+    public void markStaleDuringLoadingTest() {
+        SharingGroupIndex index = new SharingGroupIndex();
+        index.startLoading();
+        index.loadGroup(10, 1, AccessDecision.DOWNLOAD_ACCESS);
+        index.loadMember(10, 5);
+        index.finishLoading();
+
+        index.startLoading();
+        index.loadGroup(10, 1, AccessDecision.DOWNLOAD_ACCESS);
+        index.loadGroup(11, 2, AccessDecision.READ_ACCESS);
+        index.loadMember(10, 5);
+        index.loadMember(10, 7);
+        index.loadMember(11, 7);
+        index.markStale(1, 5);
+        index.markUserStale(2);
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(1, 5));
+        Assert.assertEquals(0, index.get(1, 7));
+        index.finishLoading();
+
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(1, 5));
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, index.get(1, 7));
+        Assert.assertEquals(SharingGroupIndex.UNKNOWN, index.get(2, 7));
+    }
+}
@@ -0,0 +1,213 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import ru.bellintegrator.filesharing.exception.AlreadyExistException;
+import ru.bellintegrator.filesharing.exception.NotFoundException;
+import ru.bellintegrator.filesharing.model.AccessDecision;
+import ru.bellintegrator.filesharing.model.GroupMember;
+import ru.bellintegrator.filesharing.model.GroupMemberId;
+import ru.bellintegrator.filesharing.model.SharingGroup;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.repository.GroupMemberRepository;
+import ru.bellintegrator.filesharing.repository.SharingGroupRepository;
+import ru.bellintegrator.filesharing.repository.UserRepository;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тест сервиса групп
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SharingGroupServiceTest {
+
+    @Mock
+    private SharingGroupRepository groupRepository;
+
+    @Mock
+    private GroupMemberRepository memberRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Spy
+    private SharingGroupIndex groupIndex = new SharingGroupIndex();
+
+    @InjectMocks
+    private SharingGroupServiceImpl groupService;
+
+    private User owner = new User(1, "Maria", "maria", "example@example.com", null, true);
+    private User member = new User(2, "John", "john", "example@example.com", null, true);
+
+    /**
+     * Тест создания группы
+     */
+    @Test
+    public void createGroupTest() {
+        when(userRepository.getOne(1)).thenReturn(owner);
+        when(groupRepository.save(ArgumentMatchers.any(SharingGroup.class))).thenAnswer(invocation -> {
+            SharingGroup group = invocation.getArgument(0);
+            group.setId(3);
+            return group;
+        });
+
+        SharingGroup group = groupService.createGroup(owner, " team ");
+
+        Assert.assertEquals("team", group.getName());
+        Assert.assertFalse(group.getReadAccess());
+        Mockito.verifyZeroInteractions(groupIndex);
+    }
+
+    /**
+     * Тест создания группы
+     * Выбрасывается ошибка, если группа с таким названием уже есть
+     */
+    @Test(expected = AlreadyExistException.class)
+    public void createGroupExistsTest() {
+        when(groupRepository.existsByUserAndName(owner, "team")).thenReturn(true);
+
+        groupService.createGroup(owner, "team");
+    }
+
+    /**
+     * Тест создания группы
+     * Выбрасывается ошибка, если название не указано
+     */
+    @Test(expected = NotFoundException.class)
+    public void createGroupEmptyNameTest() {
+        groupService.createGroup(owner, "  ");
+    }
+
+    /**
+     * Тест поиска чужой группы
+     */
+    @Test(expected = NotFoundException.class)
+    public void findGroupNotOwnerTest() {
+        when(groupRepository.findById(3)).thenReturn(Optional.of(createGroup()));
+
+        groupService.findGroup(member, "3");
+    }
+
+    /**
+     * Тест изменения доступа группы: меняется одна строка группы, группы владельца в индексе помечаются устаревшими
+     */
+    @Test
+    public void updateGroupAccessTest() {
+        SharingGroup group = createGroup();
+        when(groupRepository.findById(3)).thenReturn(Optional.of(group));
+
+        groupService.updateGroupAccess(owner, "3", true, true);
+
+        Assert.assertTrue(group.getReadAccess());
+        Assert.assertTrue(group.getDownloadAccess());
+        verify(groupRepository).save(group);
+        verify(groupIndex).markUserStale(1);
+    }
+
+    /**
+     * Тест добавления и удаления участника
+     */
+    @Test
+    public void addAndRemoveMemberTest() {
+        SharingGroup group = createGroup();
+        when(groupRepository.findById(3)).thenReturn(Optional.of(group));
+        when(userRepository.findByUsername("john")).thenReturn(member);
+        groupIndex.startLoading();
+        groupIndex.loadGroup(3, 1, AccessDecision.DOWNLOAD_ACCESS);
+        groupIndex.finishLoading();
+        group.setDownloadAccess(true);
+
+        groupService.addMember(owner, "3", "john");
+
+        verify(memberRepository).save(new GroupMember(group, member));
+        when(groupRepository.findGrantingGroups(1, 2)).thenReturn(Collections.singletonList(group));
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, groupService.findGroupFlags(1, 2));
+
+        when(memberRepository.existsById(new GroupMemberId(3, 2))).thenReturn(true);
+        groupService.removeMember(owner, "3", "2");
+
+        verify(memberRepository).deleteById(new GroupMemberId(3, 2));
+        when(groupRepository.findGrantingGroups(1, 2)).thenReturn(Collections.emptyList());
+        Assert.assertEquals(0, groupService.findGroupFlags(1, 2));
+        verify(groupIndex, Mockito.times(2)).markStale(1, 2);
+    }
+
+    /**
+     * Тест добавления участника, который уже состоит в группе
+     */
+    @Test(expected = AlreadyExistException.class)
+    public void addMemberExistsTest() {
+        when(groupRepository.findById(3)).thenReturn(Optional.of(createGroup()));
+        when(userRepository.findByUsername("john")).thenReturn(member);
+        when(memberRepository.existsById(new GroupMemberId(3, 2))).thenReturn(true);
+
+        groupService.addMember(owner, "3", "john");
+    }
+
+    /**
+     * Тест удаления группы: участники удаляются одним запросом
+     */
+    @Test
+    public void deleteGroupTest() {
+        SharingGroup group = createGroup();
+        when(groupRepository.findById(3)).thenReturn(Optional.of(group));
+
+        groupService.deleteGroup(owner, "3");
+
+        verify(memberRepository).deleteByGroupId(3);
+        verify(groupRepository).delete(group);
+        verify(groupIndex).markUserStale(1);
+    }
+
+    /**
+     * Тест поиска доступа по группам до загрузки индекса: доступ берется из базы данных
+     */
+    @Test
+    public void findGroupFlagsNotLoadedTest() {
+        SharingGroup group = createGroup();
+        group.setReadAccess(true);
+        when(groupRepository.findGrantingGroups(1, 2)).thenReturn(Collections.singletonList(group));
+
+        Assert.assertEquals(AccessDecision.READ_ACCESS, groupService.findGroupFlags(1, 2));
+    }
+
+    /**
+     * Тест загрузки групп в индекс при запуске
+     */
+    @Test
+    public void loadGroupsTest() {
+        Object[] group = {3, 1, false, (byte) 1};
+        Object[] membership = {3, 2};
+        when(groupRepository.streamAllGroups()).thenReturn(Stream.<Object[]>of(group));
+        when(memberRepository.streamAllMembers()).thenReturn(Stream.<Object[]>of(membership));
+
+        Assert.assertEquals(1, groupService.loadGroups());
+
+        Assert.assertEquals(AccessDecision.DOWNLOAD_ACCESS, groupService.findGroupFlags(1, 2));
+        Assert.assertEquals(0, groupService.findGroupFlags(1, 4));
+        verify(groupRepository, Mockito.never()).findGrantingGroups(1, 2);
+    }
+
+    /**
+     * Создает группу владельца с id 3
+     *
+     * @return группа
+     */
+    private SharingGroup createGroup() {
+        SharingGroup group = new SharingGroup(owner, "team");
+        group.setId(3);
+        return group;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import ru.bellintegrator.filesharing.storage.FileLayout;
+
+/**
+ * Тест сервиса переноса файлов в иерархическое размещение
+ */
+public class StorageMigrationServiceTest {
+
+    private static final Path ROOT = Paths.get("src/test/resources/uploads/.migration-test");
+
+    private StorageMigrationServiceImpl migrationService = new StorageMigrationServiceImpl();
+
+    @Before
+    public void init() throws IOException {
+        ReflectionTestUtils.setField(migrationService, "uploadPath", ROOT.toString());
+        ReflectionTestUtils.setField(migrationService, "batchSize", 1000);
+        Files.createDirectories(ROOT);
+    }
+
+    @After
+    public void clean() {
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+
+    /**
+     * Тест переноса файлов из корня каталога загрузок
+     *
+     * @throws IOException
+     */
+    @Test
+    public void migrateFilesTest() throws IOException {
+        Files.write(ROOT.resolve("47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt"), "test".getBytes());
+        Files.write(ROOT.resolve("test.txt"), "test".getBytes());
+        Files.write(ROOT.resolve(".upload-1.tmp"), "test".getBytes());
+
+        Assert.assertEquals(2, migrationService.migrateFiles());
+
+        Assert.assertTrue(Files.exists(ROOT.resolve("47/fb/47fb4801-10e9-49a7-a3c4-ffb34db0f1cc.test.txt")));
+        Assert.assertEquals(FileLayout.getShardedPath(ROOT, "test.txt"),
+                FileLayout.resolve(ROOT, "test.txt"));
+        Assert.assertTrue(Files.exists(ROOT.resolve(".upload-1.tmp")));
+        Assert.assertEquals(0, migrationService.migrateFiles());
+    }
+
+    /**
+     * Тест ограничения количества файлов, переносимых за один запуск
+     *
+     * @throws IOException
+     */
+    @Test
+    public void migrateFilesBatchTest() throws IOException {
+        ReflectionTestUtils.setField(migrationService, "batchSize", 1);
+        Files.write(ROOT.resolve("aaaa.txt"), "test".getBytes());
+        Files.write(ROOT.resolve("bbbb.txt"), "test".getBytes());
+
+        Assert.assertEquals(1, migrationService.migrateFiles());
+        Assert.assertEquals(1, migrationService.migrateFiles());
+        Assert.assertTrue(Files.exists(ROOT.resolve("aa/aa/aaaa.txt")));
+        Assert.assertTrue(Files.exists(ROOT.resolve("bb/bb/bbbb.txt")));
+    }
+
+    /**
+     * Тест переноса, если один из файлов перенести нельзя: он пропускается, остальные переносятся
+     *
+     * @throws IOException
+     */
+    @Test
+    public void migrateFilesFailureTest() throws IOException {
+        Files.write(ROOT.resolve("aaaa.txt"), "test".getBytes());
+        Files.write(ROOT.resolve("bbbb.txt"), "test".getBytes());
+        Files.write(ROOT.resolve("cccc.txt"), "test".getBytes());
+        Path blocked = FileLayout.getShardedPath(ROOT, "bbbb.txt");
+        Files.createDirectories(blocked);
+        Files.write(blocked.resolve("other.txt"), "test".getBytes());
+
+        Assert.assertEquals(2, migrationService.migrateFiles());
+        Assert.assertTrue(Files.exists(ROOT.resolve("aa/aa/aaaa.txt")));
+        Assert.assertTrue(Files.exists(ROOT.resolve("bbbb.txt")));
+        Assert.assertTrue(Files.exists(ROOT.resolve("cc/cc/cccc.txt")));
+    }
+}
@@ -0,0 +1,167 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.bellintegrator.filesharing.model.FileContent;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.repository.FileContentRepository;
+import ru.bellintegrator.filesharing.repository.UserFileRepository;
+import ru.bellintegrator.filesharing.storage.FileStat;
+import ru.bellintegrator.filesharing.storage.FileStore;
+import ru.bellintegrator.filesharing.storage.InMemoryFileStore;
+import ru.bellintegrator.filesharing.storage.StagedContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Тест сервиса сверки таблицы файлов с хранилищем
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StorageReconcilerServiceTest {
+
+    @Mock
+    private UserFileRepository fileRepository;
+
+    @Mock
+    private FileContentRepository contentRepository;
+
+    @Mock
+    private FileService fileService;
+
+    private InMemoryFileStore fileStore = new InMemoryFileStore();
+
+    private StorageReconcilerServiceImpl reconcilerService;
+
+    @Before
+    public void init() {
+        reconcilerService = new StorageReconcilerServiceImpl(fileRepository, contentRepository, fileService, fileStore);
+        ReflectionTestUtils.setField(reconcilerService, "batchSize", 10);
+        ReflectionTestUtils.setField(reconcilerService, "rate", 0);
+        ReflectionTestUtils.setField(reconcilerService, "gracePeriod", 0L);
+    }
+
+    /**
+     * Тест поиска файлов без содержимого и содержимого без файлов без исправления
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reconcileReportTest() throws IOException {
+        String stored = store("test");
+        String orphan = store("orphan");
+        Mockito.doReturn(Arrays.asList(new UserFile(1, stored, "test.txt", 0),
+                new UserFile(2, "missing", "missing.txt", 0)))
+                .when(fileRepository).findPageAfter(0, 10);
+        Mockito.doReturn(Collections.singletonList(stored)).when(fileRepository).findReferencedNames(Mockito.any());
+
+        Assert.assertEquals(2, reconcilerService.reconcile());
+
+        verify(fileService, never()).deleteMissingFile(Mockito.any());
+        verify(fileService, never()).deleteOrphanContent(orphan);
+    }
+
+    /**
+     * Тест исправления расхождений: файл без содержимого помечается удаленным, содержимое без ссылок удаляется
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reconcileRepairTest() throws IOException {
+        ReflectionTestUtils.setField(reconcilerService, "repair", true);
+        String stored = store("test");
+        String orphan = store("orphan");
+        Mockito.doReturn(Collections.singletonList(new UserFile(2, "missing", "missing.txt", 0)))
+                .when(fileRepository).findPageAfter(0, 10);
+        Mockito.doReturn(Collections.singletonList(new FileContent(stored, 4L, 1)))
+                .when(contentRepository).findAllById(Mockito.any());
+
+        Assert.assertEquals(2, reconcilerService.reconcile());
+
+        verify(fileService).deleteMissingFile(2);
+        verify(fileService).deleteOrphanContent(orphan);
+        verify(fileService, never()).deleteOrphanContent(stored);
+    }
+
+    /**
+     * Тест пропуска недавно сохраненного содержимого, ссылка на которое может быть еще не записана
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reconcileGracePeriodTest() throws IOException {
+        ReflectionTestUtils.setField(reconcilerService, "repair", true);
+        ReflectionTestUtils.setField(reconcilerService, "gracePeriod", 3600000L);
+        store("orphan");
+
+        Assert.assertEquals(0, reconcilerService.reconcile());
+
+        verify(fileService, never()).deleteOrphanContent(Mockito.any());
+    }
+
+    /**
+     * Тест продолжения обхода с места предыдущего запуска
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reconcileBatchTest() throws IOException {
+        ReflectionTestUtils.setField(reconcilerService, "batchSize", 1);
+        store("first");
+        store("second");
+        Mockito.doReturn(Collections.singletonList(new UserFile(1, "missing", "missing.txt", 0)))
+                .when(fileRepository).findPageAfter(0, 1);
+
+        Assert.assertEquals(2, reconcilerService.reconcile());
+        Assert.assertEquals(1, reconcilerService.reconcile());
+        Assert.assertEquals(1, reconcilerService.reconcile());
+
+        verify(fileRepository).findPageAfter(1, 1);
+    }
+
+    /**
+     * Тест продолжения обхода с файла, на котором предыдущий запуск прервала ошибка хранилища
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reconcileResumeAfterStoreErrorTest() throws IOException {
+        FileStore failingStore = Mockito.mock(FileStore.class);
+        reconcilerService = new StorageReconcilerServiceImpl(fileRepository, contentRepository, fileService,
+                failingStore);
+        ReflectionTestUtils.setField(reconcilerService, "batchSize", 3);
+        ReflectionTestUtils.setField(reconcilerService, "rate", 0);
+        Mockito.doReturn(new FileStat("stored", 4, 0)).when(failingStore).stat("stored");
+        Mockito.doThrow(new IOException("Store is unavailable")).doReturn(new FileStat("broken", 4, 0))
+                .when(failingStore).stat("broken");
+        Mockito.doReturn(Arrays.asList(new UserFile(1, "stored", "stored.txt", 0),
+                new UserFile(2, "broken", "broken.txt", 0), new UserFile(3, "missing", "missing.txt", 0)))
+                .when(fileRepository).findPageAfter(0, 3);
+        Mockito.doReturn(Arrays.asList(new UserFile(2, "broken", "broken.txt", 0),
+                new UserFile(3, "missing", "missing.txt", 0)))
+                .when(fileRepository).findPageAfter(1, 3);
+
+        Assert.assertEquals(0, reconcilerService.reconcile());
+        Assert.assertEquals(1, reconcilerService.reconcile());
+
+        verify(fileRepository).findPageAfter(1, 3);
+        verify(failingStore).stat("stored");
+    }
+
+    private String store(String text) throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream(text.getBytes()));
+        fileStore.put(content, content.getHash());
+        return content.getHash();
+    }
+}
@@ -0,0 +1,278 @@
+package ru.bellintegrator.filesharing.service;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+import ru.bellintegrator.filesharing.exception.AccessException;
+import ru.bellintegrator.filesharing.exception.ConflictException;
+import ru.bellintegrator.filesharing.exception.QuotaExceededException;
+import ru.bellintegrator.filesharing.model.UploadSession;
+import ru.bellintegrator.filesharing.model.User;
+import ru.bellintegrator.filesharing.model.UserFile;
+import ru.bellintegrator.filesharing.repository.UploadSessionRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тест сервиса докачиваемой загрузки файлов
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UploadServiceTest {
+
+    @Mock
+    private UploadSessionRepository sessionRepository;
+
+    @Mock
+    private FileService fileService;
+
+    @InjectMocks
+    private UploadServiceImpl uploadService;
+
+    private User fileOwner = new User(1, "Maria", "maria", "example@example.com", null, true);
+    private User notOwner = new User(2, "John", "john", "example@example.com", null, true);
+
+    private static final String SESSION_ID = "3f8d6d2a-6a57-4c1e-9a1b-2f1f0c3c9e11";
+    private static final Path STAGING_DIR = Paths.get("src/test/resources/uploads/.staging");
+
+    private UploadSession session = new UploadSession(SESSION_ID, "test.txt", new Date(), fileOwner);
+
+    @Before
+    public void init() throws IOException {
+        ReflectionTestUtils.setField(uploadService, "uploadPath", "src/test/resources/uploads");
+        ReflectionTestUtils.setField(uploadService, "sessionTtlHours", 24L);
+        Files.createDirectories(STAGING_DIR);
+        Files.write(STAGING_DIR.resolve(SESSION_ID), "te".getBytes());
+    }
+
+    @After
+    public void clean() {
+        FileSystemUtils.deleteRecursively(STAGING_DIR.toFile());
+    }
+
+    /**
+     * Тест метода создания сессии загрузки
+     */
+    @Test
+    public void createSessionTest() {
+        when(sessionRepository.save(any(UploadSession.class))).then(invocation -> invocation.getArgument(0));
+        UploadSession created = uploadService.createSession(fileOwner, "test2.txt");
+        Assert.assertEquals("test2.txt", created.getOriginalName());
+        Assert.assertEquals(fileOwner, created.getUser());
+        Assert.assertTrue(Files.exists(STAGING_DIR.resolve(created.getId())));
+    }
+
+    /**
+     * Тест метода, возвращающего смещение загрузки
+     */
+    @Test
+    public void getOffsetTest() {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        Assert.assertEquals(2, uploadService.getOffset(fileOwner, SESSION_ID));
+    }
+
+    /**
+     * Тест метода дозаписи части файла
+     *
+     * @throws IOException
+     */
+    @Test
+    public void writeChunkTest() throws IOException {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        long offset = uploadService.writeChunk(fileOwner, SESSION_ID, 2, 2, new ByteArrayInputStream("st".getBytes()));
+        Assert.assertEquals(4, offset);
+        Assert.assertEquals("test", new String(Files.readAllBytes(STAGING_DIR.resolve(SESSION_ID))));
+    }
+
+    /**
+     * Тест метода дозаписи части файла с неверным смещением
+     *
+     * @throws IOException
+     */
+    @Test
+    public void writeChunkWrongOffsetTest() throws IOException {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        try {
+            uploadService.writeChunk(fileOwner, SESSION_ID, 0, 4, new ByteArrayInputStream("test".getBytes()));
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals("The upload offset must be 2", e.getMessage());
+        }
+        Assert.assertEquals("te", new String(Files.readAllBytes(STAGING_DIR.resolve(SESSION_ID))));
+    }
+
+    /**
+     * Тест дозаписи частей, которые вместе с уже принятыми байтами не помещаются в квоту
+     *
+     * @throws IOException
+     */
+    @Test
+    public void writeChunksOverQuotaTest() throws IOException {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        doAnswer(invocation -> {
+            if ((long) invocation.getArgument(1) > 5) {
+                throw new QuotaExceededException("Storage quota exceeded");
+            }
+            return null;
+        }).when(fileService).checkQuota(eq(fileOwner), anyLong());
+
+        Assert.assertEquals(4, uploadService.writeChunk(fileOwner, SESSION_ID, 2, 2,
+                new ByteArrayInputStream("st".getBytes())));
+        try {
+            uploadService.writeChunk(fileOwner, SESSION_ID, 4, 2, new ByteArrayInputStream("ed".getBytes()));
+            Assert.fail();
+        } catch (QuotaExceededException e) {
+            Assert.assertEquals("test", new String(Files.readAllBytes(STAGING_DIR.resolve(SESSION_ID))));
+        }
+        try {
+            uploadService.writeChunk(fileOwner, SESSION_ID, 4, -1, new ByteArrayInputStream("ed".getBytes()));
+            Assert.fail();
+        } catch (QuotaExceededException e) {
+            Assert.assertEquals("test", new String(Files.readAllBytes(STAGING_DIR.resolve(SESSION_ID))));
+        }
+    }
+
+    /**
+     * Тест метода дозаписи части файла в чужую сессию
+     */
+    @Test(expected = AccessException.class)
+    public void writeChunkNotOwnerTest() {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        uploadService.writeChunk(notOwner, SESSION_ID, 2, 2, new ByteArrayInputStream("st".getBytes()));
+    }
+
+    /**
+     * Тест метода завершения загрузки
+     */
+    @Test
+    public void completeUploadTest() {
+        UserFile file = new UserFile(5, "test", "test.txt", 0);
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        when(fileService.uploadStagedFile(eq(fileOwner), eq(session), any(InputStream.class))).then(invocation -> {
+            Assert.assertEquals("te", StreamUtils.copyToString(invocation.getArgument(2), StandardCharsets.UTF_8));
+            return file;
+        });
+        Assert.assertEquals(file, uploadService.completeUpload(fileOwner, SESSION_ID));
+        verify(fileService).checkQuota(fileOwner, 2);
+        verify(sessionRepository, never()).save(any());
+        Assert.assertFalse(Files.exists(STAGING_DIR.resolve(SESSION_ID)));
+    }
+
+    /**
+     * Тест завершения загрузки, которую другой запрос завершил, пока этот запрос ждал файл загрузки
+     */
+    @Test
+    public void completeUploadCompletedByAnotherRequestTest() {
+        UserFile file = new UserFile(5, "test", "test.txt", 0);
+        UploadSession completed = new UploadSession(SESSION_ID, "test.txt", new Date(), fileOwner);
+        completed.setFile(file);
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session), Optional.of(completed));
+        Assert.assertEquals(file, uploadService.completeUpload(fileOwner, SESSION_ID));
+        verify(fileService, never()).uploadStagedFile(any(), any(), any());
+    }
+
+    /**
+     * Тест повторного завершения загрузки
+     */
+    @Test
+    public void completeUploadTwiceTest() {
+        UserFile file = new UserFile(5, "test", "test.txt", 0);
+        session.setFile(file);
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        Assert.assertEquals(file, uploadService.completeUpload(fileOwner, SESSION_ID));
+        verify(fileService, never()).uploadStagedFile(any(), any(), any());
+    }
+
+    /**
+     * Тест завершения загрузки, в которую в это время пишется часть
+     *
+     * @throws IOException
+     */
+    @Test
+    public void completeUploadDuringWriteTest() throws IOException {
+        when(sessionRepository.findById(SESSION_ID)).thenReturn(Optional.of(session));
+        try (FileChannel channel = FileChannel.open(STAGING_DIR.resolve(SESSION_ID), StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            uploadService.completeUpload(fileOwner, SESSION_ID);
+            Assert.fail();
+        } catch (ConflictException e) {
+            Assert.assertEquals("The upload is being written by another request", e.getMessage());
+        }
+        verify(fileService, never()).uploadStagedFile(any(), any(), any());
+    }
+
+    /**
+     * Тест метода удаления просроченных сессий
+     */
+    @Test
+    public void removeExpiredSessionsTest() throws IOException {
+        Path stagingFile = STAGING_DIR.resolve(SESSION_ID);
+        Files.setLastModifiedTime(stagingFile, FileTime.fromMillis(System.currentTimeMillis()
+                - TimeUnit.HOURS.toMillis(25)));
+        when(sessionRepository.findByCreationDateBefore(ArgumentMatchers.any(Date.class)))
+                .thenReturn(Collections.singletonList(session));
+        uploadService.removeExpiredSessions();
+        verify(sessionRepository).delete(session);
+        Assert.assertFalse(Files.exists(stagingFile));
+    }
+
+    /**
+     * Тест удаления просроченных сессий: сессия, в которую недавно писали, остается
+     */
+    @Test
+    public void removeExpiredSessionsActiveTest() {
+        when(sessionRepository.findByCreationDateBefore(ArgumentMatchers.any(Date.class)))
+                .thenReturn(Collections.singletonList(session));
+        uploadService.removeExpiredSessions();
+        verify(sessionRepository, never()).delete(session);
+        Assert.assertTrue(Files.exists(STAGING_DIR.resolve(SESSION_ID)));
+    }
+
+    /**
+     * Тест удаления просроченных сессий: файл, в который идет запись, не удаляется
+     */
+    @Test
+    public void removeExpiredSessionsLockedTest() throws IOException {
+        Path stagingFile = STAGING_DIR.resolve(SESSION_ID);
+        Files.setLastModifiedTime(stagingFile, FileTime.fromMillis(System.currentTimeMillis()
+                - TimeUnit.HOURS.toMillis(25)));
+        when(sessionRepository.findByCreationDateBefore(ArgumentMatchers.any(Date.class)))
+                .thenReturn(Collections.singletonList(session));
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            uploadService.removeExpiredSessions();
+        }
+        verify(sessionRepository, never()).delete(session);
+        Assert.assertTrue(Files.exists(stagingFile));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Тест сжатия gzip и распознавания сжатых форматов
+ */
+public class GzipContentCodecTest {
+
+    private GzipContentCodec codec = new GzipContentCodec();
+
+    /**
+     * Тест сжатия и распаковки содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void encodeDecodeTest() throws IOException {
+        byte[] content = new byte[300000];
+        new Random(1).nextBytes(content);
+        for (int i = 0; i < content.length; i += 2) {
+            content[i] = 'a';
+        }
+
+        byte[] encoded = StreamUtils.copyToByteArray(codec.encode(new ByteArrayInputStream(content)));
+        Assert.assertTrue(encoded.length < content.length);
+
+        try (InputStream in = codec.decode(new ByteArrayInputStream(encoded))) {
+            Assert.assertArrayEquals(content, StreamUtils.copyToByteArray(in));
+        }
+    }
+
+    /**
+     * Тест совместимости сжатого содержимого с GZIPInputStream, которым пользуются клиенты
+     *
+     * @throws IOException
+     */
+    @Test
+    public void gzipCompatibilityTest() throws IOException {
+        byte[] content = "test test test test".getBytes();
+        byte[] encoded = StreamUtils.copyToByteArray(codec.encode(new ByteArrayInputStream(content)));
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            Assert.assertArrayEquals(content, StreamUtils.copyToByteArray(in));
+        }
+        Assert.assertTrue(CompressedFormats.isCompressed(encoded, encoded.length));
+    }
+
+    /**
+     * Тест сжатия пустого содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void encodeEmptyTest() throws IOException {
+        byte[] encoded = StreamUtils.copyToByteArray(codec.encode(new ByteArrayInputStream(new byte[0])));
+
+        try (InputStream in = codec.decode(new ByteArrayInputStream(encoded))) {
+            Assert.assertEquals(0, StreamUtils.copyToByteArray(in).length);
+        }
+    }
+
+    /**
+     * Тест распознавания сжатых форматов
+     */
+    @Test
+    public void compressedFormatsTest() {
+        byte[] png = {(byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a};
+        byte[] mp4 = {0, 0, 0, 0x18, 0x66, 0x74, 0x79, 0x70, 0x6d, 0x70};
+        byte[] text = "plain text".getBytes();
+
+        Assert.assertTrue(CompressedFormats.isCompressed(png, png.length));
+        Assert.assertTrue(CompressedFormats.isCompressed(mp4, mp4.length));
+        Assert.assertFalse(CompressedFormats.isCompressed(text, text.length));
+        Assert.assertFalse(CompressedFormats.isCompressed(png, 2));
+    }
+}
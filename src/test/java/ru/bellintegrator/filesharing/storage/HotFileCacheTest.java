@@ -0,0 +1,220 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Тест кэша часто скачиваемых файлов
+ */
+public class HotFileCacheTest {
+
+    private InMemoryFileStore fileStore = new InMemoryFileStore();
+
+    /**
+     * Тест добавления файла в кэш после нескольких обращений
+     *
+     * @throws IOException
+     */
+    @Test
+    public void cacheHotFileTest() throws IOException {
+        HotFileCache cache = new HotFileCache(1024, 512, 2);
+
+        Assert.assertNull(cache.get("a"));
+        Resource content = content(100);
+        Assert.assertSame(content, cache.cache("a", content));
+        Assert.assertNull(cache.get("a"));
+        Resource cached = cache.cache("a", content);
+
+        Assert.assertNotSame(content, cached);
+        Assert.assertArrayEquals(StreamUtils.copyToByteArray(content.getInputStream()),
+                StreamUtils.copyToByteArray(cached.getInputStream()));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(100, cache.getUsedBytes());
+    }
+
+    /**
+     * Тест чтения части содержимого из кэша несколькими потоками одновременно
+     *
+     * @throws IOException
+     */
+    @Test
+    public void independentStreamsTest() throws IOException {
+        HotFileCache cache = new HotFileCache(1024, 512, 0);
+        Resource cached = cache.cache("a", content(10));
+
+        try (InputStream first = cached.getInputStream(); InputStream second = cached.getInputStream()) {
+            Assert.assertEquals(5, first.skip(5));
+            Assert.assertEquals(5, first.read());
+            Assert.assertEquals(0, second.read());
+        }
+    }
+
+    /**
+     * Тест вытеснения редко запрашиваемого файла и отказа в добавлении файла, который запрашивается реже
+     *
+     * @throws IOException
+     */
+    @Test
+    public void evictionTest() throws IOException {
+        HotFileCache cache = new HotFileCache(250, 512, 1);
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot");
+        }
+        cache.get("cold");
+        cache.cache("hot", content(100));
+        cache.cache("cold", content(100));
+        Assert.assertEquals(2, cache.getEntryCount());
+
+        cache.get("new");
+        cache.get("new");
+        cache.cache("new", content(100));
+
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNull(cache.get("cold"));
+        Assert.assertNotNull(cache.get("hot"));
+        Assert.assertNotNull(cache.get("new"));
+
+        cache.get("rare");
+        Resource rare = content(100);
+        Assert.assertSame(rare, cache.cache("rare", rare));
+        Assert.assertEquals(200, cache.getUsedBytes());
+    }
+
+    /**
+     * Тест ограничения размера файла и удаления файла из кэша
+     *
+     * @throws IOException
+     */
+    @Test
+    public void limitsAndInvalidateTest() throws IOException {
+        HotFileCache cache = new HotFileCache(1024, 512, 0);
+        Resource large = content(600);
+        Assert.assertSame(large, cache.cache("large", large));
+
+        cache.cache("a", content(100));
+        Assert.assertEquals(100, cache.getUsedBytes());
+        cache.invalidate("a");
+        Assert.assertEquals(0, cache.getUsedBytes());
+        Assert.assertNull(cache.get("a"));
+    }
+
+    /**
+     * Тест отказа в добавлении без чтения содержимого: решение принимается до выделения буфера
+     *
+     * @throws IOException
+     */
+    @Test
+    public void rejectedContentIsNotReadTest() throws IOException {
+        HotFileCache cache = new HotFileCache(150, 512, 1);
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot");
+        }
+        cache.cache("hot", content(100));
+        cache.get("rare");
+        Resource unreadable = new ByteArrayResource(new byte[100]) {
+            @Override
+            public InputStream getInputStream() {
+                throw new AssertionError("Content read before admission");
+            }
+        };
+
+        Assert.assertSame(unreadable, cache.cache("rare", unreadable));
+        Assert.assertEquals(100, cache.getUsedBytes());
+    }
+
+    /**
+     * Тест освобождения зарезервированного места, если содержимое не удалось прочитать
+     *
+     * @throws IOException
+     */
+    @Test
+    public void failedReadReleasesSpaceTest() throws IOException {
+        HotFileCache cache = new HotFileCache(1024, 512, 0);
+        Resource broken = new ByteArrayResource(new byte[100]) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("Broken storage");
+            }
+        };
+
+        try {
+            cache.cache("a", broken);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(0, cache.getUsedBytes());
+        }
+        Assert.assertNotSame(broken, cache.cache("a", content(100)));
+        Assert.assertEquals(100, cache.getUsedBytes());
+    }
+
+    /**
+     * Тест удаления из кэша во время чтения, которое затем завершается ошибкой: место освобождается один раз,
+     * и резерв другого потока, взятый после удаления, не снимается
+     *
+     * @throws IOException
+     */
+    @Test
+    public void invalidateDuringFailedReadTest() throws IOException {
+        HotFileCache cache = new HotFileCache(1024, 512, 0);
+        Resource replacement = content(100);
+        Resource broken = new ByteArrayResource(new byte[200]) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                cache.invalidate("a");
+                Assert.assertEquals(0, cache.getUsedBytes());
+                Assert.assertNotSame(replacement, cache.cache("a", replacement));
+                throw new IOException("Broken storage");
+            }
+        };
+
+        try {
+            cache.cache("a", broken);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(100, cache.getUsedBytes());
+        }
+        Assert.assertNotNull(cache.get("a"));
+        cache.invalidate("a");
+        Assert.assertEquals(0, cache.getUsedBytes());
+    }
+
+    /**
+     * Тест выключенного кэша
+     *
+     * @throws IOException
+     */
+    @Test
+    public void disabledCacheTest() throws IOException {
+        HotFileCache cache = new HotFileCache(0, 512, 0);
+        Resource content = content(10);
+        Assert.assertSame(content, cache.cache("a", content));
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.getMissCount());
+    }
+
+    /**
+     * Создает содержимое заданного размера
+     *
+     * @param size размер
+     * @return содержимое
+     * @throws IOException
+     */
+    private Resource content(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        String name = String.valueOf(size);
+        fileStore.put(fileStore.stage(new ByteArrayInputStream(bytes)), name);
+        return fileStore.get(name);
+    }
+}
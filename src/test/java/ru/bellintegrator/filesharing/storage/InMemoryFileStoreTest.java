@@ -0,0 +1,81 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Тест хранилища в памяти
+ */
+public class InMemoryFileStoreTest {
+
+    /**
+     * SHA-256 строки "test"
+     */
+    private static final String TEST_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private InMemoryFileStore fileStore = new InMemoryFileStore();
+
+    /**
+     * Тест сохранения и чтения содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void putAndGetTest() throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream("test".getBytes()));
+        Assert.assertEquals(TEST_HASH, content.getHash());
+        Assert.assertEquals(4, content.getSize());
+        Assert.assertNull(fileStore.get(TEST_HASH));
+
+        fileStore.put(content, TEST_HASH);
+
+        Resource resource = fileStore.get(TEST_HASH);
+        Assert.assertEquals("test", StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+        Assert.assertEquals(4, resource.contentLength());
+        Assert.assertEquals(fileStore.stat(TEST_HASH).getLastModified(), resource.lastModified());
+    }
+
+    /**
+     * Тест чтения части содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void openRangeTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        try (InputStream in = fileStore.openRange(TEST_HASH, 1, 2)) {
+            Assert.assertEquals("es", StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Тест чтения части за пределами содержимого
+     *
+     * @throws IOException
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void openRangeOutOfContentTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        fileStore.openRange(TEST_HASH, 3, 2);
+    }
+
+    /**
+     * Тест удаления содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void deleteTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        Assert.assertTrue(fileStore.delete(TEST_HASH));
+        Assert.assertFalse(fileStore.delete(TEST_HASH));
+        Assert.assertNull(fileStore.stat(TEST_HASH));
+    }
+}
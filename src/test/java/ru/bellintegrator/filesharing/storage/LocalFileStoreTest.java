@@ -0,0 +1,163 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Тест хранилища на локальном диске
+ */
+public class LocalFileStoreTest {
+
+    private static final Path ROOT = Paths.get("src/test/resources/uploads/.store-test");
+
+    /**
+     * SHA-256 строки "test"
+     */
+    private static final String TEST_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private LocalFileStore fileStore = new LocalFileStore(ROOT.toString());
+
+    @Before
+    public void init() throws IOException {
+        Files.createDirectories(ROOT);
+    }
+
+    @After
+    public void clean() {
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+
+    /**
+     * Тест сохранения содержимого из потока
+     *
+     * @throws IOException
+     */
+    @Test
+    public void putTest() throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream("test".getBytes()));
+        Assert.assertEquals(TEST_HASH, content.getHash());
+        Assert.assertEquals(4, content.getSize());
+
+        fileStore.put(content, TEST_HASH);
+
+        Assert.assertTrue(Files.exists(ROOT.resolve("9f/86/" + TEST_HASH)));
+        Assert.assertEquals(0, Files.list(ROOT).filter(Files::isRegularFile).count());
+        FileStat stat = fileStore.stat(TEST_HASH);
+        Assert.assertEquals(4, stat.getSize());
+    }
+
+    /**
+     * Тест сохранения файла, уже записанного на диск
+     *
+     * @throws IOException
+     */
+    @Test
+    public void putStagedFileTest() throws IOException {
+        Path file = Files.write(ROOT.resolve(".staged"), "test".getBytes());
+        StagedContent content = fileStore.stage(file);
+        fileStore.put(content, TEST_HASH);
+
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertTrue(Files.exists(ROOT.resolve("9f/86/" + TEST_HASH)));
+    }
+
+    /**
+     * Тест удаления временного объекта
+     *
+     * @throws IOException
+     */
+    @Test
+    public void discardTest() throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream("test".getBytes()));
+        fileStore.discard(content);
+        Assert.assertEquals(0, Files.list(ROOT).count());
+        Assert.assertNull(fileStore.get(TEST_HASH));
+    }
+
+    /**
+     * Тест чтения содержимого из прежнего плоского размещения
+     *
+     * @throws IOException
+     */
+    @Test
+    public void getFlatFileTest() throws IOException {
+        Files.write(ROOT.resolve("test.txt"), "test".getBytes());
+        Resource resource = fileStore.get("test.txt");
+        Assert.assertTrue(resource.isFile());
+        Assert.assertEquals("test", StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Тест чтения части содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void openRangeTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        try (InputStream in = fileStore.openRange(TEST_HASH, 1, 2)) {
+            Assert.assertEquals("es", StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Тест удаления содержимого
+     *
+     * @throws IOException
+     */
+    @Test
+    public void deleteTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        Assert.assertTrue(fileStore.delete(TEST_HASH));
+        Assert.assertFalse(fileStore.delete(TEST_HASH));
+        Assert.assertNull(fileStore.stat(TEST_HASH));
+    }
+
+    /**
+     * Тест обхода хранилища порциями: плоское размещение и служебные файлы пропускаются
+     *
+     * @throws IOException
+     */
+    @Test
+    public void listTest() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String text : new String[]{"test", "test2", "test3"}) {
+            StagedContent content = fileStore.stage(new ByteArrayInputStream(text.getBytes()));
+            fileStore.put(content, content.getHash());
+            names.add(content.getHash());
+        }
+        names.sort(Comparator.comparing(FileLayout::getKey));
+        Files.write(ROOT.resolve("test.txt"), "test".getBytes());
+        Files.write(ROOT.resolve(".upload-1.tmp"), "test".getBytes());
+
+        List<FileStat> first = fileStore.list(null, 2);
+        Assert.assertEquals(names.subList(0, 2), getNames(first));
+        List<FileStat> second = fileStore.list(first.get(1).getName(), 2);
+        Assert.assertEquals(names.subList(2, 3), getNames(second));
+        Assert.assertTrue(fileStore.list(names.get(2), 2).isEmpty());
+    }
+
+    private static List<String> getNames(List<FileStat> stats) {
+        List<String> names = new ArrayList<>();
+        for (FileStat stat : stats) {
+            names.add(stat.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,212 @@
+package ru.bellintegrator.filesharing.storage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Тест хранилища, упаковывающего маленькие файлы в сегменты
+ */
+public class PackedFileStoreTest {
+
+    private static final Path ROOT = Paths.get("src/test/resources/uploads/.packed-test");
+    private static final Path SEGMENTS = ROOT.resolve(".segments");
+
+    /**
+     * SHA-256 строки "test"
+     */
+    private static final String TEST_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private PackedFileStore fileStore;
+
+    @Before
+    public void init() throws IOException {
+        fileStore = createStore();
+    }
+
+    @After
+    public void clean() throws IOException {
+        fileStore.close();
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+
+    /**
+     * Тест упаковки маленького файла в сегмент
+     *
+     * @throws IOException
+     */
+    @Test
+    public void putSmallFileTest() throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream("test".getBytes()));
+        Assert.assertEquals(TEST_HASH, content.getHash());
+        fileStore.put(content, TEST_HASH);
+
+        Assert.assertFalse(Files.exists(ROOT.resolve("9f/86/" + TEST_HASH)));
+        Assert.assertTrue(Files.exists(SEGMENTS.resolve("segment-00000001.dat")));
+        Resource resource = fileStore.get(TEST_HASH);
+        Assert.assertFalse(resource.isFile());
+        Assert.assertEquals(4, resource.contentLength());
+        Assert.assertEquals("test", StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8));
+        try (InputStream in = fileStore.openRange(TEST_HASH, 1, 2)) {
+            Assert.assertEquals("es", StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Тест сохранения большого файла отдельным файлом
+     *
+     * @throws IOException
+     */
+    @Test
+    public void putLargeFileTest() throws IOException {
+        StagedContent content = fileStore.stage(new ByteArrayInputStream("large content".getBytes()));
+        Assert.assertEquals(13, content.getSize());
+        fileStore.put(content, "abcd");
+
+        Assert.assertTrue(Files.exists(ROOT.resolve("ab/cd/abcd")));
+        Assert.assertTrue(fileStore.get("abcd").isFile());
+    }
+
+    /**
+     * Тест восстановления индекса после перезапуска
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reloadTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("abc".getBytes())), "abc");
+        fileStore.delete("abc");
+        fileStore.close();
+
+        fileStore = createStore();
+
+        Assert.assertEquals("test", StreamUtils.copyToString(fileStore.get(TEST_HASH).getInputStream(),
+                StandardCharsets.UTF_8));
+        Assert.assertNull(fileStore.stat("abc"));
+    }
+
+    /**
+     * Тест отрезания недописанной записи после сбоя
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reloadTruncatedSegmentTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        fileStore.close();
+        Path segment = SEGMENTS.resolve("segment-00000001.dat");
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{1, 0, 0}, java.nio.file.StandardOpenOption.APPEND);
+
+        fileStore = createStore();
+
+        Assert.assertEquals(size, Files.size(segment));
+        Assert.assertEquals(4, fileStore.stat(TEST_HASH).getSize());
+    }
+
+    /**
+     * Тест уплотнения сегментов с удаленными записями
+     *
+     * @throws IOException
+     */
+    @Test
+    public void compactTest() throws IOException {
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("abc".getBytes())), "abc");
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("xyz".getBytes())), "xyz");
+        fileStore.put(fileStore.stage(new ByteArrayInputStream("test".getBytes())), TEST_HASH);
+        Assert.assertTrue(fileStore.delete("abc"));
+
+        Assert.assertEquals(1, fileStore.compact());
+
+        Assert.assertFalse(Files.exists(SEGMENTS.resolve("segment-00000001.dat")));
+        Assert.assertEquals("xyz", StreamUtils.copyToString(fileStore.get("xyz").getInputStream(),
+                StandardCharsets.UTF_8));
+        Assert.assertNull(fileStore.get("abc"));
+        Assert.assertEquals(0, fileStore.compact());
+    }
+
+    /**
+     * Создает хранилище с порогом 8 байт и сегментами по 32 байта
+     *
+     * @return хранилище
+     * @throws IOException
+     */
+    /**
+     * Тест обхода упакованных и больших файлов в общем порядке
+     *
+     * @throws IOException
+     */
+    @Test
+    public void listTest() throws IOException {
+        StagedContent small = fileStore.stage(new ByteArrayInputStream("test".getBytes()));
+        fileStore.put(small, small.getHash());
+        StagedContent large = fileStore.stage(new ByteArrayInputStream("large test content".getBytes()));
+        fileStore.put(large, large.getHash());
+        List<String> names = new ArrayList<>(Arrays.asList(small.getHash(), large.getHash()));
+        names.sort(Comparator.comparing(FileLayout::getKey));
+
+        List<FileStat> first = fileStore.list(null, 1);
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(names.get(0), first.get(0).getName());
+        List<FileStat> second = fileStore.list(names.get(0), 1);
+        Assert.assertEquals(1, second.size());
+        Assert.assertEquals(names.get(1), second.get(0).getName());
+        Assert.assertEquals(2, fileStore.list(null, 10).size());
+        Assert.assertTrue(fileStore.list(names.get(1), 10).isEmpty());
+    }
+
+    /**
+     * Тест обхода упакованных файлов порциями: удаленные файлы не возвращаются, порядок сохраняется после перезапуска
+     *
+     * @throws IOException
+     */
+    @Test
+    public void listPackedPagesTest() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            StagedContent content = fileStore.stage(new ByteArrayInputStream(("f" + i).getBytes()));
+            fileStore.put(content, content.getHash());
+            names.add(content.getHash());
+        }
+        fileStore.delete(names.remove(2));
+        names.sort(Comparator.comparing(FileLayout::getKey));
+
+        Assert.assertEquals(names, listAll(fileStore, 2));
+        fileStore.close();
+        fileStore = createStore();
+        Assert.assertEquals(names, listAll(fileStore, 3));
+    }
+
+    private static List<String> listAll(PackedFileStore store, int limit) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<FileStat> page = store.list(null, limit);
+        while (!page.isEmpty()) {
+            page.forEach(stat -> names.add(stat.getName()));
+            page = store.list(names.get(names.size() - 1), limit);
+        }
+        return names;
+    }
+
+    private PackedFileStore createStore() throws IOException {
+        PackedFileStore store = new PackedFileStore(ROOT.toString(), 8, 32, 0.5);
+        store.init();
+        return store;
+    }
+}